@@ -175,7 +175,16 @@ public class XEventAttributeClassifier implements XEventClassifier,
 		}
 		return compareTo((XEventAttributeClassifier) o) == 0;
 	}
-	
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#hashCode()
+	 */
+	public int hashCode() {
+		return 31 * name.hashCode() + Arrays.hashCode(keys);
+	}
+
 	public void accept(XVisitor visitor, XLog log) {
 		/*
 		 * First call.
@@ -0,0 +1,285 @@
+/*
+ * OpenXES
+ *
+ * The reference implementation of the XES meta-model for event
+ * log data management.
+ *
+ *
+ * LICENSE:
+ *
+ * This code is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ *
+ */
+package org.deckfour.xes.in;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.deckfour.xes.model.XLog;
+import org.deckfour.xes.model.XTrace;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+
+/**
+ * Pull-based stream of traces of an XES log in XML representation. Each
+ * trace is handed off as soon as its closing tag is read, it is not added to
+ * any log, so logs of any size are read in the memory of one trace.
+ *
+ * Log content preceding the first trace (extensions, globals, classifiers
+ * and log attributes) is available as header right after opening. Elements
+ * are processed by the same handler as XesXmlParser.parse, so streamed
+ * traces are equal to the traces of the parsed log.
+ *
+ * Parse errors are thrown from hasNext and next as IllegalStateException.
+ * The stream is closed when the last trace is read or parsing fails.
+ */
+public class XLogStream implements Iterator<XTrace>, Closeable {
+
+	/**
+	 * Underlying input stream.
+	 */
+	private final InputStream input;
+	/**
+	 * StAX reader of the input.
+	 */
+	private final XMLStreamReader reader;
+	/**
+	 * Handler building the header and the current trace.
+	 */
+	private final XesXmlParser.XesXmlHandler handler;
+	/**
+	 * Attributes of the current element, as seen by the handler.
+	 */
+	private final Attributes attributes;
+	/**
+	 * Trace read ahead, null if not read yet.
+	 */
+	private XTrace next;
+	private boolean closed;
+
+	/**
+	 * Opens a stream and reads the header and the first trace.
+	 *
+	 * @param input
+	 *            Input stream delivering an XES log in XML representation.
+	 * @param handler
+	 *            Handler building the model.
+	 */
+	XLogStream(InputStream input, XesXmlParser.XesXmlHandler handler)
+			throws XMLStreamException {
+		this.input = input;
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+		this.reader = factory.createXMLStreamReader(input);
+		this.handler = handler;
+		this.attributes = new ReaderAttributes(reader);
+		handler.traceConsumer = trace -> next = trace;
+		advance();
+	}
+
+	/**
+	 * Retrieves the log header: a log without traces, holding extensions,
+	 * globals, classifiers and log attributes.
+	 *
+	 * @return The log header, null if the input has no log element.
+	 */
+	public XLog getHeader() {
+		return handler.getLog();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.Iterator#hasNext()
+	 */
+	@Override
+	public boolean hasNext() {
+		if (next == null) {
+			advance();
+		}
+		return next != null;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.Iterator#next()
+	 */
+	@Override
+	public XTrace next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		XTrace trace = next;
+		next = null;
+		return trace;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			reader.close();
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Feeds elements to the handler until a trace is completed or the
+	 * input ends.
+	 */
+	private void advance() {
+		if (closed) {
+			return;
+		}
+		try {
+			while (next == null && reader.hasNext()) {
+				int type = reader.next();
+				if (type == XMLStreamConstants.START_ELEMENT) {
+					String tagName = reader.getLocalName();
+					handler.startElement("", tagName, tagName, attributes);
+				} else if (type == XMLStreamConstants.END_ELEMENT) {
+					String tagName = reader.getLocalName();
+					handler.endElement("", tagName, tagName);
+				}
+			}
+			if (next == null) {
+				close();
+			}
+		} catch (XMLStreamException | SAXException | RuntimeException e) {
+			closeQuietly();
+			if (e instanceof RuntimeException) {
+				throw (RuntimeException) e;
+			}
+			throw new IllegalStateException("Can not parse XES stream", e);
+		} catch (IOException e) {
+			closeQuietly();
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Closes the stream after a parse error, which is more important than
+	 * errors of closing.
+	 */
+	private void closeQuietly() {
+		try {
+			close();
+		} catch (IOException e) {
+			// parse error is thrown
+		}
+	}
+
+	/**
+	 * SAX view of the attributes of the current StAX element, nothing is
+	 * copied.
+	 */
+	private static class ReaderAttributes implements Attributes {
+
+		private final XMLStreamReader reader;
+
+		private ReaderAttributes(XMLStreamReader reader) {
+			this.reader = reader;
+		}
+
+		@Override
+		public int getLength() {
+			return reader.getAttributeCount();
+		}
+
+		@Override
+		public String getURI(int index) {
+			String uri = reader.getAttributeNamespace(index);
+			return uri == null ? "" : uri;
+		}
+
+		@Override
+		public String getLocalName(int index) {
+			return reader.getAttributeLocalName(index);
+		}
+
+		@Override
+		public String getQName(int index) {
+			return reader.getAttributeLocalName(index);
+		}
+
+		@Override
+		public String getType(int index) {
+			return reader.getAttributeType(index);
+		}
+
+		@Override
+		public String getValue(int index) {
+			return reader.getAttributeValue(index);
+		}
+
+		@Override
+		public int getIndex(String uri, String localName) {
+			return getIndex(localName);
+		}
+
+		@Override
+		public int getIndex(String qName) {
+			for (int i = 0; i < reader.getAttributeCount(); i++) {
+				if (reader.getAttributeLocalName(i).equals(qName)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		@Override
+		public String getType(String uri, String localName) {
+			return getType(localName);
+		}
+
+		@Override
+		public String getType(String qName) {
+			int index = getIndex(qName);
+			return index < 0 ? null : getType(index);
+		}
+
+		@Override
+		public String getValue(String uri, String localName) {
+			return getValue(localName);
+		}
+
+		@Override
+		public String getValue(String qName) {
+			int index = getIndex(qName);
+			return index < 0 ? null : getValue(index);
+		}
+	}
+}
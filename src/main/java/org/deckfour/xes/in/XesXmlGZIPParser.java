@@ -40,12 +40,14 @@ package org.deckfour.xes.in;
 
 import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
 import java.util.zip.GZIPInputStream;
 
 import org.deckfour.xes.factory.XFactory;
 import org.deckfour.xes.model.XLog;
+import org.deckfour.xes.util.XPipelinedGZIPInputStream;
 
 /**
  * Parser for the compressed XES XML serialization.
@@ -120,9 +122,39 @@ public class XesXmlGZIPParser extends XesXmlParser {
 	@Override
 	public List<XLog> parse(InputStream is)
 			throws Exception {
-		is = new GZIPInputStream(new BufferedInputStream(is));
+		is = decompress(is);
 		return super.parse(is);
 	}
+
+	/* (non-Javadoc)
+	 * @see org.deckfour.xes.in.XesXmlParser#stream(java.io.InputStream)
+	 */
+	@Override
+	public XLogStream stream(InputStream is)
+			throws Exception {
+		is = decompress(is);
+		return super.stream(is);
+	}
+
+	/**
+	 * Wraps the compressed input. With more than one core, data is inflated
+	 * on a dedicated thread ahead of the XML parser.
+	 * 
+	 * @param is Gzip compressed input stream.
+	 * @return Decompressed input stream.
+	 */
+	protected InputStream decompress(InputStream is) throws IOException {
+		try {
+			if (Runtime.getRuntime().availableProcessors() > 1) {
+				return new XPipelinedGZIPInputStream(is);
+			}
+			return new GZIPInputStream(new BufferedInputStream(is));
+		} catch (IOException e) {
+			// not gzip, the caller has no stream to close
+			is.close();
+			throw e;
+		}
+	}
 	
 	
 
@@ -0,0 +1,371 @@
+/*
+ * OpenXES
+ *
+ * The reference implementation of the XES meta-model for event
+ * log data management.
+ *
+ *
+ * LICENSE:
+ *
+ * This code is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ *
+ */
+package org.deckfour.xes.in;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.deckfour.xes.factory.XFactory;
+import org.deckfour.xes.factory.XFactoryRegistry;
+import org.deckfour.xes.model.XLog;
+import org.deckfour.xes.model.XTrace;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Multi-core parser for uncompressed XES XML files.
+ *
+ * The file is memory-mapped and scanned for trace boundaries: everything
+ * before the first trace and after the last one is the log header, parsed
+ * first on the calling thread. The traces in between are split into chunks
+ * at trace start tags, chunks are parsed on the executor with their own
+ * handlers, and traces are added to the header log in file order.
+ *
+ * Boundaries are found by byte search for lower case trace tags, so the file
+ * should be in an ASCII compatible encoding (e.g. UTF-8) and must not hide
+ * trace tags in comments or CDATA sections. Files which do not look like that,
+ * and streams, are parsed sequentially.
+ *
+ * The factory is called from worker threads concurrently, each worker creates
+ * its own elements, so the factory has to be safe for concurrent creation only.
+ * The XESLite MapDB factories are: their key and literal pools are lock free,
+ * id allocation is synchronized and attributes are stored in a concurrent map.
+ * Elements created by different factory instances should not be mixed, as
+ * such factories intern attribute keys per instance.
+ */
+public class XesXmlParallelParser extends XesXmlParser {
+
+	/**
+	 * Chunks per worker thread, more chunks balance uneven traces better.
+	 */
+	protected static final int CHUNKS_PER_THREAD = 4;
+	/**
+	 * Maximal chunk size, chunks are mapped one at a time.
+	 */
+	protected static final long MAX_CHUNK_SIZE = 1L << 28;
+	/**
+	 * Size of mapped windows used to search boundaries.
+	 */
+	private static final int WINDOW = 1 << 20;
+
+	private static final byte[] TRACE_START = "<trace".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] TRACE_END = "</trace>".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] CHUNK_OPEN = "<traces>".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] CHUNK_CLOSE = "</traces>".getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * Executor running chunk parsers.
+	 */
+	protected final Executor executor;
+
+	/**
+	 * Creates a new parser instance.
+	 *
+	 * @param factory
+	 *            The XES model factory instance used to build the model from
+	 *            the serialization, should be thread safe.
+	 * @param executor
+	 *            Executor (e.g. ForkJoinPool) to parse chunks on.
+	 */
+	public XesXmlParallelParser(XFactory factory, Executor executor) {
+		super(factory);
+		this.executor = executor;
+	}
+
+	/**
+	 * Creates a new parser instance, using the currently-set standard factory
+	 * and the common fork-join pool.
+	 */
+	public XesXmlParallelParser() {
+		this(XFactoryRegistry.instance().currentDefault(), ForkJoinPool.commonPool());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.deckfour.xes.in.XesXmlParser#description()
+	 */
+	@Override
+	public String description() {
+		return "Reads XES models from plain XML serializations on multiple cores";
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.deckfour.xes.in.XesXmlParser#name()
+	 */
+	@Override
+	public String name() {
+		return "XES XML Parallel";
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.deckfour.xes.in.XParser#parse(java.io.File)
+	 */
+	@Override
+	public List<XLog> parse(File file) throws Exception {
+		if (!canParse(file)) {
+			throw new IllegalArgumentException("Parser cannot handle this file!");
+		}
+		try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+			FileChannel channel = input.getChannel();
+			long size = channel.size();
+			long first = indexOf(channel, TRACE_START, 0, size);
+			long last = lastIndexOf(channel, TRACE_END, size);
+			if (first < 0 || last < first) {
+				// no traces to split
+				return super.parse(file);
+			}
+			last += TRACE_END.length;
+
+			// header and footer make the log without traces
+			XesXmlHandler header = new XesXmlHandler();
+			parse(new ByteArrayInputStream(concat(read(channel, 0, first), read(channel, last, size - last))), header);
+			XLog log = header.getLog();
+			if (log == null) {
+				throw new IllegalArgumentException("No log element before the first trace");
+			}
+
+			List<CompletableFuture<List<XTrace>>> chunks = new ArrayList<CompletableFuture<List<XTrace>>>();
+			byte[] declaration = declaration(channel);
+			long[] bounds = split(channel, first, last);
+			for (int i = 0; i + 1 < bounds.length; i++) {
+				ByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, bounds[i], bounds[i + 1] - bounds[i]);
+				chunks.add(CompletableFuture.supplyAsync(() -> parseChunk(declaration, chunk), executor));
+			}
+			for (CompletableFuture<List<XTrace>> chunk : chunks) {
+				log.addAll(chunk.join());
+			}
+
+			ArrayList<XLog> wrapper = new ArrayList<XLog>();
+			wrapper.add(log);
+			return wrapper;
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Parses the traces of one chunk, wrapped in a synthetic root element.
+	 *
+	 * @param declaration
+	 *            XML declaration of the file, so the encoding is kept.
+	 * @param chunk
+	 *            Mapped chunk of complete traces.
+	 * @return Traces in file order.
+	 */
+	protected List<XTrace> parseChunk(byte[] declaration, ByteBuffer chunk) {
+		List<XTrace> traces = new ArrayList<XTrace>();
+		XesXmlHandler handler = new XesXmlHandler();
+		handler.traceConsumer = traces::add;
+		try {
+			parse(new SequenceInputStream(Collections.enumeration(Arrays.asList(
+					new ByteArrayInputStream(declaration),
+					new ByteArrayInputStream(CHUNK_OPEN),
+					new BufferInputStream(chunk),
+					new ByteArrayInputStream(CHUNK_CLOSE)))), handler);
+		} catch (Exception e) {
+			throw new CompletionException(e);
+		}
+		return traces;
+	}
+
+	private static void parse(InputStream is, DefaultHandler handler) throws Exception {
+		SAXParserFactory parserFactory = SAXParserFactory.newInstance();
+		parserFactory.setNamespaceAware(false);
+		SAXParser parser = parserFactory.newSAXParser();
+		parser.parse(is, handler);
+	}
+
+	/**
+	 * Splits the trace region into chunks starting at trace start tags.
+	 *
+	 * @return Ascending chunk bounds, from first to last.
+	 */
+	private long[] split(FileChannel channel, long first, long last) throws IOException {
+		int parallelism = executor instanceof ForkJoinPool ? ((ForkJoinPool) executor).getParallelism()
+				: Runtime.getRuntime().availableProcessors();
+		long count = Math.max(parallelism * CHUNKS_PER_THREAD, (last - first) / MAX_CHUNK_SIZE + 1);
+		long step = Math.max(1, (last - first) / count);
+
+		long[] bounds = new long[(int) count + 1];
+		int size = 0;
+		bounds[size++] = first;
+		for (long target = first + step; target < last && size < bounds.length - 1; target += step) {
+			long bound = indexOf(channel, TRACE_START, target, last);
+			if (bound < 0) {
+				break;
+			}
+			bounds[size++] = bound;
+			target = bound;
+		}
+		bounds[size++] = last;
+		return Arrays.copyOf(bounds, size);
+	}
+
+	/**
+	 * Position of the first tag matching pattern in [from, to), the tag name
+	 * should end with whitespace, '>' or '/'.
+	 *
+	 * @return The position, -1 if there is none.
+	 */
+	private static long indexOf(FileChannel channel, byte[] pattern, long from, long to) throws IOException {
+		for (long start = from; start < to; start += WINDOW) {
+			long length = Math.min(WINDOW + pattern.length + 1, channel.size() - start);
+			ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+			int limit = (int) Math.min(WINDOW, to - start);
+			for (int i = 0; i < limit; i++) {
+				if (matches(window, i, pattern, length)) {
+					return start + i;
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Position of the last occurrence of pattern before to.
+	 *
+	 * @return The position, -1 if there is none.
+	 */
+	private static long lastIndexOf(FileChannel channel, byte[] pattern, long to) throws IOException {
+		for (long end = to; end > 0; end -= WINDOW) {
+			long start = Math.max(0, end - WINDOW);
+			long length = Math.min(end - start + pattern.length, channel.size() - start);
+			ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+			for (int i = (int) (end - start) - 1; i >= 0; i--) {
+				if (i + pattern.length <= length && equals(window, i, pattern)) {
+					return start + i;
+				}
+			}
+		}
+		return -1;
+	}
+
+	private static boolean matches(ByteBuffer window, int i, byte[] pattern, long length) {
+		if (i + pattern.length >= length || !equals(window, i, pattern)) {
+			return false;
+		}
+		byte next = window.get(i + pattern.length);
+		return next == '>' || next == '/' || next == ' ' || next == '\t' || next == '\n' || next == '\r';
+	}
+
+	private static boolean equals(ByteBuffer window, int i, byte[] pattern) {
+		for (int j = 0; j < pattern.length; j++) {
+			if (window.get(i + j) != pattern[j]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Byte order mark and XML declaration at the start of the file.
+	 *
+	 * @return The declaration bytes, empty if the file has none.
+	 */
+	private static byte[] declaration(FileChannel channel) throws IOException {
+		byte[] start = read(channel, 0, Math.min(channel.size(), 256));
+		String text = new String(start, StandardCharsets.ISO_8859_1);
+		int open = text.indexOf("<?xml");
+		int close = text.indexOf("?>");
+		if (open < 0 || open > 3 || close < open) {
+			return new byte[0];
+		}
+		return Arrays.copyOf(start, close + 2);
+	}
+
+	private static byte[] read(FileChannel channel, long position, long length) throws IOException {
+		byte[] bytes = new byte[(int) length];
+		if (length > 0) {
+			channel.map(FileChannel.MapMode.READ_ONLY, position, length).get(bytes);
+		}
+		return bytes;
+	}
+
+	private static byte[] concat(byte[] left, byte[] right) {
+		byte[] result = Arrays.copyOf(left, left.length + right.length);
+		System.arraycopy(right, 0, result, left.length, right.length);
+		return result;
+	}
+
+	/**
+	 * Input stream reading a byte buffer, nothing is copied.
+	 */
+	private static class BufferInputStream extends InputStream {
+
+		private final ByteBuffer buffer;
+
+		private BufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) {
+			if (length == 0) {
+				return 0;
+			}
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			int count = Math.min(length, buffer.remaining());
+			buffer.get(bytes, offset, count);
+			return count;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+}
@@ -43,10 +43,12 @@ import java.io.File;
 import java.io.InputStream;
 import java.net.URI;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Stack;
+import java.util.function.Consumer;
 
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
@@ -66,6 +68,7 @@ import org.deckfour.xes.model.XLog;
 import org.deckfour.xes.model.XTrace;
 import org.deckfour.xes.model.buffered.XTraceBufferedImpl;
 import org.deckfour.xes.util.XTokenHelper;
+import org.deckfour.xes.util.XsDateTimeCodec;
 import org.deckfour.xes.util.XsDateTimeConversion;
 import org.deckfour.xes.util.XsDateTimeConversionJava7;
 import org.xml.sax.Attributes;
@@ -88,6 +91,31 @@ public class XesXmlParser extends XParser {
 	protected static final URI XES_URI = URI
 			.create("http://www.xes-standard.org/");
 
+	/**
+	 * Element tag codes, see resolveTag.
+	 */
+	protected static final int TAG_OTHER = 0;
+	protected static final int TAG_STRING = 1;
+	protected static final int TAG_DATE = 2;
+	protected static final int TAG_INT = 3;
+	protected static final int TAG_FLOAT = 4;
+	protected static final int TAG_BOOLEAN = 5;
+	protected static final int TAG_ID = 6;
+	protected static final int TAG_LIST = 7;
+	protected static final int TAG_CONTAINER = 8;
+	protected static final int TAG_EVENT = 9;
+	protected static final int TAG_TRACE = 10;
+	protected static final int TAG_LOG = 11;
+	protected static final int TAG_EXTENSION = 12;
+	protected static final int TAG_GLOBAL = 13;
+	protected static final int TAG_CLASSIFIER = 14;
+
+	/**
+	 * Maximal number of distinct values of one attribute key which are
+	 * interned during a parse.
+	 */
+	protected static final int VALUE_DICTIONARY_LIMIT = 1024;
+
 	/**
 	 * XES model factory used to build model.
 	 */
@@ -161,24 +189,45 @@ public class XesXmlParser extends XParser {
 	 * 
 	 * @param is
 	 *            Input stream, which is supposed to deliver an XES log in XML
-	 *            representation.
+	 *            representation. It is closed when parsing ends or fails.
 	 * @return The parsed log.
 	 */
 	public List<XLog> parse(InputStream is) throws Exception {
-		BufferedInputStream bis = new BufferedInputStream(is);
 		// set up a specialized SAX2 handler to fill the container
 		XesXmlHandler handler = new XesXmlHandler();
-		// set up SAX parser and parse provided log file into the container
-		SAXParserFactory parserFactory = SAXParserFactory.newInstance();
-		parserFactory.setNamespaceAware(false);
-		SAXParser parser = parserFactory.newSAXParser();
-		parser.parse(bis, handler);
-		bis.close();
+		// closed on errors too, so decompressing threads are stopped
+		try (BufferedInputStream bis = new BufferedInputStream(is)) {
+			// set up SAX parser and parse provided log file into the container
+			SAXParserFactory parserFactory = SAXParserFactory.newInstance();
+			parserFactory.setNamespaceAware(false);
+			SAXParser parser = parserFactory.newSAXParser();
+			parser.parse(bis, handler);
+		}
 		ArrayList<XLog> wrapper = new ArrayList<XLog>();
 		wrapper.add(handler.getLog());
 		return wrapper;
 	}
 
+	/**
+	 * Opens a stream of traces from the given input stream, which is
+	 * supposed to deliver an XES log in XML representation. Traces are
+	 * parsed on demand and not added to the log header.
+	 * 
+	 * @param is
+	 *            Input stream, which is supposed to deliver an XES log in XML
+	 *            representation.
+	 * @return The trace stream, positioned after the log header.
+	 */
+	public XLogStream stream(InputStream is) throws Exception {
+		BufferedInputStream bis = new BufferedInputStream(is);
+		try {
+			return new XLogStream(bis, new XesXmlHandler());
+		} catch (Exception e) {
+			bis.close();
+			throw e;
+		}
+	}
+
 	/**
 	 * SAX handler class for XES in XML representation.
 	 * 
@@ -215,6 +264,28 @@ public class XesXmlParser extends XParser {
 		 * Buffer for globals.
 		 */
 		protected List<XAttribute> globals;
+		/**
+		 * Receiver of completed traces, null to add them to the log.
+		 */
+		protected Consumer<XTrace> traceConsumer;
+
+		/**
+		 * Per-parse dictionary of attribute keys, so equal keys share one
+		 * string instance.
+		 */
+		protected HashMap<String, String> keys;
+		/**
+		 * Extension of attribute key, derived from the key prefix once per
+		 * distinct key. Keys without extension map to null.
+		 */
+		protected HashMap<String, XExtension> keyExtensions;
+		/**
+		 * Per-parse dictionaries of literal values by attribute key. Values of
+		 * keys with more than VALUE_DICTIONARY_LIMIT distinct values (e.g.
+		 * identifiers) are not interned, their dictionary is dropped and
+		 * mapped to null.
+		 */
+		protected HashMap<String, HashMap<String, String>> values;
 
 		/**
 		 * Creates a new handler instance.
@@ -227,6 +298,9 @@ public class XesXmlParser extends XParser {
 			attributableStack = new Stack<XAttributable>();
 			extensions = new HashSet<XExtension>();
 			globals = null;
+			keys = new HashMap<String, String>();
+			keyExtensions = new HashMap<String, XExtension>();
+			values = new HashMap<String, HashMap<String, String>>();
 		}
 
 		/**
@@ -248,106 +322,110 @@ public class XesXmlParser extends XParser {
 		@Override
 		public void startElement(String uri, String localName, String qName,
 				Attributes attributes) throws SAXException {
-			// resolve tag name
-			String tagName = localName.trim();
-			if (tagName.length() == 0) {
-				tagName = qName;
-			}
 			// parse content
-			if (tagName.equalsIgnoreCase("string")
-					|| tagName.equalsIgnoreCase("date")
-					|| tagName.equalsIgnoreCase("int")
-					|| tagName.equalsIgnoreCase("float")
-					|| tagName.equalsIgnoreCase("boolean")
-					|| tagName.equalsIgnoreCase("id")
-					|| tagName.equalsIgnoreCase("list")
-					|| tagName.equalsIgnoreCase("container")) {
+			int tag = resolveTag(localName, qName);
+			switch (tag) {
+			case TAG_STRING:
+			case TAG_DATE:
+			case TAG_INT:
+			case TAG_FLOAT:
+			case TAG_BOOLEAN:
+			case TAG_ID:
+			case TAG_LIST:
+			case TAG_CONTAINER:
 				// attribute tag.
 				String key = attributes.getValue("key");
 				if (key == null) {
 					// Should not be
 					key = "";
 				}
+				key = internKey(key);
 				String value = attributes.getValue("value");
 				if (value == null) {
 					// Should not be. 
 					value = "";
 				}
 				// derive extension, if attribute key hints that
-				XExtension extension = null;
-				if (key != null) {
-					int colonIndex = key.indexOf(':');
-					if (colonIndex > 0 && colonIndex < (key.length() - 1)) {
-						String prefix = key.substring(0, colonIndex);
-						extension = XExtensionManager.instance().getByPrefix(
-								prefix);
-					}
-				}
+				XExtension extension = extensionOf(key);
 				// create attribute of correct type
 				XAttribute attribute = null;
-				if (tagName.equalsIgnoreCase("string")) {
-					attribute = factory.createAttributeLiteral(key, value,
-							extension);
-				} else if (tagName.equalsIgnoreCase("date")) {
-					Date date = xsDateTimeConversion.parseXsDateTime(value);
-					if (date != null) {
-						attribute = factory.createAttributeTimestamp(key, date,
+				switch (tag) {
+				case TAG_STRING:
+					attribute = factory.createAttributeLiteral(key,
+							internValue(key, value), extension);
+					break;
+				case TAG_DATE:
+					long millis = xsDateTimeConversion.parseXsDateTimeMillis(value);
+					if (millis != XsDateTimeCodec.INVALID) {
+						attribute = factory.createAttributeTimestamp(key, millis,
 								extension);
 					} else {
 						return;
 					}
-				} else if (tagName.equalsIgnoreCase("int")) {
+					break;
+				case TAG_INT:
 					attribute = factory.createAttributeDiscrete(key,
 							Long.parseLong(value), extension);
-				} else if (tagName.equalsIgnoreCase("float")) {
+					break;
+				case TAG_FLOAT:
 					attribute = factory.createAttributeContinuous(key,
 							Double.parseDouble(value), extension);
-				} else if (tagName.equalsIgnoreCase("boolean")) {
+					break;
+				case TAG_BOOLEAN:
 					attribute = factory.createAttributeBoolean(key,
 							Boolean.parseBoolean(value), extension);
-				} else if (tagName.equalsIgnoreCase("id")) {
+					break;
+				case TAG_ID:
 					attribute = factory.createAttributeID(key,
 							XID.parse(value), extension);
-				} else if (tagName.equalsIgnoreCase("list")) {
+					break;
+				case TAG_LIST:
 					attribute = factory.createAttributeList(key, extension);
-				} else if (tagName.equalsIgnoreCase("container")) {
+					break;
+				case TAG_CONTAINER:
 					attribute = factory.createAttributeContainer(key, extension);
+					break;
 				}
 				if (attribute != null) {
 					// add to current attributable and push to stack
 					attributeStack.push(attribute);
 					attributableStack.push(attribute);
 				}
-			} else if (tagName.equalsIgnoreCase("event")) {
+				break;
+			case TAG_EVENT:
 				// event element
 				event = factory.createEvent();
 				attributableStack.push(event);
-			} else if (tagName.equalsIgnoreCase("trace")) {
+				break;
+			case TAG_TRACE:
 				// trace element
 				trace = factory.createTrace();
 				attributableStack.push(trace);
-			} else if (tagName.equalsIgnoreCase("log")) {
+				break;
+			case TAG_LOG:
 				// log element
 				log = factory.createLog();
 				attributableStack.push(log);
-			} else if (tagName.equalsIgnoreCase("extension")) {
+				break;
+			case TAG_EXTENSION:
 				// extension element
-				XExtension extension = null;
+				XExtension logExtension = null;
 				String uriString = attributes.getValue("uri");
 				if (uriString != null) {
-					extension = XExtensionManager.instance().getByUri(
+					logExtension = XExtensionManager.instance().getByUri(
 							URI.create(uriString));
 				} else {
 					String prefixString = attributes.getValue("prefix");
 					if (prefixString != null) {
-						extension = XExtensionManager.instance().getByPrefix(
+						logExtension = XExtensionManager.instance().getByPrefix(
 								prefixString);
 					}
 				}
-				if (extension != null) {
-					log.getExtensions().add(extension);
+				if (logExtension != null) {
+					log.getExtensions().add(logExtension);
 				}
-			} else if (tagName.equalsIgnoreCase("global")) {
+				break;
+			case TAG_GLOBAL:
 				// global element
 				String scope = attributes.getValue("scope");
 				if (scope.equalsIgnoreCase("trace")) {
@@ -355,7 +433,8 @@ public class XesXmlParser extends XParser {
 				} else if (scope.equalsIgnoreCase("event")) {
 					this.globals = log.getGlobalEventAttributes();
 				}
-			} else if (tagName.equalsIgnoreCase("classifier")) {
+				break;
+			case TAG_CLASSIFIER:
 				// classifier element
 				String name = attributes.getValue("name");
 				String keys = attributes.getValue("keys");
@@ -365,13 +444,14 @@ public class XesXmlParser extends XParser {
 							XTokenHelper.extractTokens(keys));
 					String[] keysArray = new String[keysList.size()];
 					int i = 0;
-					for (String key : keysList) {
-						keysArray[i++] = key;
+					for (String classifierKey : keysList) {
+						keysArray[i++] = classifierKey;
 					}
 					XEventClassifier classifier = new XEventAttributeClassifier(
 							name, keysArray);
 					log.getClassifiers().add(classifier);
 				}
+				break;
 			}
 		}
 
@@ -384,23 +464,20 @@ public class XesXmlParser extends XParser {
 		@Override
 		public void endElement(String uri, String localName, String qName)
 				throws SAXException {
-			// resolve tag name
-			String tagName = localName.trim();
-			if (tagName.length() == 0) {
-				tagName = qName;
-			}
 			// parse content
-			if (tagName.equalsIgnoreCase("global")) {
+			switch (resolveTag(localName, qName)) {
+			case TAG_GLOBAL:
 				// close globals
 				this.globals = null;
-			} else if (tagName.equalsIgnoreCase("string")
-					|| tagName.equalsIgnoreCase("date")
-					|| tagName.equalsIgnoreCase("int")
-					|| tagName.equalsIgnoreCase("float")
-					|| tagName.equalsIgnoreCase("boolean")
-					|| tagName.equalsIgnoreCase("id")
-					|| tagName.equalsIgnoreCase("list")
-					|| tagName.equalsIgnoreCase("container")) {
+				break;
+			case TAG_STRING:
+			case TAG_DATE:
+			case TAG_INT:
+			case TAG_FLOAT:
+			case TAG_BOOLEAN:
+			case TAG_ID:
+			case TAG_LIST:
+			case TAG_CONTAINER:
 				XAttribute attribute = attributeStack.pop();
 				attributableStack.pop(); // remove self from top
 				if (globals != null) {
@@ -414,26 +491,160 @@ public class XesXmlParser extends XParser {
 								.addToCollection(attribute);
 					}
 				}
-			} else if (tagName.equalsIgnoreCase("event")) {
+				break;
+			case TAG_EVENT:
 				trace.add(event);
 				event = null;
 				attributableStack.pop(); // remove self from top
-			} else if (tagName.equalsIgnoreCase("trace")) {
+				break;
+			case TAG_TRACE:
 				if (trace instanceof XTraceBufferedImpl) {
 					((XTraceBufferedImpl) trace).consolidate();
 				}
-				log.add(trace);
+				if (traceConsumer != null) {
+					traceConsumer.accept(trace);
+				} else {
+					log.add(trace);
+				}
 				trace = null;
 				attributableStack.pop(); // remove self from top
-			} else if (tagName.equalsIgnoreCase("log")) {
+				break;
+			case TAG_LOG:
 				// add all extensions
 				for (XExtension ext : extensions) {
 					log.getExtensions().add(ext);
 				}
 				attributableStack.pop(); // remove self from top
+				break;
 			}
 		}
 
+		/**
+		 * Returns the dictionary instance of an attribute key.
+		 * 
+		 * @param key
+		 *            Attribute key as read.
+		 * @return Equal key shared by all attributes of the parse.
+		 */
+		protected String internKey(String key) {
+			String interned = keys.putIfAbsent(key, key);
+			return interned == null ? key : interned;
+		}
+
+		/**
+		 * Returns the dictionary instance of a literal value, as long as the
+		 * key has few distinct values.
+		 * 
+		 * @param key
+		 *            Interned attribute key.
+		 * @param value
+		 *            Literal value as read.
+		 * @return Equal value, shared if the key has low cardinality.
+		 */
+		protected String internValue(String key, String value) {
+			HashMap<String, String> dictionary = values.get(key);
+			if (dictionary == null) {
+				if (values.containsKey(key)) {
+					// high cardinality key
+					return value;
+				}
+				dictionary = new HashMap<String, String>();
+				values.put(key, dictionary);
+			}
+			String interned = dictionary.get(value);
+			if (interned != null) {
+				return interned;
+			}
+			if (dictionary.size() >= VALUE_DICTIONARY_LIMIT) {
+				values.put(key, null);
+			} else {
+				dictionary.put(value, value);
+			}
+			return value;
+		}
+
+		/**
+		 * Derives the extension of an attribute key from its prefix, once
+		 * per distinct key.
+		 * 
+		 * @param key
+		 *            Interned attribute key.
+		 * @return The extension, null if the key has no known prefix.
+		 */
+		protected XExtension extensionOf(String key) {
+			XExtension extension = keyExtensions.get(key);
+			if (extension == null && !keyExtensions.containsKey(key)) {
+				int colonIndex = key.indexOf(':');
+				if (colonIndex > 0 && colonIndex < (key.length() - 1)) {
+					String prefix = key.substring(0, colonIndex);
+					extension = XExtensionManager.instance().getByPrefix(
+							prefix);
+				}
+				keyExtensions.put(key, extension);
+			}
+			return extension;
+		}
+
+	}
+
+	/**
+	 * Resolves an element name to its tag code. Names are matched case
+	 * insensitively, lower case names take a single string switch.
+	 * 
+	 * @param localName
+	 *            Local element name, may be empty.
+	 * @param qName
+	 *            Qualified element name, used if local name is empty.
+	 * @return The tag code, TAG_OTHER for unknown elements.
+	 */
+	protected static int resolveTag(String localName, String qName) {
+		String tagName = localName.trim();
+		if (tagName.length() == 0) {
+			tagName = qName;
+		}
+		int tag = resolveTag(tagName);
+		if (tag == TAG_OTHER) {
+			String lowerCase = tagName.toLowerCase(Locale.ENGLISH);
+			if (!lowerCase.equals(tagName)) {
+				tag = resolveTag(lowerCase);
+			}
+		}
+		return tag;
+	}
+
+	private static int resolveTag(String tagName) {
+		switch (tagName) {
+		case "string":
+			return TAG_STRING;
+		case "date":
+			return TAG_DATE;
+		case "int":
+			return TAG_INT;
+		case "float":
+			return TAG_FLOAT;
+		case "boolean":
+			return TAG_BOOLEAN;
+		case "id":
+			return TAG_ID;
+		case "list":
+			return TAG_LIST;
+		case "container":
+			return TAG_CONTAINER;
+		case "event":
+			return TAG_EVENT;
+		case "trace":
+			return TAG_TRACE;
+		case "log":
+			return TAG_LOG;
+		case "extension":
+			return TAG_EXTENSION;
+		case "global":
+			return TAG_GLOBAL;
+		case "classifier":
+			return TAG_CLASSIFIER;
+		default:
+			return TAG_OTHER;
+		}
 	}
 
 	private List<String> fixKeys(XLog log, List<String> keys) {
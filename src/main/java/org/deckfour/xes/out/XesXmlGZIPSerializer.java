@@ -41,9 +41,9 @@ package org.deckfour.xes.out;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.zip.GZIPOutputStream;
 
 import org.deckfour.xes.model.XLog;
+import org.deckfour.xes.util.XParallelGZIPOutputStream;
 
 /**
  * XES compressed XML serialization for the XES format.
@@ -86,7 +86,8 @@ public class XesXmlGZIPSerializer extends XesXmlSerializer {
 	 */
 	@Override
 	public void serialize(XLog log, OutputStream out) throws IOException {
-		GZIPOutputStream gzos = new GZIPOutputStream(out);
+		// blocks are deflated on the common pool while the log is written
+		XParallelGZIPOutputStream gzos = new XParallelGZIPOutputStream(out);
 		BufferedOutputStream bos = new BufferedOutputStream(gzos);
 		super.serialize(log, bos);
 		bos.flush();
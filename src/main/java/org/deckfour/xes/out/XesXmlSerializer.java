@@ -42,8 +42,8 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Date;
 import java.util.List;
+import java.util.TimeZone;
 
 import org.deckfour.spex.SXDocument;
 import org.deckfour.spex.SXTag;
@@ -66,6 +66,7 @@ import org.deckfour.xes.model.XLog;
 import org.deckfour.xes.model.XTrace;
 import org.deckfour.xes.util.XRuntimeUtils;
 import org.deckfour.xes.util.XTokenHelper;
+import org.deckfour.xes.util.XsDateTimeCodec;
 import org.deckfour.xes.util.XsDateTimeConversion;
 
 /**
@@ -78,6 +79,11 @@ public class XesXmlSerializer implements XSerializer {
 
 	protected XsDateTimeConversion xsDateTimeConversion = new XsDateTimeConversion();
 
+	/**
+	 * Time zone timestamps are written in.
+	 */
+	protected TimeZone timeZone = TimeZone.getDefault();
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -222,9 +228,9 @@ public class XesXmlSerializer implements XSerializer {
 			} else if (attribute instanceof XAttributeTimestamp) {
 				attributeTag = tag.addChildNode("date");
 				attributeTag.addAttribute("key", attribute.getKey());
-				Date timestamp = ((XAttributeTimestamp) attribute).getValue();
+				long timestamp = ((XAttributeTimestamp) attribute).getValueMillis();
 				attributeTag.addAttribute("value",
-						xsDateTimeConversion.format(timestamp));
+						XsDateTimeCodec.format(timestamp, timeZone));
 			} else if (attribute instanceof XAttributeBoolean) {
 				attributeTag = tag.addChildNode("boolean");
 				attributeTag.addAttribute("key", attribute.getKey());
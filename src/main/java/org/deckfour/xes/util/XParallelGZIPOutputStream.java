@@ -0,0 +1,262 @@
+/*
+ * OpenXES
+ *
+ * The reference implementation of the XES meta-model for event
+ * log data management.
+ *
+ *
+ * LICENSE:
+ *
+ * This code is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ *
+ */
+package org.deckfour.xes.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzip output stream compressing blocks in parallel, in the way of pigz.
+ * Input is cut into blocks, every block is deflated on the executor by its
+ * own deflater, primed with the last 32 KB of the previous block, and ends
+ * with a sync flush, so the compressed blocks concatenate into one deflate
+ * stream. Header, checksum and length are written by the calling thread, the
+ * result is a single-member gzip stream readable by any gzip decoder.
+ *
+ * At most two blocks per worker are in flight, so memory does not depend on
+ * output size. Not thread safe.
+ */
+public class XParallelGZIPOutputStream extends OutputStream {
+
+	/**
+	 * Default size of uncompressed blocks.
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+
+	private static final int DICTIONARY_SIZE = 1 << 15;
+	private static final byte[] HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+	private final OutputStream out;
+	private final Executor executor;
+	private final int level;
+	private final int maxPending;
+	private final ArrayDeque<CompletableFuture<byte[]>> pending = new ArrayDeque<CompletableFuture<byte[]>>();
+	private final CRC32 crc = new CRC32();
+
+	private byte[] block;
+	private int length;
+	private byte[] dictionary;
+	private long size;
+	private boolean closed;
+
+	/**
+	 * Creates a stream compressing on the common fork-join pool with the
+	 * default level.
+	 *
+	 * @param out
+	 *            Target of compressed data.
+	 */
+	public XParallelGZIPOutputStream(OutputStream out) throws IOException {
+		this(out, ForkJoinPool.commonPool(), Deflater.DEFAULT_COMPRESSION, DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * Creates a stream and writes the gzip header.
+	 *
+	 * @param out
+	 *            Target of compressed data.
+	 * @param executor
+	 *            Executor (e.g. ForkJoinPool) to deflate blocks on.
+	 * @param level
+	 *            Deflate level, see Deflater.
+	 * @param blockSize
+	 *            Size of uncompressed blocks, at least 32 KB.
+	 */
+	public XParallelGZIPOutputStream(OutputStream out, Executor executor, int level, int blockSize)
+			throws IOException {
+		if (blockSize < DICTIONARY_SIZE) {
+			throw new IllegalArgumentException("Block size should be at least " + DICTIONARY_SIZE);
+		}
+		this.out = out;
+		this.executor = executor;
+		this.level = level;
+		int parallelism = executor instanceof ForkJoinPool ? ((ForkJoinPool) executor).getParallelism()
+				: Runtime.getRuntime().availableProcessors();
+		this.maxPending = Math.max(2, parallelism * 2);
+		this.block = new byte[blockSize];
+		out.write(HEADER);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.io.OutputStream#write(int)
+	 */
+	@Override
+	public void write(int b) throws IOException {
+		ensureOpen();
+		block[length++] = (byte) b;
+		if (length == block.length) {
+			submit(false);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.io.OutputStream#write(byte[], int, int)
+	 */
+	@Override
+	public void write(byte[] bytes, int offset, int count) throws IOException {
+		ensureOpen();
+		while (count > 0) {
+			int copied = Math.min(count, block.length - length);
+			System.arraycopy(bytes, offset, block, length, copied);
+			length += copied;
+			offset += copied;
+			count -= copied;
+			if (length == block.length) {
+				submit(false);
+			}
+		}
+	}
+
+	/**
+	 * Compresses buffered data and writes all compressed blocks. The output
+	 * stays a valid prefix of the gzip stream.
+	 */
+	@Override
+	public void flush() throws IOException {
+		ensureOpen();
+		if (length > 0) {
+			submit(false);
+		}
+		while (!pending.isEmpty()) {
+			writeOldest();
+		}
+		out.flush();
+	}
+
+	/**
+	 * Compresses remaining data, writes the gzip trailer and closes the
+	 * target stream.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		try {
+			submit(true);
+			while (!pending.isEmpty()) {
+				writeOldest();
+			}
+			long checksum = crc.getValue();
+			byte[] trailer = new byte[8];
+			for (int i = 0; i < 4; i++) {
+				trailer[i] = (byte) (checksum >>> (8 * i));
+				trailer[4 + i] = (byte) (size >>> (8 * i));
+			}
+			out.write(trailer);
+			out.flush();
+		} finally {
+			closed = true;
+			out.close();
+		}
+	}
+
+	/**
+	 * Hands the current block to the executor and starts a new one.
+	 *
+	 * @param last
+	 *            Whether the block ends the deflate stream.
+	 */
+	private void submit(boolean last) throws IOException {
+		final byte[] input = block;
+		final int count = length;
+		final byte[] primer = dictionary;
+		crc.update(input, 0, count);
+		size += count;
+		if (count >= DICTIONARY_SIZE) {
+			dictionary = Arrays.copyOfRange(input, count - DICTIONARY_SIZE, count);
+		} else if (count > 0) {
+			// short block after flush, keep the tail of the previous one
+			byte[] joined = primer == null ? new byte[0] : primer;
+			joined = Arrays.copyOf(joined, joined.length + count);
+			System.arraycopy(input, 0, joined, joined.length - count, count);
+			dictionary = Arrays.copyOfRange(joined, Math.max(0, joined.length - DICTIONARY_SIZE), joined.length);
+		}
+		final boolean finish = last;
+		pending.add(CompletableFuture.supplyAsync(() -> deflate(input, count, primer, finish), executor));
+		block = new byte[block.length];
+		length = 0;
+		if (pending.size() > maxPending) {
+			writeOldest();
+		}
+	}
+
+	/**
+	 * Deflates one block into raw deflate data.
+	 */
+	private byte[] deflate(byte[] input, int count, byte[] primer, boolean last) {
+		Deflater deflater = new Deflater(level, true);
+		try {
+			if (primer != null) {
+				deflater.setDictionary(primer);
+			}
+			deflater.setInput(input, 0, count);
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream(count / 2 + 64);
+			byte[] buffer = new byte[1 << 16];
+			if (last) {
+				deflater.finish();
+				while (!deflater.finished()) {
+					compressed.write(buffer, 0, deflater.deflate(buffer));
+				}
+			} else {
+				int written;
+				do {
+					written = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+					compressed.write(buffer, 0, written);
+				} while (written == buffer.length);
+			}
+			return compressed.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private void writeOldest() throws IOException {
+		try {
+			out.write(pending.poll().join());
+		} catch (CompletionException e) {
+			throw new IOException("Block compression failed", e.getCause());
+		}
+	}
+
+	private void ensureOpen() throws IOException {
+		if (closed) {
+			throw new IOException("Stream closed");
+		}
+	}
+}
@@ -0,0 +1,260 @@
+/*
+ * OpenXES
+ *
+ * The reference implementation of the XES meta-model for event
+ * log data management.
+ *
+ *
+ * LICENSE:
+ *
+ * This code is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ *
+ */
+package org.deckfour.xes.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Gzip input stream inflating on a dedicated thread, so decompression and
+ * parsing run on two cores. The inflater thread fills large buffers taken
+ * from a fixed pool and hands them to the reader through a bounded queue;
+ * the reader returns them to the pool when consumed, so nothing is
+ * allocated after start.
+ *
+ * Concatenated gzip members (e.g. written by XParallelGZIPOutputStream) are
+ * read as one stream. Read errors of the inflater are thrown to the reader.
+ * Not thread safe on the reader side.
+ */
+public class XPipelinedGZIPInputStream extends InputStream {
+
+	/**
+	 * Default size of inflated buffers.
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+	/**
+	 * Default number of buffers, inflater may run this many buffers ahead.
+	 */
+	public static final int DEFAULT_BUFFERS = 4;
+
+	/**
+	 * Inflated data handed from the inflater to the reader.
+	 */
+	private static final class Chunk {
+		private final byte[] buffer;
+		private int length;
+		private IOException error;
+
+		private Chunk(byte[] buffer) {
+			this.buffer = buffer;
+		}
+	}
+
+	/**
+	 * Marker of the end of the inflated stream.
+	 */
+	private static final Chunk END = new Chunk(new byte[0]);
+
+	private final InputStream source;
+	private final BlockingQueue<Chunk> free;
+	private final BlockingQueue<Chunk> filled;
+	private final Thread inflater;
+
+	private Chunk current;
+	private int position;
+	private boolean ended;
+	private volatile boolean closed;
+
+	/**
+	 * Creates a stream with default buffers and starts inflating.
+	 *
+	 * @param source
+	 *            Gzip compressed input.
+	 */
+	public XPipelinedGZIPInputStream(InputStream source) throws IOException {
+		this(source, DEFAULT_BUFFER_SIZE, DEFAULT_BUFFERS);
+	}
+
+	/**
+	 * Creates a stream and starts inflating.
+	 *
+	 * @param source
+	 *            Gzip compressed input.
+	 * @param bufferSize
+	 *            Size of inflated buffers.
+	 * @param buffers
+	 *            Number of buffers, at least 2.
+	 */
+	public XPipelinedGZIPInputStream(InputStream source, int bufferSize, int buffers) throws IOException {
+		if (bufferSize <= 0 || buffers < 2) {
+			throw new IllegalArgumentException("Need at least two non-empty buffers");
+		}
+		// header is checked on the calling thread, so bad input fails here
+		final GZIPInputStream gzip = new GZIPInputStream(source, 1 << 16);
+		this.source = gzip;
+		this.free = new ArrayBlockingQueue<Chunk>(buffers);
+		// one extra slot for the end marker
+		this.filled = new ArrayBlockingQueue<Chunk>(buffers + 1);
+		for (int i = 0; i < buffers; i++) {
+			free.add(new Chunk(new byte[bufferSize]));
+		}
+		inflater = new Thread(new Runnable() {
+			public void run() {
+				inflate(gzip);
+			}
+		}, "XES gzip inflater");
+		inflater.setDaemon(true);
+		inflater.start();
+	}
+
+	/**
+	 * Inflater loop: fills free buffers until the end of input.
+	 */
+	private void inflate(InputStream gzip) {
+		try {
+			while (!closed) {
+				Chunk chunk = free.take();
+				chunk.length = 0;
+				chunk.error = null;
+				try {
+					int count = 0;
+					while (chunk.length < chunk.buffer.length
+							&& (count = gzip.read(chunk.buffer, chunk.length, chunk.buffer.length - chunk.length)) >= 0) {
+						chunk.length += count;
+					}
+					if (chunk.length > 0) {
+						filled.put(chunk);
+					} else {
+						free.put(chunk);
+					}
+					if (count < 0) {
+						filled.put(END);
+						return;
+					}
+				} catch (IOException e) {
+					chunk.error = e;
+					filled.put(chunk);
+					return;
+				}
+			}
+		} catch (InterruptedException e) {
+			// closed by reader
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.io.InputStream#read()
+	 */
+	@Override
+	public int read() throws IOException {
+		if (!ensureData()) {
+			return -1;
+		}
+		return current.buffer[position++] & 0xff;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.io.InputStream#read(byte[], int, int)
+	 */
+	@Override
+	public int read(byte[] bytes, int offset, int length) throws IOException {
+		if (length == 0) {
+			return 0;
+		}
+		if (!ensureData()) {
+			return -1;
+		}
+		int count = Math.min(length, current.length - position);
+		System.arraycopy(current.buffer, position, bytes, offset, count);
+		position += count;
+		return count;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.io.InputStream#available()
+	 */
+	@Override
+	public int available() {
+		return current == null ? 0 : current.length - position;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.io.InputStream#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		inflater.interrupt();
+		try {
+			inflater.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		source.close();
+	}
+
+	/**
+	 * Makes sure the current buffer has unread data.
+	 *
+	 * @return False at the end of the stream.
+	 */
+	private boolean ensureData() throws IOException {
+		if (closed) {
+			throw new IOException("Stream closed");
+		}
+		while (current == null || position == current.length) {
+			if (ended) {
+				return false;
+			}
+			if (current != null) {
+				free.add(current);
+				current = null;
+			}
+			Chunk chunk;
+			try {
+				chunk = filled.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for inflater");
+			}
+			if (chunk == END) {
+				ended = true;
+				return false;
+			}
+			if (chunk.error != null) {
+				ended = true;
+				throw chunk.error;
+			}
+			current = chunk;
+			position = 0;
+		}
+		return true;
+	}
+}
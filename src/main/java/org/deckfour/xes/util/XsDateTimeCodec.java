@@ -0,0 +1,319 @@
+/*
+ * OpenXES
+ *
+ * The reference implementation of the XES meta-model for event
+ * log data management.
+ *
+ *
+ * LICENSE:
+ *
+ * This code is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ *
+ */
+package org.deckfour.xes.util;
+
+import java.util.TimeZone;
+
+/**
+ * Hand-written parser and formatter of the xs:dateTime lexical format, as in
+ * <code>2005-10-24T11:57:31.000+01:00</code>, working on epoch milliseconds.
+ * Nothing but the result is allocated and no state is shared, so all methods
+ * are thread safe without locks.
+ *
+ * Parsing accepts fractions of any length (truncated to milliseconds), time
+ * zones as <code>Z</code>, <code>+hh:mm</code>, <code>+hhmm</code> or
+ * <code>+hh</code>, and times without zone, which are taken in the default
+ * time zone. Dates use the proleptic Gregorian calendar.
+ *
+ * @see XsDateTimeConversion
+ */
+public class XsDateTimeCodec {
+
+	/**
+	 * Result of parsing a string which is not an xs:dateTime.
+	 */
+	public static final long INVALID = Long.MIN_VALUE;
+
+	private static final long MILLIS_PER_DAY = 86400000L;
+	private static final long MAX_YEAR = 200000000L;
+
+	private XsDateTimeCodec() {
+	}
+
+	/**
+	 * Parses an xs:dateTime string.
+	 *
+	 * @param text
+	 *            Timestamp in the xs:dateTime format.
+	 * @return Milliseconds since 01/01/1970 0:00 GMT, INVALID if the text is
+	 *         not an xs:dateTime.
+	 */
+	public static long parse(CharSequence text) {
+		return parse(text, 0, text.length());
+	}
+
+	/**
+	 * Parses an xs:dateTime in a character array, e.g. a SAX character
+	 * buffer.
+	 *
+	 * @param chars
+	 *            Characters holding the timestamp.
+	 * @param offset
+	 *            Index of the first character.
+	 * @param length
+	 *            Number of characters.
+	 * @return Milliseconds since 01/01/1970 0:00 GMT, INVALID if the
+	 *         characters are not an xs:dateTime.
+	 */
+	public static long parse(char[] chars, int offset, int length) {
+		return parse(null, chars, offset, offset + length);
+	}
+
+	/**
+	 * Parses an xs:dateTime in a range of a character sequence. Surrounding
+	 * whitespace is ignored.
+	 *
+	 * @param text
+	 *            Characters holding the timestamp.
+	 * @param from
+	 *            Index of the first character.
+	 * @param to
+	 *            Index after the last character.
+	 * @return Milliseconds since 01/01/1970 0:00 GMT, INVALID if the range is
+	 *         not an xs:dateTime.
+	 */
+	public static long parse(CharSequence text, int from, int to) {
+		return parse(text, null, from, to);
+	}
+
+	/**
+	 * Parses a range of either a character sequence or a character array, so
+	 * neither has to be wrapped.
+	 */
+	private static long parse(CharSequence text, char[] chars, int from, int to) {
+		while (from < to && charAt(text, chars, from) <= ' ') {
+			from++;
+		}
+		while (to > from && charAt(text, chars, to - 1) <= ' ') {
+			to--;
+		}
+
+		// date: -?yyyy+-MM-dd
+		int i = from;
+		boolean negative = i < to && charAt(text, chars, i) == '-';
+		if (negative) {
+			i++;
+		}
+		int yearStart = i;
+		long year = 0;
+		while (i < to && isDigit(charAt(text, chars, i))) {
+			year = year * 10 + (charAt(text, chars, i++) - '0');
+			if (year > MAX_YEAR) {
+				return INVALID;
+			}
+		}
+		if (i - yearStart < 4 || !is(text, chars, i, to, '-')) {
+			return INVALID;
+		}
+		if (negative) {
+			year = -year;
+		}
+		int month = twoDigits(text, chars, i + 1, to);
+		if (month < 1 || month > 12 || !is(text, chars, i + 3, to, '-')) {
+			return INVALID;
+		}
+		int day = twoDigits(text, chars, i + 4, to);
+		if (day < 1 || day > daysInMonth(year, month) || !is(text, chars, i + 6, to, 'T')) {
+			return INVALID;
+		}
+
+		// time: hh:mm:ss(.s+)?
+		int hour = twoDigits(text, chars, i + 7, to);
+		int minute = is(text, chars, i + 9, to, ':') ? twoDigits(text, chars, i + 10, to) : -1;
+		int second = is(text, chars, i + 12, to, ':') ? twoDigits(text, chars, i + 13, to) : -1;
+		if (hour < 0 || hour > 24 || minute < 0 || minute > 59 || second < 0 || second > 60) {
+			return INVALID;
+		}
+		i += 15;
+		int millis = 0;
+		if (is(text, chars, i, to, '.')) {
+			int digits = 0;
+			for (i++; i < to && isDigit(charAt(text, chars, i)); i++, digits++) {
+				if (digits < 3) {
+					millis = millis * 10 + (charAt(text, chars, i) - '0');
+				}
+			}
+			if (digits == 0) {
+				return INVALID;
+			}
+			for (; digits < 3; digits++) {
+				millis *= 10;
+			}
+		}
+		if (hour == 24 && (minute != 0 || second != 0 || millis != 0)) {
+			return INVALID;
+		}
+		long local = (epochDay(year, month, day) * 86400L + hour * 3600L + minute * 60L + second) * 1000L + millis;
+
+		// zone: (Z|[+-]hh(:?mm)?)?
+		if (i == to) {
+			TimeZone zone = TimeZone.getDefault();
+			return local - zone.getOffset(local - zone.getRawOffset());
+		}
+		char sign = charAt(text, chars, i);
+		if (sign == 'Z') {
+			return i + 1 == to ? local : INVALID;
+		}
+		if (sign != '+' && sign != '-') {
+			return INVALID;
+		}
+		int offsetHours = twoDigits(text, chars, i + 1, to);
+		int offsetMinutes = 0;
+		i += 3;
+		if (i < to) {
+			if (charAt(text, chars, i) == ':') {
+				i++;
+			}
+			offsetMinutes = twoDigits(text, chars, i, to);
+			i += 2;
+		}
+		if (i != to || offsetHours < 0 || offsetHours > 14 || offsetMinutes < 0 || offsetMinutes > 59) {
+			return INVALID;
+		}
+		long offset = (offsetHours * 60L + offsetMinutes) * 60000L;
+		return sign == '+' ? local - offset : local + offset;
+	}
+
+	/**
+	 * Formats milliseconds in the xs:dateTime format. Fractions are written
+	 * only if not zero, UTC is written as <code>Z</code>.
+	 *
+	 * @param millis
+	 *            Milliseconds since 01/01/1970 0:00 GMT.
+	 * @param zone
+	 *            Time zone to write the time in.
+	 * @return Timestamp string.
+	 */
+	public static String format(long millis, TimeZone zone) {
+		StringBuilder target = new StringBuilder(29);
+		format(millis, zone, target);
+		return target.toString();
+	}
+
+	/**
+	 * Appends milliseconds in the xs:dateTime format to a buffer.
+	 *
+	 * @param millis
+	 *            Milliseconds since 01/01/1970 0:00 GMT.
+	 * @param zone
+	 *            Time zone to write the time in.
+	 * @param target
+	 *            Buffer to append to.
+	 */
+	public static void format(long millis, TimeZone zone, StringBuilder target) {
+		int offset = zone.getOffset(millis);
+		long local = millis + offset;
+		long day = Math.floorDiv(local, MILLIS_PER_DAY);
+		int time = (int) Math.floorMod(local, MILLIS_PER_DAY);
+
+		// civil date of epoch day, see epochDay
+		long shifted = day + 719468;
+		long era = Math.floorDiv(shifted, 146097);
+		long dayOfEra = shifted - era * 146097;
+		long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		long shiftedMonth = (5 * dayOfYear + 2) / 153;
+		int dayOfMonth = (int) (dayOfYear - (153 * shiftedMonth + 2) / 5 + 1);
+		int month = (int) (shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9);
+		long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+		if (year < 0) {
+			target.append('-');
+			year = -year;
+		}
+		for (long bound = 1000; bound > 1 && year < bound; bound /= 10) {
+			target.append('0');
+		}
+		target.append(year).append('-');
+		appendTwoDigits(target, month).append('-');
+		appendTwoDigits(target, dayOfMonth).append('T');
+		appendTwoDigits(target, time / 3600000).append(':');
+		appendTwoDigits(target, time / 60000 % 60).append(':');
+		appendTwoDigits(target, time / 1000 % 60);
+		int fraction = time % 1000;
+		if (fraction != 0) {
+			target.append('.');
+			appendTwoDigits(target.append((char) ('0' + fraction / 100)), fraction % 100);
+		}
+		if (offset == 0) {
+			target.append('Z');
+		} else {
+			int minutes = Math.abs(offset) / 60000;
+			target.append(offset < 0 ? '-' : '+');
+			appendTwoDigits(target, minutes / 60).append(':');
+			appendTwoDigits(target, minutes % 60);
+		}
+	}
+
+	/**
+	 * Days since 01/01/1970 of a proleptic Gregorian date, in eras of 400
+	 * years starting in March.
+	 */
+	private static long epochDay(long year, int month, int day) {
+		year -= month <= 2 ? 1 : 0;
+		long era = Math.floorDiv(year, 400);
+		long yearOfEra = year - era * 400;
+		long dayOfYear = (153 * ((month + 9) % 12) + 2) / 5 + day - 1;
+		long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097 + dayOfEra - 719468;
+	}
+
+	private static int daysInMonth(long year, int month) {
+		switch (month) {
+		case 2:
+			return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0 ? 29 : 28;
+		case 4:
+		case 6:
+		case 9:
+		case 11:
+			return 30;
+		default:
+			return 31;
+		}
+	}
+
+	private static StringBuilder appendTwoDigits(StringBuilder target, int value) {
+		return target.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+	}
+
+	private static int twoDigits(CharSequence text, char[] chars, int i, int to) {
+		if (i + 2 > to || !isDigit(charAt(text, chars, i)) || !isDigit(charAt(text, chars, i + 1))) {
+			return -1;
+		}
+		return (charAt(text, chars, i) - '0') * 10 + (charAt(text, chars, i + 1) - '0');
+	}
+
+	private static boolean is(CharSequence text, char[] chars, int i, int to, char c) {
+		return i < to && charAt(text, chars, i) == c;
+	}
+
+	private static char charAt(CharSequence text, char[] chars, int i) {
+		return chars != null ? chars[i] : text.charAt(i);
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+}
@@ -91,6 +91,10 @@ public class XsDateTimeConversion {
 	 * @return Parsed Date object.
 	 */
 	public Date parseXsDateTime(String xsDateTime) {
+		long millis = XsDateTimeCodec.parse(xsDateTime);
+		if (millis != XsDateTimeCodec.INVALID) {
+			return new Date(millis);
+		}
 		try {
 			Calendar.getInstance().setLenient(true);
 			Calendar cal = DatatypeConverter.parseDateTime(xsDateTime);
@@ -104,6 +108,24 @@ public class XsDateTimeConversion {
 		}
 	}
 
+	/**
+	 * Parses an xs:dateTime string to milliseconds, see parseXsDateTime.
+	 * Well-formed timestamps are parsed without allocations.
+	 * 
+	 * @param xsDateTime
+	 *            Timestamp string in the XML xs:dateTime format.
+	 * @return Milliseconds since 01/01/1970 0:00 GMT, XsDateTimeCodec.INVALID
+	 *         if unparseable.
+	 */
+	public long parseXsDateTimeMillis(String xsDateTime) {
+		long millis = XsDateTimeCodec.parse(xsDateTime);
+		if (millis != XsDateTimeCodec.INVALID) {
+			return millis;
+		}
+		Date date = parseXsDateTime(xsDateTime);
+		return date == null ? XsDateTimeCodec.INVALID : date.getTime();
+	}
+
 	private Date parseXsDateTimeUsingPattern(String xsDateTime) {
 		// try to parse with date format hack: Replace time zones like +01:00 to
 		// +0100.
@@ -160,8 +182,6 @@ public class XsDateTimeConversion {
 	 * @return String formatting the given date.
 	 */
 	public String format(Date date) {
-		Calendar cal = new GregorianCalendar();
-		cal.setTime(date);
-		return DatatypeConverter.printDateTime(cal);
+		return XsDateTimeCodec.format(date.getTime(), TimeZone.getDefault());
 	}
 }
@@ -70,6 +70,11 @@ public class XsDateTimeConversionJava7 extends XsDateTimeConversion {
 	 * String)
 	 */
 	public Date parseXsDateTime(String xsDateTime) {
+		// Try hand-written parser, it handles well-formed timestamps
+		long millis = XsDateTimeCodec.parse(xsDateTime);
+		if (millis != XsDateTimeCodec.INVALID) {
+			return new Date(millis);
+		}
 		// Try Java 7 parsing method
 		if (IS_JAVA7) {
 			// Use with ParsePosition to avoid throwing and catching a lot of exceptions, if our parsing method does not work
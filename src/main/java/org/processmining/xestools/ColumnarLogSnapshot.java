@@ -0,0 +1,290 @@
+package org.processmining.xestools;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import lombok.NonNull;
+import org.deckfour.xes.extension.std.XConceptExtension;
+import org.deckfour.xes.model.XAttributeMap;
+import org.deckfour.xes.model.XEvent;
+import org.deckfour.xes.model.XLog;
+import org.deckfour.xes.model.XTrace;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import static org.processmining.xestools.XEStools.NO_TIMESTAMP;
+import static org.processmining.xestools.XEStools.getTimestampMillis;
+import static org.processmining.xestools.XEStools.toZonedDateTime;
+
+/**
+ * Read-only columnar copy of log built in one walk over XLog. Events of trace i are stored in time order
+ * at positions offsets[i] until offsets[i + 1]; activity, resource, role and group are dictionary encoded
+ * int columns (-1 if missing), timestamps are epoch millis (NO_TIMESTAMP if missing), lifecycle is byte code.
+ * Trace summaries are calculated while building, so filters and trace rows match XLog based analytics.
+ * Snapshot does not follow later changes of the log
+ */
+public class ColumnarLogSnapshot {
+
+    static final int NONE = -1;
+
+    private final TraceSummary[] summaries;
+    private final int[] offsets;
+
+    private final int[] activities;
+    private final int[] resources;
+    private final int[] roles;
+    private final int[] groups;
+    private final long[] timestamps;
+    private final byte[] lifecycle;
+    // activity and concept:instance pair used to match START and COMPLETE
+    private final long[] activityKeys;
+
+    private final Dictionary activityNames = new Dictionary();
+    private final Dictionary resourceNames = new Dictionary();
+    private final Dictionary roleNames = new Dictionary();
+    private final Dictionary groupNames = new Dictionary();
+
+    private ColumnarLogSnapshot(int traceCount, int eventCount) {
+        summaries = new TraceSummary[traceCount];
+        offsets = new int[traceCount + 1];
+        activities = new int[eventCount];
+        resources = new int[eventCount];
+        roles = new int[eventCount];
+        groups = new int[eventCount];
+        timestamps = new long[eventCount];
+        lifecycle = new byte[eventCount];
+        activityKeys = new long[eventCount];
+    }
+
+    /***
+     * Build snapshot of log
+     * @param xLog log to copy
+     * @return snapshot
+     */
+    static public ColumnarLogSnapshot of(@NonNull XLog xLog) {
+        long eventCount = 0;
+        for (XTrace xTrace: xLog) eventCount += xTrace.size();
+        if (eventCount > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Log is too big for snapshot: " + eventCount + " events");
+
+        ColumnarLogSnapshot snapshot = new ColumnarLogSnapshot(xLog.size(), (int) eventCount);
+        Dictionary instances = new Dictionary();
+        int position = 0;
+        for (int trace = 0; trace < xLog.size(); trace++) {
+            XTrace xTrace = xLog.get(trace);
+            snapshot.summaries[trace] = TraceSummary.of(xTrace);
+            snapshot.offsets[trace] = position;
+
+            XEvent[] events = xTrace.toArray(new XEvent[xTrace.size()]);
+            long[] stamps = new long[events.length];
+            boolean sorted = true;
+            for (int i = 0; i < events.length; i++) {
+                stamps[i] = getTimestampMillis(events[i]);
+                if (i > 0 && stamps[i] < stamps[i - 1]) sorted = false;
+            }
+            int[] order = sorted ? null : EventIntervals.timeOrder(stamps);
+
+            for (int i = 0; i < events.length; i++) {
+                int index = sorted ? i : order[i];
+                snapshot.addEvent(position++, events[index], stamps[index], instances);
+            }
+        }
+        snapshot.offsets[xLog.size()] = position;
+
+        return snapshot;
+    }
+
+    public int getTraceCount() {
+        return summaries.length;
+    }
+
+    public int getEventCount() {
+        return timestamps.length;
+    }
+
+    /***
+     * Summary of trace calculated when snapshot was built
+     * @param trace trace position in log
+     * @return trace summary
+     */
+    public TraceSummary getSummary(int trace) {
+        return summaries[trace];
+    }
+
+    /***
+     * Distinct activity names in order of first appearance
+     * @return activity dictionary
+     */
+    public List<String> getActivities() {
+        return Collections.unmodifiableList(activityNames.values);
+    }
+
+    /***
+     * Distinct resources in order of first appearance
+     * @return resource dictionary
+     */
+    public List<String> getResources() {
+        return Collections.unmodifiableList(resourceNames.values);
+    }
+
+    /***
+     * Check if trace has event with one of names
+     * @param trace trace position in log
+     * @param names activity names
+     * @return true if found
+     */
+    boolean hasActivity(int trace, Set<String> names) {
+        for (int i = offsets[trace]; i < offsets[trace + 1]; i++) {
+            if (names.contains(activityNames.decode(activities[i]))) return true;
+        }
+        return false;
+    }
+
+    /***
+     * Add trace attributes and event names to attribute index
+     * @param index index to update
+     * @param trace trace position in log
+     */
+    void addToIndex(TraceAttributeIndex index, int trace) {
+        index.addTrace(trace, summaries[trace]);
+        for (int i = offsets[trace]; i < offsets[trace + 1]; i++) {
+            index.addEventName(trace, activityNames.decode(activities[i]));
+        }
+    }
+
+    /***
+     * Pair trace events, see EventIntervals
+     * @param trace trace position in log
+     * @param defaultDuration duration in seconds for events without known end
+     * @return intervals with event positions in snapshot columns
+     */
+    EventIntervals intervals(int trace, long defaultDuration) {
+        return EventIntervals.of(timestamps, lifecycle, activityKeys, offsets[trace], offsets[trace + 1], true,
+                defaultDuration);
+    }
+
+    /***
+     * Total duration of trace events per activity, same as XEStools.eventDurationInTrace
+     * @param trace trace position in log
+     * @return map with event name and duration
+     */
+    Map<String, Double> eventDurations(int trace) {
+        Map<String, Double> durations = Maps.newHashMap();
+        EventIntervals intervals = intervals(trace, 0L);
+        for (int i = 0; i < intervals.size(); i++) {
+            long start = intervals.getStart(i);
+            long end = intervals.getEnd(i);
+            if (start != NO_TIMESTAMP && start < end) {
+                durations.merge(activityNames.decode(activities[intervals.getPosition(i)]),
+                        (double) ((end - start) / 1000), Double::sum);
+            }
+        }
+
+        return durations;
+    }
+
+    /***
+     * Add workload of trace events to matrix
+     * @param workloads matrix to update
+     * @param trace trace position in log
+     * @param defaultDuration duration in seconds for events without known end
+     */
+    void addWorkload(WorkloadMatrix workloads, int trace, long defaultDuration) {
+        EventIntervals intervals = intervals(trace, defaultDuration);
+        for (int i = 0; i < intervals.size(); i++) {
+            long start = intervals.getStart(i);
+            if (start == NO_TIMESTAMP) continue;
+
+            int position = intervals.getPosition(i);
+            long second = Math.floorDiv(start, 1000L);
+            workloads.add(decode(resourceNames, resources[position]), decode(roleNames, roles[position]),
+                    decode(groupNames, groups[position]),
+                    second, second + Math.floorDiv(intervals.getEnd(i) - start, 1000L));
+        }
+    }
+
+    /***
+     * Add trace to directly-follows graph
+     * @param graph graph to update
+     * @param trace trace position in log
+     */
+    void addDirectlyFollows(DirectlyFollowsGraph graph, int trace) {
+        EventIntervals intervals = intervals(trace, 0L);
+        graph.addTrace(intervals, i -> activityNames.decode(activities[intervals.getPosition(i)]));
+    }
+
+    /***
+     * Push flat events of trace to sink, same as XEStools.getEventList
+     * @param trace trace position in log
+     * @param defaultDuration duration in seconds for events without known end
+     * @param sink receiver of flat events
+     */
+    void flattenEvents(int trace, long defaultDuration, Consumer<? super FlatXEvent> sink) {
+        String traceName = summaries[trace].getName();
+        EventIntervals intervals = intervals(trace, defaultDuration);
+        for (int i = 0; i < intervals.size(); i++) {
+            int position = intervals.getPosition(i);
+            FlatXEvent event = new FlatXEvent();
+            event.setResource(decode(resourceNames, resources[position]));
+            event.setRole(decode(roleNames, roles[position]));
+            event.setGroup(decode(groupNames, groups[position]));
+            event.setName(activityNames.decode(activities[position]));
+            event.setTrace(traceName);
+            event.setStart(toZonedDateTime(intervals.getStart(i)));
+            event.setEnd(toZonedDateTime(intervals.getEnd(i)));
+
+            sink.accept(event);
+        }
+    }
+
+    private void addEvent(int position, XEvent xEvent, long stamp, Dictionary instances) {
+        XAttributeMap attributeMap = xEvent.getAttributes();
+        EventAttributes attributes = EventAttributes.of(attributeMap);
+
+        timestamps[position] = stamp;
+        activities[position] = activityNames.encode(attributes.getName());
+        resources[position] = encode(resourceNames, attributes.getResource());
+        roles[position] = encode(roleNames, attributes.getRole());
+        groups[position] = encode(groupNames, attributes.getGroup());
+        lifecycle[position] = EventIntervals.transitionOf(xEvent, attributeMap);
+
+        int instance = instances.encode(EventAttributes.getLiteral(attributeMap, XConceptExtension.KEY_INSTANCE, null));
+        activityKeys[position] = ((long) activities[position] << 32) | (instance & 0xffffffffL);
+    }
+
+    // organizational attributes are "NA" when missing, it is stored as NONE
+    static private int encode(Dictionary dictionary, String value) {
+        return TraceSummary.NA.equals(value) ? NONE : dictionary.encode(value);
+    }
+
+    static private String decode(Dictionary dictionary, int code) {
+        return code == NONE ? TraceSummary.NA : dictionary.decode(code);
+    }
+
+    /**
+     * String to int code dictionary, codes are assigned in order of first appearance
+     */
+    static private class Dictionary {
+        private final Map<String, Integer> codes = Maps.newHashMap();
+        private final List<String> values = Lists.newArrayList();
+
+        private int encode(String value) {
+            if (value == null) return NONE;
+
+            Integer code = codes.get(value);
+            if (code == null) {
+                code = values.size();
+                codes.put(value, code);
+                values.add(value);
+            }
+            return code;
+        }
+
+        private String decode(int code) {
+            return code == NONE ? null : values.get(code);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package org.processmining.xestools;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Table;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+import static org.processmining.xestools.XEStools.NO_TIMESTAMP;
+
+/**
+ * Directly-follows graph of activities: number of times activity B directly follows activity A in trace
+ * and statistics of transition time between them, plus start and end activity counts.
+ * Traces are walked in time order with START and COMPLETE paired (see EventIntervals), so activity with
+ * lifecycle runs from start to complete and other events are instant. Transition time is seconds from end of
+ * previous activity to start of next one, overlapping activities wait 0.
+ * Graphs of log parts can be merged, not thread safe
+ */
+public class DirectlyFollowsGraph {
+
+    @Getter
+    private final int accuracy;
+    @Getter
+    private long traceCount;
+
+    private final Table<String, String, Edge> edges = HashBasedTable.create();
+    private final Map<String, Long> startActivities = Maps.newHashMap();
+    private final Map<String, Long> endActivities = Maps.newHashMap();
+
+    /***
+     * Create empty graph
+     * @param accuracy transition time sketch size, see QuantileSketch. 0 to keep mean only
+     */
+    public DirectlyFollowsGraph(int accuracy) {
+        if (accuracy < 0) throw new IllegalArgumentException("Accuracy should not be negative, got " + accuracy);
+        this.accuracy = accuracy;
+    }
+
+    /***
+     * Add trace events
+     * @param intervals trace events in time order, calculated without default duration
+     * @param activities activity name of event by event index
+     */
+    void addTrace(EventIntervals intervals, IntFunction<String> activities) {
+        traceCount++;
+        if (intervals.size() == 0) return;
+
+        String previous = null;
+        long previousEnd = NO_TIMESTAMP;
+        for (int i = 0; i < intervals.size(); i++) {
+            String activity = activities.apply(i);
+            if (activity == null) activity = TraceSummary.NA;
+            long start = intervals.getStart(i);
+
+            if (previous == null) {
+                startActivities.merge(activity, 1L, Long::sum);
+            }
+            else {
+                Edge edge = edges.get(previous, activity);
+                if (edge == null) {
+                    edge = new Edge(previous, activity, accuracy);
+                    edges.put(previous, activity, edge);
+                }
+                edge.add(start, previousEnd);
+            }
+
+            previous = activity;
+            previousEnd = intervals.isPaired(i) ? intervals.getEnd(i) : start;
+        }
+        endActivities.merge(previous, 1L, Long::sum);
+    }
+
+    /***
+     * Add counts and transition times of other graph with the same accuracy
+     * @param other graph to merge, should not be used after merge
+     * @return this graph
+     */
+    public DirectlyFollowsGraph merge(@NonNull DirectlyFollowsGraph other) {
+        if (other.accuracy != accuracy)
+            throw new IllegalArgumentException("Can not merge graph of accuracy " + other.accuracy + " into " + accuracy);
+
+        traceCount += other.traceCount;
+        for (Edge source: other.edges.values()) {
+            Edge edge = edges.get(source.from, source.to);
+            if (edge == null) {
+                edges.put(source.from, source.to, source);
+            }
+            else {
+                edge.count += source.count;
+                edge.times.merge(source.times);
+            }
+        }
+        other.startActivities.forEach((activity, count) -> startActivities.merge(activity, count, Long::sum));
+        other.endActivities.forEach((activity, count) -> endActivities.merge(activity, count, Long::sum));
+
+        return this;
+    }
+
+    /***
+     * All edges of graph
+     * @return edges in no particular order
+     */
+    public Collection<Edge> getEdges() {
+        return Collections.unmodifiableCollection(edges.values());
+    }
+
+    /***
+     * Edge between activities
+     * @param from preceding activity
+     * @param to following activity
+     * @return edge or null if to never directly follows from
+     */
+    public Edge getEdge(String from, String to) {
+        return edges.get(from, to);
+    }
+
+    /***
+     * Edges going out of activity
+     * @param from preceding activity
+     * @return map of following activity and edge
+     */
+    public Map<String, Edge> getSuccessors(String from) {
+        return Collections.unmodifiableMap(edges.row(from));
+    }
+
+    /***
+     * Number of traces started by activity
+     * @return map of activity and trace count
+     */
+    public Map<String, Long> getStartActivities() {
+        return Collections.unmodifiableMap(startActivities);
+    }
+
+    /***
+     * Number of traces ended by activity
+     * @return map of activity and trace count
+     */
+    public Map<String, Long> getEndActivities() {
+        return Collections.unmodifiableMap(endActivities);
+    }
+
+    /**
+     * Directly-follows relation between two activities
+     */
+    public static class Edge {
+        @Getter
+        private final String from;
+        @Getter
+        private final String to;
+        @Getter
+        private long count;
+        // transition times in seconds, only pairs with both timestamps known
+        private final QuantileSketch times;
+
+        private Edge(String from, String to, int accuracy) {
+            this.from = from;
+            this.to = to;
+            this.times = new QuantileSketch(accuracy);
+        }
+
+        private void add(long start, long previousEnd) {
+            count++;
+            if (start != NO_TIMESTAMP && previousEnd != NO_TIMESTAMP) {
+                times.add(Math.max(0L, start - previousEnd) / 1000.0);
+            }
+        }
+
+        /***
+         * Number of transitions with known time
+         * @return number of timed transitions
+         */
+        public long getTimedCount() {
+            return times.getCount();
+        }
+
+        /***
+         * Mean transition time
+         * @return seconds, NaN if no transition has known time
+         */
+        public double getMeanTime() {
+            return times.getMean();
+        }
+
+        /***
+         * Estimate quantile of transition time
+         * @param quantile quantile in (0, 1], 0.5 for median
+         * @return seconds, NaN if no transition has known time
+         */
+        public double getTimeQuantile(double quantile) {
+            return times.getQuantile(quantile);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package org.processmining.xestools;
+
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Estimated value with confidence interval. Exact values (whole log was processed) have zero width interval
+ */
+@Getter
+@ToString
+public class Estimate {
+
+    private final double value;
+    private final double lower;
+    private final double upper;
+    private final double confidence;
+    // number of sampled traces the estimate is based on
+    private final long sampleCount;
+
+    Estimate(double value, double halfWidth, double confidence, long sampleCount) {
+        this.value = value;
+        this.lower = value - halfWidth;
+        this.upper = value + halfWidth;
+        this.confidence = confidence;
+        this.sampleCount = sampleCount;
+    }
+
+    /***
+     * Half width of confidence interval
+     * @return margin of error
+     */
+    public double getMargin() {
+        return (upper - lower) / 2;
+    }
+}
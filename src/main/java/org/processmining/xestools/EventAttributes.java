@@ -0,0 +1,139 @@
+package org.processmining.xestools;
+
+import lombok.Getter;
+import lombok.NonNull;
+import org.deckfour.xes.extension.std.XConceptExtension;
+import org.deckfour.xes.extension.std.XOrganizationalExtension;
+import org.deckfour.xes.model.XAttributable;
+import org.deckfour.xes.model.XAttribute;
+import org.deckfour.xes.model.XAttributeBoolean;
+import org.deckfour.xes.model.XAttributeContinuous;
+import org.deckfour.xes.model.XAttributeDiscrete;
+import org.deckfour.xes.model.XAttributeLiteral;
+import org.deckfour.xes.model.XAttributeMap;
+import org.deckfour.xes.model.XAttributeTimestamp;
+
+/**
+ * Standard attributes of event resolved once: concept:name, org:resource, org:role and org:group.
+ * Organizational attributes are "NA" if missing, same as getTraceResource convention.
+ * Attribute map is fetched from element once. Static typed getters do single map lookup and return primitives without boxing, they never scan values()
+ * of attribute map, which is expensive for external (MapDB) stores
+ */
+@Getter
+public class EventAttributes {
+
+    private final String name;
+    private final String resource;
+    private final String role;
+    private final String group;
+
+    private EventAttributes(String name, String resource, String role, String group) {
+        this.name = name;
+        this.resource = resource;
+        this.role = role;
+        this.group = group;
+    }
+
+    /***
+     * Resolve standard attributes of event or trace
+     * @param element element to read
+     * @return resolved attributes
+     */
+    static public EventAttributes of(@NonNull XAttributable element) {
+        return of(element.getAttributes());
+    }
+
+    /***
+     * Resolve standard attributes from attribute map already fetched from element
+     * @param attributes attribute map of event or trace
+     * @return resolved attributes
+     */
+    static public EventAttributes of(@NonNull XAttributeMap attributes) {
+        return new EventAttributes(
+                getLiteral(attributes, XConceptExtension.KEY_NAME, null),
+                getLiteral(attributes, XOrganizationalExtension.KEY_RESOURCE, TraceSummary.NA),
+                getLiteral(attributes, XOrganizationalExtension.KEY_ROLE, TraceSummary.NA),
+                getLiteral(attributes, XOrganizationalExtension.KEY_GROUP, TraceSummary.NA));
+    }
+
+    /***
+     * Get literal attribute value
+     * @param element element to read
+     * @param key attribute key
+     * @return value or null if attribute is missing or not literal
+     */
+    static public String getLiteral(XAttributable element, String key) {
+        return getLiteral(element, key, null);
+    }
+
+    /***
+     * Get literal attribute value
+     * @param element element to read
+     * @param key attribute key
+     * @param defaultValue value to return if attribute is missing or not literal
+     * @return value
+     */
+    static public String getLiteral(XAttributable element, String key, String defaultValue) {
+        return getLiteral(element.getAttributes(), key, defaultValue);
+    }
+
+    /***
+     * Get literal attribute value
+     * @param attributes attribute map to read
+     * @param key attribute key
+     * @param defaultValue value to return if attribute is missing or not literal
+     * @return value
+     */
+    static public String getLiteral(XAttributeMap attributes, String key, String defaultValue) {
+        XAttribute attribute = attributes.get(key);
+        return attribute instanceof XAttributeLiteral ? ((XAttributeLiteral) attribute).getValue() : defaultValue;
+    }
+
+    /***
+     * Get timestamp attribute value
+     * @param element element to read
+     * @param key attribute key
+     * @return epoch millis or XEStools.NO_TIMESTAMP if attribute is missing or not timestamp
+     */
+    static public long getTimestamp(XAttributable element, String key) {
+        XAttribute attribute = element.getAttributes().get(key);
+        return attribute instanceof XAttributeTimestamp ?
+                ((XAttributeTimestamp) attribute).getValueMillis() : XEStools.NO_TIMESTAMP;
+    }
+
+    /***
+     * Get discrete attribute value
+     * @param element element to read
+     * @param key attribute key
+     * @param defaultValue value to return if attribute is missing or not discrete
+     * @return value
+     */
+    static public long getDiscrete(XAttributable element, String key, long defaultValue) {
+        XAttribute attribute = element.getAttributes().get(key);
+        return attribute instanceof XAttributeDiscrete ? ((XAttributeDiscrete) attribute).getValue() : defaultValue;
+    }
+
+    /***
+     * Get continuous attribute value
+     * @param element element to read
+     * @param key attribute key
+     * @param defaultValue value to return if attribute is missing or not continuous
+     * @return value
+     */
+    static public double getContinuous(XAttributable element, String key, double defaultValue) {
+        XAttribute attribute = element.getAttributes().get(key);
+        return attribute instanceof XAttributeContinuous ? ((XAttributeContinuous) attribute).getValue() : defaultValue;
+    }
+
+    /***
+     * Get boolean attribute value
+     * @param element element to read
+     * @param key attribute key
+     * @param defaultValue value to return if attribute is missing or not boolean
+     * @return value
+     */
+    static public boolean getBoolean(XAttributable element, String key, boolean defaultValue) {
+        XAttribute attribute = element.getAttributes().get(key);
+        return attribute instanceof XAttributeBoolean ? ((XAttributeBoolean) attribute).getValue() : defaultValue;
+    }
+}
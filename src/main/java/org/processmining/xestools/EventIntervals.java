@@ -0,0 +1,264 @@
+package org.processmining.xestools;
+
+import com.google.common.collect.Maps;
+import org.deckfour.xes.extension.std.XConceptExtension;
+import org.deckfour.xes.extension.std.XLifecycleExtension;
+import org.deckfour.xes.model.XAttributeMap;
+import org.deckfour.xes.model.XEvent;
+import org.deckfour.xes.model.XTrace;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+
+import static org.processmining.log.utils.XUtils.getConceptName;
+import static org.processmining.xestools.XEStools.NO_TIMESTAMP;
+import static org.processmining.xestools.XEStools.getTimestampMillis;
+
+/**
+ * Events of one trace in time order with their end time, based on lifecycle or event sequence.
+ * START and COMPLETE events are paired in one pass using stack of open STARTs per activity, so nested and
+ * parallel instances of the same activity are supported. If events carry concept:instance, only STARTs of the
+ * same instance are considered, otherwise the latest open START is completed first, so nested instances close
+ * inside out.
+ * Event without lifecycle ends when next event starts; matched COMPLETE events are not reported on their own.
+ * Input trace is never modified
+ */
+class EventIntervals {
+
+    static final byte NO_TRANSITION = 0;
+    static final byte START = 1;
+    static final byte COMPLETE = 2;
+    static final byte OTHER_TRANSITION = 3;
+
+    // reported events, null if intervals were calculated from columns
+    private final XEvent[] events;
+    private final int[] positions;
+    private final long[] starts;
+    private final long[] ends;
+    // START events closed by their COMPLETE
+    private final boolean[] paired;
+    private final int size;
+
+    private EventIntervals(XEvent[] events, int[] positions, long[] starts, long[] ends, boolean[] paired, int size) {
+        this.events = events;
+        this.positions = positions;
+        this.starts = starts;
+        this.ends = ends;
+        this.paired = paired;
+        this.size = size;
+    }
+
+    /***
+     * Pair trace events and determine their end time
+     * @param xTrace trace with events
+     * @param defaultDuration duration in seconds for events without known end, 0 to leave end unknown
+     * @return events with start and end time in epoch millis, end is NO_TIMESTAMP if unknown
+     */
+    static EventIntervals of(XTrace xTrace, long defaultDuration) {
+        int count = xTrace.size();
+        XEvent[] source = new XEvent[count];
+        long[] stamps = new long[count];
+        byte[] transitions = new byte[count];
+        long[] keys = new long[count];
+        // activity keys are numbered per trace, only STARTs and COMPLETEs need them
+        Map<String, Long> activities = Maps.newHashMap();
+
+        boolean sorted = true;
+        int position = 0;
+        for (XEvent xEvent: xTrace) {
+            source[position] = xEvent;
+            stamps[position] = getTimestampMillis(xEvent);
+            if (position > 0 && stamps[position] < stamps[position - 1]) sorted = false;
+
+            XAttributeMap attributes = xEvent.getAttributes();
+            transitions[position] = transitionOf(xEvent, attributes);
+            if (transitions[position] == START || transitions[position] == COMPLETE) {
+                String key = activityKey(xEvent, attributes);
+                Long code = activities.get(key);
+                if (code == null) {
+                    code = (long) activities.size();
+                    activities.put(key, code);
+                }
+                keys[position] = code;
+            }
+            position++;
+        }
+
+        EventIntervals intervals = of(stamps, transitions, keys, 0, count, sorted, defaultDuration);
+        XEvent[] events = new XEvent[intervals.size];
+        for (int i = 0; i < intervals.size; i++) {
+            events[i] = source[intervals.positions[i]];
+        }
+
+        return new EventIntervals(events, intervals.positions, intervals.starts, intervals.ends, intervals.paired,
+                intervals.size);
+    }
+
+    /***
+     * Pair events stored in columns
+     * @param stamps event timestamps, epoch millis
+     * @param transitions lifecycle of events, see NO_TRANSITION, START, COMPLETE and OTHER_TRANSITION
+     * @param keys activity (and instance) key of events, used to pair START and COMPLETE
+     * @param from first event of trace in columns
+     * @param to end (exclusive) of trace in columns
+     * @param sorted true if trace events are in time order
+     * @param defaultDuration duration in seconds for events without known end, 0 to leave end unknown
+     * @return events positions in columns with start and end time in epoch millis
+     */
+    static EventIntervals of(long[] stamps, byte[] transitions, long[] keys, int from, int to, boolean sorted,
+                             long defaultDuration) {
+        int count = to - from;
+        // only unsorted traces need a permutation, sort is stable as Collections.sort used before
+        int[] order = sorted ? null : timeOrder(Arrays.copyOfRange(stamps, from, to));
+
+        int[] positions = new int[count];
+        long[] starts = new long[count];
+        long[] ends = new long[count];
+        boolean[] paired = new boolean[count];
+        int size = 0;
+
+        Map<Long, ArrayDeque<Integer>> open = Maps.newHashMap();
+        // previous event without lifecycle or unmatched COMPLETE, it ends when next event starts
+        int last = -1;
+
+        for (int i = 0; i < count; i++) {
+            int index = from + (sorted ? i : order[i]);
+            long stamp = stamps[index];
+
+            if (last >= 0) {
+                ends[last] = stamp;
+            }
+            last = -1;
+
+            switch (transitions[index]) {
+                case START:
+                    open.computeIfAbsent(keys[index], key -> new ArrayDeque<>()).addLast(size);
+                    add(positions, starts, ends, size++, index, stamp);
+                    break;
+                case COMPLETE:
+                    ArrayDeque<Integer> starting = open.get(keys[index]);
+                    if (starting != null && !starting.isEmpty()) {
+                        // skip complete event, it closes the latest open start
+                        int closed = starting.pollLast();
+                        ends[closed] = stamp;
+                        paired[closed] = true;
+                    }
+                    else {
+                        last = add(positions, starts, ends, size++, index, stamp);
+                    }
+                    break;
+                case NO_TRANSITION:
+                    last = add(positions, starts, ends, size++, index, stamp);
+                    break;
+                default:
+                    // other transitions are not supported and skipped
+            }
+        }
+
+        if (defaultDuration > 0) {
+            for (int i = 0; i < size; i++) {
+                if (ends[i] == NO_TIMESTAMP && starts[i] != NO_TIMESTAMP) {
+                    ends[i] = starts[i] + defaultDuration * 1000;
+                }
+            }
+        }
+
+        return new EventIntervals(null, positions, starts, ends, paired, size);
+    }
+
+    /***
+     * Number of reported events
+     * @return number of events
+     */
+    int size() {
+        return size;
+    }
+
+    XEvent getEvent(int index) {
+        return events[index];
+    }
+
+    /***
+     * Position of reported event in trace or columns
+     * @param index event index
+     * @return position
+     */
+    int getPosition(int index) {
+        return positions[index];
+    }
+
+    /***
+     * Event start
+     * @param index event index
+     * @return epoch millis or NO_TIMESTAMP
+     */
+    long getStart(int index) {
+        return starts[index];
+    }
+
+    /***
+     * Event end
+     * @param index event index
+     * @return epoch millis or NO_TIMESTAMP if unknown
+     */
+    long getEnd(int index) {
+        return ends[index];
+    }
+
+    /***
+     * Check if event is START closed by its COMPLETE, so end is known from the log
+     * @param index event index
+     * @return true if event has own end
+     */
+    boolean isPaired(int index) {
+        return paired[index];
+    }
+
+    /***
+     * Lifecycle code of event
+     * @param xEvent event
+     * @param attributes event attributes
+     * @return lifecycle code
+     */
+    static byte transitionOf(XEvent xEvent, XAttributeMap attributes) {
+        if (!attributes.containsKey(XLifecycleExtension.KEY_TRANSITION)) return NO_TRANSITION;
+
+        XLifecycleExtension.StandardModel transition = XLifecycleExtension.instance().extractStandardTransition(xEvent);
+        if (transition == XLifecycleExtension.StandardModel.START) return START;
+        if (transition == XLifecycleExtension.StandardModel.COMPLETE) return COMPLETE;
+        return OTHER_TRANSITION;
+    }
+
+    /***
+     * Stable permutation of positions sorting stamps in time order
+     * @param stamps epoch millis
+     * @return positions in time order
+     */
+    static int[] timeOrder(long[] stamps) {
+        Integer[] boxed = new Integer[stamps.length];
+        for (int i = 0; i < boxed.length; i++) boxed[i] = i;
+        Arrays.sort(boxed, Comparator.comparingLong(i -> stamps[i]));
+
+        int[] order = new int[boxed.length];
+        for (int i = 0; i < boxed.length; i++) order[i] = boxed[i];
+        return order;
+    }
+
+    static private int add(int[] positions, long[] starts, long[] ends, int index, int position, long stamp) {
+        positions[index] = position;
+        starts[index] = stamp;
+        ends[index] = NO_TIMESTAMP;
+        return index;
+    }
+
+    static private String activityKey(XEvent xEvent, XAttributeMap attributes) {
+        String name = getConceptName(xEvent);
+        if (attributes.containsKey(XConceptExtension.KEY_INSTANCE)) {
+            return name + '\u0000' + XConceptExtension.instance().extractInstance(xEvent);
+        }
+
+        return name;
+    }
+}
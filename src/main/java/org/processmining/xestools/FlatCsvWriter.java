@@ -0,0 +1,96 @@
+package org.processmining.xestools;
+
+import lombok.NonNull;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Writes flat traces or flat events as CSV rows as soon as they are received, so it can be used
+ * as sink for XEStools.forEachTrace and XEStools.forEachEvent:
+ * <pre>
+ * try (FlatCsvWriter csv = FlatCsvWriter.forTraces(writer)) {
+ *     xeStools.forEachTrace(filter, csv::write);
+ * }
+ * </pre>
+ * Timestamps are written in ISO offset format. IO errors are rethrown as UncheckedIOException
+ */
+public class FlatCsvWriter implements Closeable, Flushable {
+
+    public static final String[] TRACE_HEADER = {"name", "start", "end", "resource", "role", "group",
+            "eventCount", "duration"};
+    public static final String[] EVENT_HEADER = {"trace", "name", "start", "end", "resource", "role", "group"};
+
+    private final CSVPrinter printer;
+
+    private FlatCsvWriter(Appendable out, String[] header) throws IOException {
+        this.printer = new CSVPrinter(out, CSVFormat.DEFAULT.withHeader(header));
+    }
+
+    /***
+     * Create writer for flat traces, header is written immediately
+     * @param out destination
+     * @return csv writer
+     * @throws IOException if header can not be written
+     */
+    static public FlatCsvWriter forTraces(@NonNull Appendable out) throws IOException {
+        return new FlatCsvWriter(out, TRACE_HEADER);
+    }
+
+    /***
+     * Create writer for flat events, header is written immediately
+     * @param out destination
+     * @return csv writer
+     * @throws IOException if header can not be written
+     */
+    static public FlatCsvWriter forEvents(@NonNull Appendable out) throws IOException {
+        return new FlatCsvWriter(out, EVENT_HEADER);
+    }
+
+    /***
+     * Write one trace row
+     * @param trace flat trace
+     */
+    public void write(@NonNull FlatXTrace trace) {
+        print(trace.getName(), format(trace.getStartTime()), format(trace.getEndTime()), trace.getOrgResource(),
+                trace.getOrgRole(), trace.getOrgGroup(), trace.getEventCount(), trace.getDuration());
+    }
+
+    /***
+     * Write one event row
+     * @param event flat event
+     */
+    public void write(@NonNull FlatXEvent event) {
+        print(event.getTrace(), event.getName(), format(event.getStart()), format(event.getEnd()),
+                event.getResource(), event.getRole(), event.getGroup());
+    }
+
+    @Override
+    public void flush() throws IOException {
+        printer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        printer.close();
+    }
+
+    private void print(Object... values) {
+        try {
+            printer.printRecord(values);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static private String format(ZonedDateTime time) {
+        return time == null ? null : DateTimeFormatter.ISO_OFFSET_DATE_TIME.format(time);
+    }
+}
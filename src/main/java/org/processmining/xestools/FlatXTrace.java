@@ -5,9 +5,6 @@ import org.deckfour.xes.model.XTrace;
 
 import java.time.ZonedDateTime;
 
-import static org.processmining.log.utils.XUtils.getConceptName;
-import static org.processmining.xestools.XEStools.*;
-
 /**
  * Created by Nikolai Sitnikov on 17.12.15.
  * Class to store flat trace to be used by calling party
@@ -31,14 +28,39 @@ public class FlatXTrace {
     private int eventRepetitions;
 
     public FlatXTrace(@NonNull XTrace xTrace) {
-        this.name =  getConceptName(xTrace);
-        this.duration = getTraceDuration(xTrace);
-        this.startTime = traceStartTime(xTrace);
-        this.endTime = traceEndTime(xTrace);
+        this(xTrace, TraceSummary.of(xTrace));
+    }
+
+    public FlatXTrace(@NonNull XTrace xTrace, @NonNull TraceSummary summary) {
+        this(summary);
         this.eventCount = xTrace.size();
-        this.orgResource = getTraceResource(xTrace, "org:resource", null);
-        this.orgRole = getTraceResource(xTrace, "org:role", null);
-        this.orgGroup = getTraceResource(xTrace, "org:group", null);
+    }
+
+    /***
+     * Copy record
+     * @param other record to copy
+     */
+    public FlatXTrace(@NonNull FlatXTrace other) {
+        this.name = other.name;
+        this.startTime = other.startTime;
+        this.endTime = other.endTime;
+        this.orgResource = other.orgResource;
+        this.orgRole = other.orgRole;
+        this.orgGroup = other.orgGroup;
+        this.eventCount = other.eventCount;
+        this.duration = other.duration;
+        this.eventRepetitions = other.eventRepetitions;
+    }
+
+    public FlatXTrace(@NonNull TraceSummary summary) {
+        this.name =  summary.getName();
+        this.duration = summary.getDuration();
+        this.startTime = summary.getStartTime();
+        this.endTime = summary.getEndTime();
+        this.eventCount = summary.getEventCount();
+        this.orgResource = summary.getResource();
+        this.orgRole = summary.getRole();
+        this.orgGroup = summary.getGroup();
         this.eventRepetitions = 0;
     }
 }
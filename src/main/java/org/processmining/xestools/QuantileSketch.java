@@ -0,0 +1,238 @@
+package org.processmining.xestools;
+
+import com.google.common.collect.Lists;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Mergeable streaming statistics with bounded memory: exact count, min, max and mean (compensated running sum)
+ * plus KLL quantile sketch. Sketch keeps levels of sorted samples, level h sample stands for 2^h values;
+ * full level is compacted by moving every other sample one level up. Memory is O(k) values, rank error is about 1/k.
+ * While fewer than k values are added sketch is exact and quantiles are interpolated the same way as
+ * commons-math Percentile does. Compaction is deterministic, so results do not depend on run, only on input order
+ * and on how input was split between merged sketches: merged quantiles stay within rank error, but are not equal
+ * to quantiles of one sketch of all values once compaction started. Not thread safe, merge partial sketches instead
+ */
+public class QuantileSketch {
+
+    /**
+     * Default accuracy, rank error below 1%
+     */
+    public static final int DEFAULT_ACCURACY = 200;
+
+    static private final int MIN_LEVEL_CAPACITY = 8;
+    static private final double CAPACITY_DECAY = 2.0 / 3.0;
+
+    private final int k;
+    private final List<Level> levels = Lists.newArrayList();
+
+    private long count;
+    private double sum;
+    private double compensation;
+    private double min = Double.NaN;
+    private double max = Double.NaN;
+
+    /***
+     * Create sketch with default accuracy
+     */
+    public QuantileSketch() {
+        this(DEFAULT_ACCURACY);
+    }
+
+    /***
+     * Create sketch
+     * @param accuracy size of the top level k, 0 to keep only count, mean, min and max
+     */
+    public QuantileSketch(int accuracy) {
+        if (accuracy < 0) throw new IllegalArgumentException("Accuracy should not be negative, got " + accuracy);
+        this.k = accuracy;
+    }
+
+    /***
+     * Add value
+     * @param value value to add
+     */
+    public void add(double value) {
+        count++;
+        addToSum(value);
+        if (count == 1 || value < min) min = value;
+        if (count == 1 || value > max) max = value;
+
+        if (k > 0) {
+            level(0).add(value);
+            compress();
+        }
+    }
+
+    /***
+     * Add all values of other sketch with the same accuracy
+     * @param other sketch to merge
+     * @return this sketch
+     */
+    public QuantileSketch merge(QuantileSketch other) {
+        if (other.k != k)
+            throw new IllegalArgumentException("Can not merge sketch of accuracy " + other.k + " into " + k);
+        if (other.count == 0) return this;
+
+        if (count == 0 || other.min < min) min = other.min;
+        if (count == 0 || other.max > max) max = other.max;
+        count += other.count;
+        addToSum(other.sum);
+        addToSum(other.compensation);
+
+        for (int h = 0; h < other.levels.size(); h++) {
+            Level source = other.levels.get(h);
+            Level target = level(h);
+            for (int i = 0; i < source.size; i++) {
+                target.add(source.values[i]);
+            }
+        }
+        compress();
+
+        return this;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /***
+     * Exact mean
+     * @return mean of added values, NaN if sketch is empty
+     */
+    public double getMean() {
+        return count == 0 ? Double.NaN : (sum + compensation) / count;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    /***
+     * Estimate quantile
+     * @param quantile quantile in (0, 1], 0.5 for median
+     * @return estimated value, NaN if sketch is empty
+     */
+    public double getQuantile(double quantile) {
+        if (quantile <= 0 || quantile > 1)
+            throw new IllegalArgumentException("Quantile should be in (0, 1], got " + quantile);
+        if (k == 0) throw new IllegalStateException("Sketch was created without quantile support");
+        if (count == 0) return Double.NaN;
+
+        int size = 0;
+        for (Level level: levels) size += level.size;
+        double[] values = new double[size];
+        long[] weights = new long[size];
+        int position = 0;
+        for (int h = 0; h < levels.size(); h++) {
+            Level level = levels.get(h);
+            for (int i = 0; i < level.size; i++) {
+                values[position] = level.values[i];
+                weights[position++] = 1L << h;
+            }
+        }
+        sortByValue(values, weights);
+
+        // weighted form of commons-math Percentile estimation
+        double pos = quantile * (count + 1);
+        if (pos < 1) return min;
+        if (pos >= count) return max;
+
+        long rank = (long) Math.floor(pos);
+        double lower = valueAt(values, weights, rank);
+        double upper = valueAt(values, weights, rank + 1);
+        return lower + (pos - rank) * (upper - lower);
+    }
+
+    private void addToSum(double value) {
+        // Neumaier summation, result does not depend on how values were split between merged sketches
+        double total = sum + value;
+        if (Math.abs(sum) >= Math.abs(value))
+            compensation += (sum - total) + value;
+        else
+            compensation += (value - total) + sum;
+        sum = total;
+    }
+
+    private Level level(int h) {
+        while (levels.size() <= h) levels.add(new Level());
+        return levels.get(h);
+    }
+
+    private int capacity(int h) {
+        int depth = levels.size() - 1 - h;
+        return Math.max(MIN_LEVEL_CAPACITY, (int) Math.ceil(k * Math.pow(CAPACITY_DECAY, depth)));
+    }
+
+    private void compress() {
+        for (int h = 0; h < levels.size(); h++) {
+            Level level = levels.get(h);
+            if (level.size >= capacity(h)) {
+                level.compactInto(level(h + 1));
+            }
+        }
+    }
+
+    static private double valueAt(double[] values, long[] weights, long rank) {
+        long seen = 0;
+        for (int i = 0; i < values.length; i++) {
+            seen += weights[i];
+            if (seen >= rank) return values[i];
+        }
+        return values[values.length - 1];
+    }
+
+    static private void sortByValue(double[] values, long[] weights) {
+        // insertion sort is enough for few hundred samples and keeps arrays paired
+        for (int i = 1; i < values.length; i++) {
+            double value = values[i];
+            long weight = weights[i];
+            int j = i - 1;
+            while (j >= 0 && values[j] > value) {
+                values[j + 1] = values[j];
+                weights[j + 1] = weights[j];
+                j--;
+            }
+            values[j + 1] = value;
+            weights[j + 1] = weight;
+        }
+    }
+
+    /**
+     * Samples of one weight
+     */
+    static private class Level {
+        private double[] values = new double[MIN_LEVEL_CAPACITY];
+        private int size;
+        // alternate kept half, so compaction error does not accumulate in one direction
+        private boolean odd;
+
+        private void add(double value) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        private void compactInto(Level upper) {
+            Arrays.sort(values, 0, size);
+            // odd sample stays on this level, so total weight is preserved
+            int pairs = size / 2;
+            int offset = odd ? 1 : 0;
+            for (int i = 0; i < pairs; i++) {
+                upper.add(values[2 * i + offset]);
+            }
+            if (size % 2 == 1) {
+                values[0] = values[size - 1];
+                size = 1;
+            }
+            else {
+                size = 0;
+            }
+            odd = !odd;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package org.processmining.xestools;
+
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+import org.processmining.xestools.XEStools.FilterType;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * LRU cache of analytics results keyed by method, canonical filter, arguments, log size and log modification count.
+ * Bounded by number of entries and by total weight, weight is number of result elements (list items or map
+ * entries), as a proxy of memory. Results are computed outside of lock, so equal requests issued at the same time
+ * may both be computed. Cached results should not be changed, callers return copies
+ */
+class ResultCache {
+
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private int maxEntries;
+    private long maxWeight;
+    private long weight;
+    // incremented on invalidation, results computed before it are not stored
+    private long generation;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long loadTime;
+
+    ResultCache(int maxEntries, long maxWeight) {
+        setLimits(maxEntries, maxWeight);
+    }
+
+    /***
+     * Change limits, evict entries over new limits
+     * @param maxEntries maximal number of results, 0 disables cache
+     * @param maxWeight maximal total number of result elements
+     */
+    synchronized void setLimits(int maxEntries, long maxWeight) {
+        if (maxEntries < 0 || maxWeight < 0)
+            throw new IllegalArgumentException("Cache limits should not be negative");
+
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+        evict();
+    }
+
+    /***
+     * Return cached result or compute and cache it
+     * @param key request key
+     * @param loader computes result
+     * @return result, shared between callers
+     */
+    @SuppressWarnings("unchecked")
+    <R> R get(Key key, Supplier<R> loader) {
+        long started;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                hits++;
+                return (R) entry.value;
+            }
+            misses++;
+            started = generation;
+        }
+
+        long start = System.nanoTime();
+        R value = loader.get();
+        long elapsed = System.nanoTime() - start;
+
+        synchronized (this) {
+            loadTime += elapsed;
+            long entryWeight = weightOf(value);
+            if (started == generation && maxEntries > 0 && entryWeight <= maxWeight) {
+                Entry previous = entries.put(key, new Entry(value, entryWeight));
+                if (previous != null) weight -= previous.weight;
+                weight += entryWeight;
+                evict();
+            }
+        }
+
+        return value;
+    }
+
+    synchronized void invalidateAll() {
+        generation++;
+        entries.clear();
+        weight = 0;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized CacheStats stats() {
+        return new CacheStats(hits, misses, misses, 0, loadTime, evictions);
+    }
+
+    /***
+     * Create request key
+     * @param method analytics method name
+     * @param filter compiled filter
+     * @param logSize number of log traces
+     * @param arguments other method arguments
+     * @return key
+     */
+    static Key key(String method, TraceFilter filter, int logSize, Object... arguments) {
+        return new Key(method, canonical(filter), logSize, Arrays.asList(arguments));
+    }
+
+    private void evict() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext() && (entries.size() > maxEntries || weight > maxWeight)) {
+            weight -= iterator.next().weight;
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    // list filters do not depend on order and duplicates of values
+    static private Map<FilterType, Object> canonical(TraceFilter filter) {
+        Map<FilterType, Object> canonical = Maps.newEnumMap(FilterType.class);
+        for (Map.Entry<FilterType, Object> rule: filter.getRules().entrySet()) {
+            Object value = rule.getValue();
+            canonical.put(rule.getKey(), value instanceof Collection ? Sets.newHashSet((Collection<?>) value) : value);
+        }
+        return canonical;
+    }
+
+    static private long weightOf(Object value) {
+        if (value instanceof Collection) return 1 + ((Collection<?>) value).size();
+        if (value instanceof Map) return 1 + ((Map<?, ?>) value).size();
+        return 1;
+    }
+
+    /**
+     * Request identity
+     */
+    @EqualsAndHashCode
+    @ToString
+    static final class Key {
+        private final String method;
+        private final Map<FilterType, Object> filter;
+        private final int logSize;
+        private final List<Object> arguments;
+
+        private Key(String method, Map<FilterType, Object> filter, int logSize, List<Object> arguments) {
+            this.method = method;
+            this.filter = filter;
+            this.logSize = logSize;
+            this.arguments = arguments;
+        }
+    }
+
+    static private final class Entry {
+        private final Object value;
+        private final long weight;
+
+        private Entry(Object value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+}
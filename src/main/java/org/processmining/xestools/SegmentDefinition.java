@@ -0,0 +1,54 @@
+package org.processmining.xestools;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Definition of trace segment between start and end events.
+ * Span segment goes from the earliest start event to the latest end event, one segment per trace.
+ * Repeated segment is opened by start event and closed by the next end event after it, so trace may have
+ * several segments; starts inside open segment are ignored. Null event name matches any event
+ */
+@Getter
+@EqualsAndHashCode
+@ToString
+public class SegmentDefinition {
+    private final String startName;
+    private final String endName;
+    private final boolean repeated;
+
+    private SegmentDefinition(String startName, String endName, boolean repeated) {
+        this.startName = startName;
+        this.endName = endName;
+        this.repeated = repeated;
+    }
+
+    /***
+     * Segment from the earliest start event to the latest end event, same as getFullSubTraceList(filter, start, end)
+     * @param startName event name of segment start
+     * @param endName event name of segment end
+     * @return segment definition
+     */
+    static public SegmentDefinition span(String startName, String endName) {
+        return new SegmentDefinition(startName, endName, false);
+    }
+
+    /***
+     * Segment for every start event followed by end event
+     * @param startName event name of segment start
+     * @param endName event name of segment end
+     * @return segment definition
+     */
+    static public SegmentDefinition repeated(String startName, String endName) {
+        return new SegmentDefinition(startName, endName, true);
+    }
+
+    boolean matchesStart(String name) {
+        return startName == null || startName.equals(name);
+    }
+
+    boolean matchesEnd(String name) {
+        return endName == null || endName.equals(name);
+    }
+}
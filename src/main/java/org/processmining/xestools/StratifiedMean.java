@@ -0,0 +1,86 @@
+package org.processmining.xestools;
+
+import org.apache.commons.math.MathException;
+import org.apache.commons.math.distribution.NormalDistributionImpl;
+
+/**
+ * Mergeable accumulator of domain mean over stratified sample: count, sum and sum of squares per stratum.
+ * Domain is subset of sampled traces (matching filter, containing event), mean is combined ratio estimate
+ * and its variance is taylor linearization with finite population correction
+ */
+class StratifiedMean {
+
+    private final long[] counts;
+    private final double[] sums;
+    private final double[] squares;
+
+    StratifiedMean(int strata) {
+        counts = new long[strata];
+        sums = new double[strata];
+        squares = new double[strata];
+    }
+
+    void add(int stratum, double value) {
+        counts[stratum]++;
+        sums[stratum] += value;
+        squares[stratum] += value * value;
+    }
+
+    StratifiedMean merge(StratifiedMean other) {
+        for (int stratum = 0; stratum < counts.length; stratum++) {
+            counts[stratum] += other.counts[stratum];
+            sums[stratum] += other.sums[stratum];
+            squares[stratum] += other.squares[stratum];
+        }
+        return this;
+    }
+
+    /***
+     * Estimate domain mean
+     * @param populations number of log traces per stratum
+     * @param sizes number of sampled traces per stratum
+     * @param confidence confidence level in (0, 1)
+     * @return estimate, NaN if domain is empty in sample
+     */
+    Estimate estimate(long[] populations, int[] sizes, double confidence) {
+        double domainSize = 0;
+        double total = 0;
+        long sampleCount = 0;
+        for (int stratum = 0; stratum < counts.length; stratum++) {
+            if (sizes[stratum] == 0) continue;
+            double weight = (double) populations[stratum] / sizes[stratum];
+            domainSize += weight * counts[stratum];
+            total += weight * sums[stratum];
+            sampleCount += counts[stratum];
+        }
+        if (sampleCount == 0) return new Estimate(Double.NaN, Double.NaN, confidence, 0);
+
+        double mean = total / domainSize;
+        double variance = 0;
+        for (int stratum = 0; stratum < counts.length; stratum++) {
+            int size = sizes[stratum];
+            if (size < 2) continue;
+
+            // linearized values are y - mean inside domain and 0 outside
+            double sum = sums[stratum] - mean * counts[stratum];
+            double square = squares[stratum] - 2 * mean * sums[stratum] + mean * mean * counts[stratum];
+            double spread = Math.max(0, (square - sum * sum / size) / (size - 1));
+            double correction = 1 - (double) size / populations[stratum];
+            variance += (double) populations[stratum] * populations[stratum] * correction * spread / size;
+        }
+
+        return new Estimate(mean, quantile(confidence) * Math.sqrt(variance) / domainSize, confidence, sampleCount);
+    }
+
+    static private double quantile(double confidence) {
+        if (confidence <= 0 || confidence >= 1)
+            throw new IllegalArgumentException("Confidence should be in (0, 1), got " + confidence);
+
+        try {
+            return new NormalDistributionImpl().inverseCumulativeProbability((1 + confidence) / 2);
+        }
+        catch (MathException e) {
+            throw new IllegalArgumentException("Can not calculate normal quantile for confidence " + confidence, e);
+        }
+    }
+}
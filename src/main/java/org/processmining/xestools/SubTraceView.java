@@ -0,0 +1,207 @@
+package org.processmining.xestools;
+
+import lombok.NonNull;
+import org.deckfour.xes.extension.XExtension;
+import org.deckfour.xes.model.XAttribute;
+import org.deckfour.xes.model.XAttributeMap;
+import org.deckfour.xes.model.XEvent;
+import org.deckfour.xes.model.XLog;
+import org.deckfour.xes.model.XTrace;
+import org.deckfour.xes.model.XVisitor;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.Set;
+
+import static org.processmining.xestools.XEStools.getTimestampMillis;
+
+/**
+ * Read-only XTrace view on events of another trace within time window. Nothing is copied: trace attributes and
+ * events are shared with the source trace. For time ordered traces window is found by binary search and kept as
+ * index range, otherwise positions of matching events are stored.
+ * View reflects source trace, so source should not be changed while view is in use. Use materialize() to get
+ * independent trace
+ */
+public class SubTraceView extends AbstractList<XEvent> implements XTrace, RandomAccess {
+
+    private final XTrace source;
+    private final int from;
+    private final int to;
+    // positions of events in source if source is not time ordered, null for contiguous range
+    private final int[] positions;
+
+    private SubTraceView(XTrace source, int from, int to, int[] positions) {
+        this.source = source;
+        this.from = from;
+        this.to = to;
+        this.positions = positions;
+    }
+
+    /***
+     * Create view of trace events with timestamp in [startTime, endTime]
+     * @param source trace to look into
+     * @param startTime window start, epoch millis
+     * @param endTime window end, epoch millis
+     * @param ordered true if source events are in time order, enables binary search
+     * @return view on source events
+     */
+    static SubTraceView of(@NonNull XTrace source, long startTime, long endTime, boolean ordered) {
+        if (ordered) {
+            int from = lowerBound(source, startTime);
+            int to = lowerBound(source, endTime == Long.MAX_VALUE ? endTime : endTime + 1);
+            return new SubTraceView(source, from, Math.max(from, to), null);
+        }
+
+        int[] matching = new int[source.size()];
+        int size = 0;
+        int position = 0;
+        for (XEvent xEvent: source) {
+            long stamp = getTimestampMillis(xEvent);
+            if (stamp >= startTime && stamp <= endTime) matching[size++] = position;
+            position++;
+        }
+
+        return new SubTraceView(source, 0, size, Arrays.copyOf(matching, size));
+    }
+
+    /***
+     * Create view of trace events with timestamp in [startTime, endTime] using already read event timestamps
+     * @param source trace to look into
+     * @param stamps epoch millis of source events in trace order
+     * @param startTime window start, epoch millis
+     * @param endTime window end, epoch millis
+     * @param ordered true if stamps are in time order, enables binary search
+     * @return view on source events
+     */
+    static SubTraceView of(@NonNull XTrace source, long[] stamps, long startTime, long endTime, boolean ordered) {
+        if (ordered) {
+            int from = lowerBound(stamps, startTime);
+            int to = lowerBound(stamps, endTime == Long.MAX_VALUE ? endTime : endTime + 1);
+            return new SubTraceView(source, from, Math.max(from, to), null);
+        }
+
+        int[] matching = new int[stamps.length];
+        int size = 0;
+        for (int position = 0; position < stamps.length; position++) {
+            if (stamps[position] >= startTime && stamps[position] <= endTime) matching[size++] = position;
+        }
+
+        return new SubTraceView(source, 0, size, Arrays.copyOf(matching, size));
+    }
+
+    /***
+     * Trace the view is backed by
+     * @return source trace
+     */
+    public XTrace getSource() {
+        return source;
+    }
+
+    /***
+     * Copy view into independent trace, trace attributes and events are cloned. Source trace is cloned and trimmed
+     * to the view, so copy is of the same implementation and storage as the source
+     * @return new trace
+     */
+    public XTrace materialize() {
+        XTrace trace = (XTrace) source.clone();
+        List<XEvent> events = new ArrayList<>(size());
+        for (int index = 0; index < size(); index++) {
+            events.add(trace.get(positions == null ? from + index : positions[index]));
+        }
+        trace.clear();
+        trace.addAll(events);
+
+        return trace;
+    }
+
+    @Override
+    public XEvent get(int index) {
+        if (index < 0 || index >= to - from)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + (to - from));
+
+        return source.get(positions == null ? from + index : positions[index]);
+    }
+
+    @Override
+    public int size() {
+        return to - from;
+    }
+
+    @Override
+    public XAttributeMap getAttributes() {
+        return source.getAttributes();
+    }
+
+    @Override
+    public void setAttributes(XAttributeMap attributes) {
+        throw new UnsupportedOperationException("Sub trace view is read-only");
+    }
+
+    @Override
+    public boolean hasAttributes() {
+        return source.hasAttributes();
+    }
+
+    @Override
+    public Set<XExtension> getExtensions() {
+        return source.getExtensions();
+    }
+
+    @Override
+    public int insertOrdered(XEvent event) {
+        throw new UnsupportedOperationException("Sub trace view is read-only");
+    }
+
+    @Override
+    public void accept(XVisitor visitor, XLog log) {
+        visitor.visitTracePre(this, log);
+        for (XAttribute attribute: getAttributes().values()) {
+            attribute.accept(visitor, this);
+        }
+        for (XEvent event: this) {
+            event.accept(visitor, this);
+        }
+        visitor.visitTracePost(this, log);
+    }
+
+    /***
+     * Same as materialize(), views are not cloned as views
+     * @return new trace
+     */
+    @Override
+    public Object clone() {
+        return materialize();
+    }
+
+    // first position with timestamp not less than stamp, events without timestamp go first in ordered trace
+    static private int lowerBound(XTrace trace, long stamp) {
+        int low = 0;
+        int high = trace.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (getTimestampMillis(trace.get(middle)) < stamp)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+
+        return low;
+    }
+
+    static private int lowerBound(long[] stamps, long stamp) {
+        int low = 0;
+        int high = stamps.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (stamps[middle] < stamp)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+
+        return low;
+    }
+}
@@ -0,0 +1,119 @@
+package org.processmining.xestools;
+
+import com.google.common.collect.Maps;
+import org.processmining.xestools.XEStools.FilterType;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Inverted index of trace attributes: value to bitmap of trace positions, built once per log.
+ * RESOURCE_LIST, ROLE_LIST, GROUP_LIST and LIFECYCLE_TRANSITION_LIST use trace summary values ("NA", "MULTI" or
+ * the only value), EVENT_NAME_LIST uses names of all trace events. List filter is union of value bitmaps,
+ * several filters are intersected, so traces are selected without reading them.
+ * Indexes of consecutive log ranges can be merged
+ */
+class TraceAttributeIndex {
+
+    static private final FilterType[] INDEXED = {
+            FilterType.RESOURCE_LIST,
+            FilterType.ROLE_LIST,
+            FilterType.GROUP_LIST,
+            FilterType.LIFECYCLE_TRANSITION_LIST,
+            FilterType.EVENT_NAME_LIST
+    };
+
+    private final Map<FilterType, Map<String, TraceBitmap>> bitmaps = Maps.newEnumMap(FilterType.class);
+    private int size;
+
+    TraceAttributeIndex() {
+        for (FilterType type: INDEXED) {
+            bitmaps.put(type, Maps.newHashMap());
+        }
+    }
+
+    /***
+     * Check if filter has rules the index can answer
+     * @param filter compiled filter
+     * @return true if any attribute list is set
+     */
+    static boolean supports(TraceFilter filter) {
+        for (FilterType type: INDEXED) {
+            if (filter.get(type) instanceof Collection) return true;
+        }
+        return false;
+    }
+
+    /***
+     * Add trace level attributes, traces should be added in ascending positions
+     * @param position trace position in log
+     * @param summary trace summary
+     */
+    void addTrace(int position, TraceSummary summary) {
+        add(FilterType.RESOURCE_LIST, summary.getResource(), position);
+        add(FilterType.ROLE_LIST, summary.getRole(), position);
+        add(FilterType.GROUP_LIST, summary.getGroup(), position);
+        add(FilterType.LIFECYCLE_TRANSITION_LIST, summary.getTransition(), position);
+        size = Math.max(size, position + 1);
+    }
+
+    /***
+     * Add name of trace event, repeated names of the same trace are ignored
+     * @param position trace position in log
+     * @param name event name
+     */
+    void addEventName(int position, String name) {
+        if (name != null) add(FilterType.EVENT_NAME_LIST, name, position);
+    }
+
+    /***
+     * Number of indexed traces
+     * @return trace count
+     */
+    int size() {
+        return size;
+    }
+
+    /***
+     * Add bitmaps of index built on following log range
+     * @param other index to merge
+     * @return this index
+     */
+    TraceAttributeIndex merge(TraceAttributeIndex other) {
+        for (FilterType type: INDEXED) {
+            Map<String, TraceBitmap> target = bitmaps.get(type);
+            other.bitmaps.get(type).forEach((value, bitmap) -> target.merge(value, bitmap, TraceBitmap::or));
+        }
+        size = Math.max(size, other.size);
+        return this;
+    }
+
+    /***
+     * Select traces matching all attribute lists of filter
+     * @param filter compiled filter
+     * @return bitmap of trace positions, null if filter has no attribute list
+     */
+    TraceBitmap select(TraceFilter filter) {
+        TraceBitmap selected = null;
+        for (FilterType type: INDEXED) {
+            Object value = filter.get(type);
+            if (!(value instanceof Collection)) continue;
+
+            TraceBitmap allowed = new TraceBitmap();
+            Map<String, TraceBitmap> values = bitmaps.get(type);
+            for (Object item: (Collection<?>) value) {
+                TraceBitmap bitmap = values.get(item);
+                if (bitmap != null) allowed = allowed.or(bitmap);
+            }
+
+            selected = selected == null ? allowed : selected.and(allowed);
+        }
+
+        return selected;
+    }
+
+    private void add(FilterType type, String value, int position) {
+        if (value == null) return;
+        bitmaps.get(type).computeIfAbsent(value, key -> new TraceBitmap()).add(position);
+    }
+}
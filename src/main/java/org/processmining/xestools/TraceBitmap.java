@@ -0,0 +1,331 @@
+package org.processmining.xestools;
+
+import java.util.Arrays;
+
+/**
+ * Compressed set of trace positions in Roaring bitmap layout: positions are split by high 16 bits into
+ * containers, sparse container keeps sorted char[] of low bits, dense one (more than 4096 values) keeps
+ * 1024 long words. Union and intersection work container by container. Not thread safe
+ */
+class TraceBitmap {
+
+    static private final int ARRAY_LIMIT = 4096;
+    static private final int WORDS = 1024;
+
+    private int[] keys = new int[4];
+    private Container[] containers = new Container[4];
+    private int size;
+
+    /***
+     * Create bitmap of positions
+     * @param positions trace positions in any order
+     * @return bitmap
+     */
+    static TraceBitmap of(int... positions) {
+        TraceBitmap bitmap = new TraceBitmap();
+        for (int position: positions) bitmap.add(position);
+        return bitmap;
+    }
+
+    /***
+     * Add position, ascending adds are the cheapest
+     * @param position trace position, not negative
+     */
+    void add(int position) {
+        int key = position >>> 16;
+        int index = size > 0 && keys[size - 1] == key ? size - 1 : Arrays.binarySearch(keys, 0, size, key);
+        if (index < 0) {
+            index = -index - 1;
+            insert(index, key, new ArrayContainer(new char[4], 0));
+        }
+        containers[index] = containers[index].add((char) position);
+    }
+
+    boolean contains(int position) {
+        int index = Arrays.binarySearch(keys, 0, size, position >>> 16);
+        return index >= 0 && containers[index].contains((char) position);
+    }
+
+    int cardinality() {
+        int cardinality = 0;
+        for (int i = 0; i < size; i++) cardinality += containers[i].cardinality;
+        return cardinality;
+    }
+
+    /***
+     * Positions in bitmap
+     * @return ascending positions
+     */
+    int[] toArray() {
+        int[] positions = new int[cardinality()];
+        int offset = 0;
+        for (int i = 0; i < size; i++) {
+            offset = containers[i].fill(positions, offset, keys[i] << 16);
+        }
+        return positions;
+    }
+
+    /***
+     * Union of bitmaps
+     * @param other bitmap
+     * @return new bitmap, arguments are not changed
+     */
+    TraceBitmap or(TraceBitmap other) {
+        TraceBitmap result = new TraceBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < size || j < other.size) {
+            if (j == other.size || (i < size && keys[i] < other.keys[j])) {
+                result.append(keys[i], containers[i++].copy());
+            }
+            else if (i == size || other.keys[j] < keys[i]) {
+                result.append(other.keys[j], other.containers[j++].copy());
+            }
+            else {
+                result.append(keys[i], containers[i++].or(other.containers[j++]));
+            }
+        }
+        return result;
+    }
+
+    /***
+     * Intersection of bitmaps
+     * @param other bitmap
+     * @return new bitmap, arguments are not changed
+     */
+    TraceBitmap and(TraceBitmap other) {
+        TraceBitmap result = new TraceBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            }
+            else if (other.keys[j] < keys[i]) {
+                j++;
+            }
+            else {
+                Container container = containers[i++].and(other.containers[j++]);
+                if (container.cardinality > 0) result.append(keys[i - 1], container);
+            }
+        }
+        return result;
+    }
+
+    // containers are never shared between bitmaps, callers copy them
+    private void append(int key, Container container) {
+        insert(size, key, container);
+    }
+
+    private void insert(int index, int key, Container container) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(containers, index, containers, index + 1, size - index);
+        keys[index] = key;
+        containers[index] = container;
+        size++;
+    }
+
+    /**
+     * Low 16 bits of positions sharing high bits
+     */
+    static private abstract class Container {
+        protected int cardinality;
+
+        abstract Container add(char value);
+
+        abstract boolean contains(char value);
+
+        abstract Container or(Container other);
+
+        abstract Container and(Container other);
+
+        abstract Container copy();
+
+        abstract int fill(int[] target, int offset, int high);
+    }
+
+    static private class ArrayContainer extends Container {
+        private char[] values;
+
+        private ArrayContainer(char[] values, int cardinality) {
+            this.values = values;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        Container add(char value) {
+            if (cardinality > 0 && values[cardinality - 1] < value) {
+                if (cardinality == ARRAY_LIMIT) return toBitmap().add(value);
+                if (cardinality == values.length) values = Arrays.copyOf(values, Math.max(4, cardinality * 2));
+                values[cardinality++] = value;
+                return this;
+            }
+
+            int index = Arrays.binarySearch(values, 0, cardinality, value);
+            if (index >= 0) return this;
+            if (cardinality == ARRAY_LIMIT) return toBitmap().add(value);
+
+            index = -index - 1;
+            if (cardinality == values.length) values = Arrays.copyOf(values, Math.max(4, cardinality * 2));
+            System.arraycopy(values, index, values, index + 1, cardinality - index);
+            values[index] = value;
+            cardinality++;
+            return this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+        }
+
+        @Override
+        Container or(Container other) {
+            if (other instanceof BitmapContainer) return other.or(this);
+
+            ArrayContainer array = (ArrayContainer) other;
+            char[] merged = new char[cardinality + array.cardinality];
+            int count = 0;
+            int i = 0;
+            int j = 0;
+            while (i < cardinality || j < array.cardinality) {
+                if (j == array.cardinality || (i < cardinality && values[i] < array.values[j])) {
+                    merged[count++] = values[i++];
+                }
+                else if (i == cardinality || array.values[j] < values[i]) {
+                    merged[count++] = array.values[j++];
+                }
+                else {
+                    merged[count++] = values[i++];
+                    j++;
+                }
+            }
+
+            ArrayContainer result = new ArrayContainer(merged, count);
+            return count > ARRAY_LIMIT ? result.toBitmap() : result;
+        }
+
+        @Override
+        Container and(Container other) {
+            char[] common = new char[cardinality];
+            int count = 0;
+            for (int i = 0; i < cardinality; i++) {
+                if (other.contains(values[i])) common[count++] = values[i];
+            }
+            return new ArrayContainer(common, count);
+        }
+
+        @Override
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(values, Math.max(cardinality, 1)), cardinality);
+        }
+
+        @Override
+        int fill(int[] target, int offset, int high) {
+            for (int i = 0; i < cardinality; i++) {
+                target[offset++] = high | values[i];
+            }
+            return offset;
+        }
+
+        private BitmapContainer toBitmap() {
+            BitmapContainer bitmap = new BitmapContainer(new long[WORDS], 0);
+            for (int i = 0; i < cardinality; i++) bitmap.add(values[i]);
+            return bitmap;
+        }
+    }
+
+    static private class BitmapContainer extends Container {
+        private final long[] words;
+
+        private BitmapContainer(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        Container add(char value) {
+            long bit = 1L << value;
+            if ((words[value >>> 6] & bit) == 0) {
+                words[value >>> 6] |= bit;
+                cardinality++;
+            }
+            return this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        @Override
+        Container or(Container other) {
+            BitmapContainer result = (BitmapContainer) copy();
+            if (other instanceof ArrayContainer) {
+                ArrayContainer array = (ArrayContainer) other;
+                for (int i = 0; i < array.cardinality; i++) result.add(array.values[i]);
+                return result;
+            }
+
+            long[] otherWords = ((BitmapContainer) other).words;
+            int cardinality = 0;
+            for (int i = 0; i < WORDS; i++) {
+                result.words[i] |= otherWords[i];
+                cardinality += Long.bitCount(result.words[i]);
+            }
+            result.cardinality = cardinality;
+            return result;
+        }
+
+        @Override
+        Container and(Container other) {
+            if (other instanceof ArrayContainer) return other.and(this);
+
+            long[] otherWords = ((BitmapContainer) other).words;
+            long[] common = new long[WORDS];
+            int cardinality = 0;
+            for (int i = 0; i < WORDS; i++) {
+                common[i] = words[i] & otherWords[i];
+                cardinality += Long.bitCount(common[i]);
+            }
+
+            BitmapContainer result = new BitmapContainer(common, cardinality);
+            if (cardinality > ARRAY_LIMIT) return result;
+
+            char[] values = new char[cardinality];
+            result.fill(values);
+            return new ArrayContainer(values, cardinality);
+        }
+
+        @Override
+        Container copy() {
+            return new BitmapContainer(words.clone(), cardinality);
+        }
+
+        @Override
+        int fill(int[] target, int offset, int high) {
+            for (int i = 0; i < WORDS; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    target[offset++] = high | ((i << 6) + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return offset;
+        }
+
+        private void fill(char[] target) {
+            int offset = 0;
+            for (int i = 0; i < WORDS; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    target[offset++] = (char) ((i << 6) + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+        }
+    }
+}
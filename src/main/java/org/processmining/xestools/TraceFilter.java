@@ -0,0 +1,257 @@
+package org.processmining.xestools;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Range;
+import com.google.common.collect.Sets;
+import org.deckfour.xes.model.XEvent;
+import org.deckfour.xes.model.XTrace;
+import org.processmining.xestools.XEStools.FilterType;
+
+import java.time.DayOfWeek;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import static org.processmining.log.utils.XUtils.getConceptName;
+
+/**
+ * Trace filter compiled once from the filter map. Rules are ordered by cost: checks on trace itself,
+ * then checks on trace summary (calculated once per trace, shared by all such rules) and per-event scans last.
+ * ALL rules should match. Filters compiled from equal rules are equal. XEStools methods taking compiled filter
+ * end with Matching, so calls with null filter map still resolve to map variants
+ */
+public final class TraceFilter implements Predicate<XTrace> {
+
+    /**
+     * Order of rule evaluation, cheapest first
+     */
+    private static final FilterType[] EVALUATION_ORDER = {
+            FilterType.EVENT_COUNT_RANGE,
+            FilterType.TRACE_NAME_LIST,
+            FilterType.TRACE_START_RANGE,
+            FilterType.TRACE_END_RANGE,
+            FilterType.TRACE_START_WEEKDAY_LIST,
+            FilterType.TRACE_END_WEEKDAY_LIST,
+            FilterType.RESOURCE_LIST,
+            FilterType.ROLE_LIST,
+            FilterType.GROUP_LIST,
+            FilterType.LIFECYCLE_TRANSITION_LIST,
+            FilterType.EVENT_NAME_LIST
+    };
+
+    /**
+     * Filter without rules, matches every trace
+     */
+    public static final TraceFilter ALL = new TraceFilter(Collections.emptyMap());
+
+    private final Map<FilterType, Object> source;
+    private final List<Predicate<XTrace>> traceRules = Lists.newArrayList();
+    private final List<Predicate<TraceSummary>> summaryRules = Lists.newArrayList();
+    private final List<Predicate<XTrace>> scanRules = Lists.newArrayList();
+    // trace rules checked on summary when log snapshot is filtered
+    private final List<Predicate<TraceSummary>> snapshotRules = Lists.newArrayList();
+    private Set<String> eventNames;
+
+    private TraceFilter(Map<FilterType, Object> source) {
+        this.source = source;
+        for (FilterType type: EVALUATION_ORDER) {
+            Object value = source.get(type);
+            if (value != null) {
+                compileRule(type, value);
+            }
+        }
+    }
+
+    /***
+     * Compile filter map into ordered rule chain. Null or empty filter matches all traces
+     * @param filter map of conditions, null values are ignored
+     * @return compiled filter, ALL if there are no conditions
+     */
+    public static TraceFilter compile(Map<FilterType, Object> filter) {
+        if (filter == null || filter.isEmpty()) return ALL;
+
+        Map<FilterType, Object> source = Maps.newEnumMap(FilterType.class);
+        for (Map.Entry<FilterType, Object> rule: filter.entrySet()) {
+            if (rule.getValue() != null) {
+                source.put(rule.getKey(), rule.getValue());
+            }
+        }
+
+        return source.isEmpty() ? ALL : new TraceFilter(Collections.unmodifiableMap(source));
+    }
+
+    /***
+     * Filter to apply in place of optional compiled filter
+     * @param filter compiled filter, null to accept all
+     * @return filter itself or ALL
+     */
+    static TraceFilter orAll(TraceFilter filter) {
+        return filter == null ? ALL : filter;
+    }
+
+    /***
+     * Condition of rule
+     * @param type filter type
+     * @return value the rule was compiled from, null if filter has no such rule
+     */
+    public Object get(FilterType type) {
+        return source.get(type);
+    }
+
+    /***
+     * Conditions the filter was compiled from
+     * @return immutable map of filter type and value
+     */
+    public Map<FilterType, Object> getRules() {
+        return source;
+    }
+
+    /***
+     * Check if trace match all rules. Trace summary is calculated if needed
+     * @param xTrace trace to check
+     * @return true if trace match conditions
+     */
+    @Override
+    public boolean test(XTrace xTrace) {
+        return test(xTrace, TraceSummary::of);
+    }
+
+    /***
+     * Check if trace match all rules
+     * @param xTrace trace to check
+     * @param summaries source of trace summary, called at most once and only if summary rules present
+     * @return true if trace match conditions
+     */
+    public boolean test(XTrace xTrace, Function<XTrace, TraceSummary> summaries) {
+        for (Predicate<XTrace> rule: traceRules) {
+            if (!rule.test(xTrace)) return false;
+        }
+
+        if (!summaryRules.isEmpty()) {
+            TraceSummary summary = summaries.apply(xTrace);
+            for (Predicate<TraceSummary> rule: summaryRules) {
+                if (!rule.test(summary)) return false;
+            }
+        }
+
+        for (Predicate<XTrace> rule: scanRules) {
+            if (!rule.test(xTrace)) return false;
+        }
+
+        return true;
+    }
+
+    /***
+     * Check if trace of columnar log snapshot match all rules
+     * @param snapshot log snapshot
+     * @param trace trace position in snapshot
+     * @return true if trace match conditions
+     */
+    public boolean test(ColumnarLogSnapshot snapshot, int trace) {
+        TraceSummary summary = snapshot.getSummary(trace);
+        for (Predicate<TraceSummary> rule: snapshotRules) {
+            if (!rule.test(summary)) return false;
+        }
+        for (Predicate<TraceSummary> rule: summaryRules) {
+            if (!rule.test(summary)) return false;
+        }
+
+        return eventNames == null || snapshot.hasActivity(trace, eventNames);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other == this || other instanceof TraceFilter && source.equals(((TraceFilter) other).source);
+    }
+
+    @Override
+    public int hashCode() {
+        return source.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "TraceFilter" + source;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void compileRule(FilterType type, Object value) {
+        switch (type) {
+            case EVENT_COUNT_RANGE: {
+                Range<Integer> range = (Range<Integer>) value;
+                traceRules.add(xTrace -> range.contains(xTrace.size()));
+                snapshotRules.add(summary -> range.contains(summary.getEventCount()));
+                break;
+            }
+            case TRACE_NAME_LIST: {
+                Set<String> names = toSet(value);
+                traceRules.add(xTrace -> names.contains(getConceptName(xTrace)));
+                snapshotRules.add(summary -> names.contains(summary.getName()));
+                break;
+            }
+            case TRACE_START_RANGE: {
+                Range range = (Range) value;
+                summaryRules.add(summary -> range.contains(summary.getStartTime()));
+                break;
+            }
+            case TRACE_END_RANGE: {
+                Range range = (Range) value;
+                summaryRules.add(summary -> range.contains(summary.getEndTime()));
+                break;
+            }
+            case TRACE_START_WEEKDAY_LIST: {
+                Set<DayOfWeek> days = toSet(value);
+                summaryRules.add(summary -> days.contains(summary.getStartTime().getDayOfWeek()));
+                break;
+            }
+            case TRACE_END_WEEKDAY_LIST: {
+                Set<DayOfWeek> days = toSet(value);
+                summaryRules.add(summary -> days.contains(summary.getEndTime().getDayOfWeek()));
+                break;
+            }
+            case RESOURCE_LIST: {
+                Set<String> allowed = toSet(value);
+                summaryRules.add(summary -> allowed.contains(summary.getResource()));
+                break;
+            }
+            case ROLE_LIST: {
+                Set<String> allowed = toSet(value);
+                summaryRules.add(summary -> allowed.contains(summary.getRole()));
+                break;
+            }
+            case GROUP_LIST: {
+                Set<String> allowed = toSet(value);
+                summaryRules.add(summary -> allowed.contains(summary.getGroup()));
+                break;
+            }
+            case LIFECYCLE_TRANSITION_LIST: {
+                Set<String> allowed = toSet(value);
+                summaryRules.add(summary -> allowed.contains(summary.getTransition()));
+                break;
+            }
+            case EVENT_NAME_LIST: {
+                Set<String> names = toSet(value);
+                eventNames = names;
+                scanRules.add(xTrace -> {
+                    for (XEvent xEvent: xTrace) {
+                        if (names.contains(getConceptName(xEvent))) return true;
+                    }
+                    return false;
+                });
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Unsupported filter type " + type);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static private <T> Set<T> toSet(Object value) {
+        return Sets.newHashSet((Collection<T>) value);
+    }
+}
@@ -0,0 +1,194 @@
+package org.processmining.xestools;
+
+import com.google.common.collect.Lists;
+import lombok.Getter;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Seeded sample of log traces drawn by reservoir sampling, uniform or stratified. Stratified sample allocates
+ * sample size to strata proportionally to their size (at least two traces per stratum when available, so
+ * variance can be estimated) and draws independent reservoir in every stratum. Sample keeps population and
+ * sample size of strata to weight estimates, see XEStools.estimateMeanTraceDuration.
+ * The same seed and log give the same sample
+ */
+public class TraceSample {
+
+    @Getter
+    private final long seed;
+    // number of log traces sample was drawn from
+    @Getter
+    private final int logSize;
+
+    // ascending trace positions and their strata
+    private final int[] positions;
+    private final int[] strata;
+    private final List<Object> keys;
+    private final long[] populations;
+    private final int[] sizes;
+
+    private TraceSample(long seed, int logSize, int[] positions, int[] strata, List<Object> keys, long[] populations,
+                        int[] sizes) {
+        this.seed = seed;
+        this.logSize = logSize;
+        this.positions = positions;
+        this.strata = strata;
+        this.keys = keys;
+        this.populations = populations;
+        this.sizes = sizes;
+    }
+
+    /***
+     * Draw uniform sample
+     * @param logSize number of traces in log
+     * @param size sample size, whole log is taken if it is not bigger
+     * @param seed random seed
+     * @return sample
+     */
+    static TraceSample uniform(int logSize, int size, long seed) {
+        return stratified(new int[logSize], Collections.singletonList(null), size, seed);
+    }
+
+    /***
+     * Draw stratified sample
+     * @param stratumOfTrace stratum index by trace position
+     * @param keys stratum keys by stratum index
+     * @param size total sample size
+     * @param seed random seed
+     * @return sample
+     */
+    static TraceSample stratified(int[] stratumOfTrace, List<Object> keys, int size, long seed) {
+        if (size <= 0) throw new IllegalArgumentException("Sample size should be positive, got " + size);
+
+        long[] populations = new long[keys.size()];
+        for (int stratum: stratumOfTrace) populations[stratum]++;
+        int[] sizes = allocate(populations, size, stratumOfTrace.length);
+
+        // reservoir per stratum (algorithm R), traces are visited in log order
+        Random random = new Random(seed);
+        int[][] reservoirs = new int[keys.size()][];
+        for (int stratum = 0; stratum < reservoirs.length; stratum++) reservoirs[stratum] = new int[sizes[stratum]];
+        long[] seen = new long[keys.size()];
+        for (int position = 0; position < stratumOfTrace.length; position++) {
+            int stratum = stratumOfTrace[position];
+            long count = ++seen[stratum];
+            if (count <= sizes[stratum]) {
+                reservoirs[stratum][(int) count - 1] = position;
+            }
+            else {
+                long slot = (long) (random.nextDouble() * count);
+                if (slot < sizes[stratum]) reservoirs[stratum][(int) slot] = position;
+            }
+        }
+
+        int total = 0;
+        for (int stratumSize: sizes) total += stratumSize;
+        int[] positions = new int[total];
+        int offset = 0;
+        for (int[] reservoir: reservoirs) {
+            System.arraycopy(reservoir, 0, positions, offset, reservoir.length);
+            offset += reservoir.length;
+        }
+        Arrays.sort(positions);
+
+        int[] strata = new int[total];
+        for (int i = 0; i < total; i++) strata[i] = stratumOfTrace[positions[i]];
+
+        return new TraceSample(seed, stratumOfTrace.length, positions, strata,
+                Collections.unmodifiableList(Lists.newArrayList(keys)), populations, sizes);
+    }
+
+    /***
+     * Number of sampled traces
+     * @return sample size
+     */
+    public int size() {
+        return positions.length;
+    }
+
+    /***
+     * Positions of sampled traces in log
+     * @return ascending positions
+     */
+    public int[] getPositions() {
+        return positions.clone();
+    }
+
+    /***
+     * Stratum keys in stratum index order, single null key for uniform sample
+     * @return stratum keys
+     */
+    public List<Object> getStrata() {
+        return keys;
+    }
+
+    /***
+     * Number of log traces in stratum
+     * @param stratum stratum index
+     * @return population size
+     */
+    public long getPopulation(int stratum) {
+        return populations[stratum];
+    }
+
+    /***
+     * Number of sampled traces in stratum
+     * @param stratum stratum index
+     * @return sample size
+     */
+    public int getSize(int stratum) {
+        return sizes[stratum];
+    }
+
+    // direct access for estimators
+    int[] positions() {
+        return positions;
+    }
+
+    int stratumAt(int index) {
+        return strata[index];
+    }
+
+    long[] populations() {
+        return populations;
+    }
+
+    int[] sizes() {
+        return sizes;
+    }
+
+    // proportional allocation with largest remainders, at least two traces per stratum if available
+    static private int[] allocate(long[] populations, int size, int logSize) {
+        int[] sizes = new int[populations.length];
+        if (size >= logSize) {
+            for (int stratum = 0; stratum < sizes.length; stratum++) sizes[stratum] = (int) populations[stratum];
+            return sizes;
+        }
+
+        double[] remainders = new double[populations.length];
+        int allocated = 0;
+        for (int stratum = 0; stratum < sizes.length; stratum++) {
+            double exact = (double) size * populations[stratum] / logSize;
+            sizes[stratum] = (int) exact;
+            remainders[stratum] = exact - sizes[stratum];
+            allocated += sizes[stratum];
+        }
+        while (allocated < size) {
+            int largest = 0;
+            for (int stratum = 1; stratum < sizes.length; stratum++) {
+                if (remainders[stratum] > remainders[largest]) largest = stratum;
+            }
+            sizes[largest]++;
+            remainders[largest] = -1;
+            allocated++;
+        }
+        for (int stratum = 0; stratum < sizes.length; stratum++) {
+            sizes[stratum] = (int) Math.min(populations[stratum], Math.max(sizes[stratum], 2));
+        }
+
+        return sizes;
+    }
+}
@@ -0,0 +1,131 @@
+package org.processmining.xestools;
+
+import lombok.Getter;
+import lombok.NonNull;
+import org.deckfour.xes.extension.std.XLifecycleExtension;
+import org.deckfour.xes.extension.std.XOrganizationalExtension;
+import org.deckfour.xes.extension.std.XTimeExtension;
+import org.deckfour.xes.model.XAttribute;
+import org.deckfour.xes.model.XAttributeLiteral;
+import org.deckfour.xes.model.XAttributeMap;
+import org.deckfour.xes.model.XAttributeTimestamp;
+import org.deckfour.xes.model.XEvent;
+import org.deckfour.xes.model.XTrace;
+
+import java.time.ZonedDateTime;
+
+import static org.processmining.log.utils.XUtils.getConceptName;
+
+/**
+ * Trace level statistics calculated in one pass over trace events.
+ * Resource, role, group and transition follow getTraceResource convention: "NA" if missing, "MULTI" if different
+ */
+@Getter
+public class TraceSummary {
+
+    static final String NA = "NA";
+    static final String MULTI = "MULTI";
+
+    private final String name;
+    private final int eventCount;
+    private final boolean timed;
+    private final long startMillis;
+    private final long endMillis;
+    private final String resource;
+    private final String role;
+    private final String group;
+    private final String transition;
+
+    private TraceSummary(String name, int eventCount, boolean timed, long startMillis, long endMillis,
+                         String resource, String role, String group, String transition) {
+        this.name = name;
+        this.eventCount = eventCount;
+        this.timed = timed;
+        this.startMillis = startMillis;
+        this.endMillis = endMillis;
+        this.resource = resource;
+        this.role = role;
+        this.group = group;
+        this.transition = transition;
+    }
+
+    /***
+     * Calculate summary walking trace events once
+     * @param xTrace trace to process
+     * @return trace summary
+     */
+    static public TraceSummary of(@NonNull XTrace xTrace) {
+        boolean timed = false;
+        long start = Long.MAX_VALUE;
+        long end = Long.MIN_VALUE;
+        String resource = NA;
+        String role = NA;
+        String group = NA;
+        String transition = NA;
+
+        for (XEvent xEvent: xTrace) {
+            if (!xEvent.hasAttributes()) continue;
+            XAttributeMap attributes = xEvent.getAttributes();
+
+            XAttribute stamp = attributes.get(XTimeExtension.KEY_TIMESTAMP);
+            if (stamp instanceof XAttributeTimestamp) {
+                long current = ((XAttributeTimestamp) stamp).getValueMillis();
+                timed = true;
+                if (current < start) start = current;
+                if (current > end) end = current;
+            }
+
+            resource = merge(resource, attributes.get(XOrganizationalExtension.KEY_RESOURCE));
+            role = merge(role, attributes.get(XOrganizationalExtension.KEY_ROLE));
+            group = merge(group, attributes.get(XOrganizationalExtension.KEY_GROUP));
+            transition = merge(transition, attributes.get(XLifecycleExtension.KEY_TRANSITION));
+        }
+
+        return new TraceSummary(getConceptName(xTrace), xTrace.size(), timed, start, end,
+                resource, role, group, transition);
+    }
+
+    /***
+     * Timestamp of the earliest event
+     * @return zoned date time or MINTIME if trace has no timestamps
+     */
+    public ZonedDateTime getStartTime() {
+        return timed ? XEStools.toZonedDateTime(startMillis) : XEStools.MINTIME;
+    }
+
+    /***
+     * Timestamp of the latest event
+     * @return zoned date time or MAXTIME if trace has no timestamps
+     */
+    public ZonedDateTime getEndTime() {
+        return timed ? XEStools.toZonedDateTime(endMillis) : XEStools.MAXTIME;
+    }
+
+    /***
+     * Trace duration, same as XEStools.getTraceDuration
+     * @return duration in seconds, 0 if trace has less than two distinct timestamps
+     */
+    public long getDuration() {
+        return timed && endMillis > startMillis ? (endMillis - startMillis) / 1000 : 0L;
+    }
+
+    /***
+     * Check if summary still describes the trace. Traces are mutable, so cached summary
+     * is dropped when event count changes
+     * @param xTrace trace summary was calculated for
+     * @return true if summary can be reused
+     */
+    boolean isCurrent(XTrace xTrace) {
+        return eventCount == xTrace.size();
+    }
+
+    static private String merge(String result, XAttribute attribute) {
+        if (!(attribute instanceof XAttributeLiteral) || MULTI.equals(result)) return result;
+
+        String current = ((XAttributeLiteral) attribute).getValue();
+        if (current == null) return result;
+        if (NA.equals(result)) return current;
+
+        return current.equals(result) ? result : MULTI;
+    }
+}
@@ -0,0 +1,179 @@
+package org.processmining.xestools;
+
+import com.google.common.collect.Range;
+import org.processmining.xestools.XEStools.FilterType;
+
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+
+/**
+ * Trace start and end times sorted once per log: primitive epoch millis with permutation to trace positions.
+ * TRACE_START_RANGE and TRACE_END_RANGE filters are turned into binary searches, so only traces inside the
+ * window are visited. Candidates are a superset of matching traces, filter should still be applied to them.
+ * Traces without timestamps start at Long.MIN_VALUE and end at Long.MAX_VALUE, same as MINTIME and MAXTIME
+ */
+class TraceTimeIndex {
+
+    private final long[] starts;
+    private final int[] startOrder;
+    private final long[] ends;
+    private final int[] endOrder;
+
+    private TraceTimeIndex(long[] starts, int[] startOrder, long[] ends, int[] endOrder) {
+        this.starts = starts;
+        this.startOrder = startOrder;
+        this.ends = ends;
+        this.endOrder = endOrder;
+    }
+
+    /***
+     * Build index
+     * @param starts start millis by trace position
+     * @param ends end millis by trace position
+     * @return index
+     */
+    static TraceTimeIndex of(long[] starts, long[] ends) {
+        int[] startOrder = order(starts);
+        int[] endOrder = order(ends);
+
+        return new TraceTimeIndex(permute(starts, startOrder), startOrder, permute(ends, endOrder), endOrder);
+    }
+
+    /***
+     * Start millis of trace as stored in index
+     * @param summary trace summary
+     * @return start millis, Long.MIN_VALUE if trace has no timestamps
+     */
+    static long startOf(TraceSummary summary) {
+        return summary.isTimed() ? summary.getStartMillis() : Long.MIN_VALUE;
+    }
+
+    /***
+     * End millis of trace as stored in index
+     * @param summary trace summary
+     * @return end millis, Long.MAX_VALUE if trace has no timestamps
+     */
+    static long endOf(TraceSummary summary) {
+        return summary.isTimed() ? summary.getEndMillis() : Long.MAX_VALUE;
+    }
+
+    /***
+     * Number of indexed traces
+     * @return trace count
+     */
+    int size() {
+        return starts.length;
+    }
+
+    /***
+     * Check if filter has rules the index can answer
+     * @param filter compiled filter
+     * @return true if start or end range is set
+     */
+    static boolean supports(TraceFilter filter) {
+        return filter.get(FilterType.TRACE_START_RANGE) instanceof Range
+                || filter.get(FilterType.TRACE_END_RANGE) instanceof Range;
+    }
+
+    /***
+     * Positions of traces which can match time ranges of filter. The narrower of start and end windows is used
+     * @param filter compiled filter
+     * @return ascending trace positions, null if filter has no time range the index can answer
+     */
+    int[] candidates(TraceFilter filter) {
+        int[] byStart = window(starts, filter.get(FilterType.TRACE_START_RANGE));
+        int[] byEnd = window(ends, filter.get(FilterType.TRACE_END_RANGE));
+        if (byStart == null && byEnd == null) return null;
+
+        int[] candidates;
+        if (byEnd == null || (byStart != null && byStart[1] - byStart[0] <= byEnd[1] - byEnd[0])) {
+            candidates = Arrays.copyOfRange(startOrder, byStart[0], byStart[1]);
+        }
+        else {
+            candidates = Arrays.copyOfRange(endOrder, byEnd[0], byEnd[1]);
+        }
+        // keep log order of results
+        Arrays.sort(candidates);
+
+        return candidates;
+    }
+
+    // [from, to) of sorted times inside range, bounds are inclusive as zones may differ for the same instant
+    static private int[] window(long[] times, Object value) {
+        if (!(value instanceof Range)) return null;
+
+        Range range = (Range) value;
+        int from = 0;
+        int to = times.length;
+        if (range.hasLowerBound()) {
+            if (!(range.lowerEndpoint() instanceof ZonedDateTime)) return null;
+            from = lowerBound(times, toMillis((ZonedDateTime) range.lowerEndpoint()));
+        }
+        if (range.hasUpperBound()) {
+            if (!(range.upperEndpoint() instanceof ZonedDateTime)) return null;
+            long upper = toMillis((ZonedDateTime) range.upperEndpoint());
+            to = upper == Long.MAX_VALUE ? times.length : lowerBound(times, upper + 1);
+        }
+
+        return new int[]{from, Math.max(from, to)};
+    }
+
+    static private long toMillis(ZonedDateTime time) {
+        try {
+            return time.toInstant().toEpochMilli();
+        }
+        catch (ArithmeticException e) {
+            // MINTIME and MAXTIME do not fit into millis
+            return time.getYear() < 0 ? Long.MIN_VALUE : Long.MAX_VALUE;
+        }
+    }
+
+    static private int lowerBound(long[] times, long time) {
+        int low = 0;
+        int high = times.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (times[middle] < time)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+
+        return low;
+    }
+
+    static private long[] permute(long[] times, int[] order) {
+        long[] sorted = new long[times.length];
+        for (int i = 0; i < order.length; i++) {
+            sorted[i] = times[order[i]];
+        }
+        return sorted;
+    }
+
+    // stable bottom-up merge sort of positions by time, no boxing
+    static private int[] order(long[] times) {
+        int[] order = new int[times.length];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+
+        int[] buffer = new int[times.length];
+        for (int width = 1; width < order.length; width *= 2) {
+            for (int left = 0; left < order.length - width; left += 2 * width) {
+                int middle = left + width;
+                int right = Math.min(left + 2 * width, order.length);
+                if (times[order[middle - 1]] <= times[order[middle]]) continue;
+
+                int i = left;
+                int j = middle;
+                int k = left;
+                while (i < middle && j < right) {
+                    buffer[k++] = times[order[j]] < times[order[i]] ? order[j++] : order[i++];
+                }
+                while (i < middle) buffer[k++] = order[i++];
+                while (j < right) buffer[k++] = order[j++];
+                System.arraycopy(buffer, left, order, left, right - left);
+            }
+        }
+
+        return order;
+    }
+}
@@ -0,0 +1,252 @@
+package org.processmining.xestools;
+
+import com.google.common.collect.Lists;
+import lombok.Getter;
+import lombok.NonNull;
+import org.deckfour.xes.classification.XEventClass;
+import org.deckfour.xes.classification.XEventClasses;
+import org.deckfour.xes.model.XEvent;
+import org.deckfour.xes.model.XTrace;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Process variants (distinct event class sequences) of log. Trace is encoded as sequence of XEventClasses
+ * indices in trace order and inserted into a trie, so variants sharing a prefix share nodes and no string
+ * is built per trace. Node reached by the last event keeps number of traces and their positions in log.
+ * Indexes built on log parts with the same event classes can be merged, not thread safe
+ */
+public class VariantIndex {
+
+    /**
+     * Class index of events not known to event classes
+     */
+    static final int UNKNOWN_CLASS = -1;
+
+    @Getter
+    private final XEventClasses classes;
+    // class identity by class index
+    private final String[] names;
+
+    private final Node root = new Node(null, 0);
+    @Getter
+    private int variantCount;
+    @Getter
+    private long traceCount;
+
+    /***
+     * Create empty index
+     * @param classes event classes used to encode traces
+     */
+    public VariantIndex(@NonNull XEventClasses classes) {
+        this.classes = classes;
+        this.names = new String[classes.size()];
+        for (XEventClass eventClass: classes.getClasses()) {
+            names[eventClass.getIndex()] = eventClass.getId();
+        }
+    }
+
+    /***
+     * Add trace to index
+     * @param position trace position in log
+     * @param xTrace trace to encode
+     */
+    void addTrace(int position, XTrace xTrace) {
+        Node node = root;
+        for (XEvent xEvent: xTrace) {
+            node = node.child(classIndex(xEvent));
+        }
+
+        if (node.count == 0) variantCount++;
+        node.addTrace(position);
+        traceCount++;
+    }
+
+    /***
+     * Add variants of other index with the same event classes. Positions of other index traces should follow
+     * positions of this index, as for consecutive log ranges
+     * @param other index to merge, should not be used after merge
+     * @return this index
+     */
+    public VariantIndex merge(@NonNull VariantIndex other) {
+        if (other.classes != classes)
+            throw new IllegalArgumentException("Can not merge variant index built on different event classes");
+
+        // iterative walk over both tries, variants can be longer than stack allows
+        ArrayDeque<Node[]> pending = new ArrayDeque<>();
+        pending.push(new Node[]{root, other.root});
+        while (!pending.isEmpty()) {
+            Node[] pair = pending.pop();
+            Node target = pair[0];
+            Node source = pair[1];
+
+            if (source.count > 0) {
+                if (target.count == 0) variantCount++;
+                for (int i = 0; i < source.count; i++) {
+                    target.addTrace(source.traces[i]);
+                }
+            }
+            for (int i = 0; i < source.size; i++) {
+                pending.push(new Node[]{target.child(source.keys[i]), source.children[i]});
+            }
+        }
+        traceCount += other.traceCount;
+
+        return this;
+    }
+
+    /***
+     * All variants, most frequent first. Variants of the same frequency are ordered by first trace in log
+     * @return list of variants
+     */
+    public List<Variant> getVariants() {
+        List<Variant> variants = Lists.newArrayListWithCapacity(variantCount);
+        ArrayDeque<Node> pending = new ArrayDeque<>();
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            Node node = pending.pop();
+            if (node.count > 0) variants.add(toVariant(node));
+            for (int i = 0; i < node.size; i++) {
+                pending.push(node.children[i]);
+            }
+        }
+
+        variants.sort(Comparator.comparingInt(Variant::getCount).reversed()
+                .thenComparingInt(variant -> variant.traces[0]));
+        return variants;
+    }
+
+    /***
+     * Find variant of trace
+     * @param xTrace trace to look up, does not need to be in log
+     * @return variant or null if no indexed trace has the same event class sequence
+     */
+    public Variant getVariant(@NonNull XTrace xTrace) {
+        Node node = root;
+        for (XEvent xEvent: xTrace) {
+            node = node.find(classIndex(xEvent));
+            if (node == null) return null;
+        }
+
+        return node.count > 0 ? toVariant(node) : null;
+    }
+
+    private int classIndex(XEvent xEvent) {
+        XEventClass eventClass = classes.getClassOf(xEvent);
+        return eventClass == null ? UNKNOWN_CLASS : eventClass.getIndex();
+    }
+
+    private Variant toVariant(Node node) {
+        int length = 0;
+        for (Node current = node; current.parent != null; current = current.parent) length++;
+
+        int[] sequence = new int[length];
+        for (Node current = node; current.parent != null; current = current.parent) {
+            sequence[--length] = current.key;
+        }
+
+        return new Variant(sequence, node.count, Arrays.copyOf(node.traces, node.count));
+    }
+
+    /**
+     * Distinct event class sequence with its traces
+     */
+    public class Variant {
+        private final int[] sequence;
+        @Getter
+        private final int count;
+        private final int[] traces;
+
+        private Variant(int[] sequence, int count, int[] traces) {
+            this.sequence = sequence;
+            this.count = count;
+            this.traces = traces;
+        }
+
+        /***
+         * Event class indices of variant, see XEventClasses
+         * @return class indices in trace order
+         */
+        public int[] getClassIndices() {
+            return sequence.clone();
+        }
+
+        /***
+         * Event class identities of variant, null for events without class
+         * @return class identities in trace order
+         */
+        public List<String> getActivities() {
+            String[] activities = new String[sequence.length];
+            for (int i = 0; i < sequence.length; i++) {
+                activities[i] = sequence[i] == UNKNOWN_CLASS ? null : names[sequence[i]];
+            }
+            return Collections.unmodifiableList(Arrays.asList(activities));
+        }
+
+        /***
+         * Positions of variant traces in log
+         * @return ascending trace positions
+         */
+        public int[] getTraces() {
+            return traces.clone();
+        }
+    }
+
+    /**
+     * Trie node, children are kept in arrays sorted by class index
+     */
+    static private class Node {
+        private static final int[] NO_KEYS = new int[0];
+        private static final Node[] NO_CHILDREN = new Node[0];
+
+        private final Node parent;
+        private final int key;
+
+        private int[] keys = NO_KEYS;
+        private Node[] children = NO_CHILDREN;
+        private int size;
+
+        // traces ending in this node
+        private int[] traces;
+        private int count;
+
+        private Node(Node parent, int key) {
+            this.parent = parent;
+            this.key = key;
+        }
+
+        private Node find(int key) {
+            int index = Arrays.binarySearch(keys, 0, size, key);
+            return index >= 0 ? children[index] : null;
+        }
+
+        private Node child(int key) {
+            int index = Arrays.binarySearch(keys, 0, size, key);
+            if (index >= 0) return children[index];
+
+            index = -index - 1;
+            if (size == keys.length) {
+                int capacity = Math.max(2, size * 2);
+                keys = Arrays.copyOf(keys, capacity);
+                children = Arrays.copyOf(children, capacity);
+            }
+            System.arraycopy(keys, index, keys, index + 1, size - index);
+            System.arraycopy(children, index, children, index + 1, size - index);
+            keys[index] = key;
+            children[index] = new Node(this, key);
+            size++;
+
+            return children[index];
+        }
+
+        private void addTrace(int position) {
+            if (traces == null) traces = new int[1];
+            else if (count == traces.length) traces = Arrays.copyOf(traces, count * 2);
+            traces[count++] = position;
+        }
+    }
+}
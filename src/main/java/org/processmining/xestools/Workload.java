@@ -2,6 +2,7 @@ package org.processmining.xestools;
 
 import lombok.Getter;
 import lombok.NoArgsConstructor;
+import lombok.NonNull;
 import lombok.Setter;
 
 import java.time.ZonedDateTime;
@@ -27,4 +28,12 @@ public class Workload {
         this.timestamp = hour;
         this.workload = workload;
     }
+
+    /***
+     * Copy record
+     * @param other record to copy
+     */
+    public Workload(@NonNull Workload other) {
+        this(other.resource, other.role, other.group, other.timestamp, other.workload);
+    }
 }
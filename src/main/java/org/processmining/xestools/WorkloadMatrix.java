@@ -0,0 +1,222 @@
+package org.processmining.xestools;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import lombok.Getter;
+import lombok.NonNull;
+import org.processmining.xestools.XEStools.Granularity;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resource workload in seconds per time bucket. Buckets are computed arithmetically on epoch seconds (UTC),
+ * each resource keeps primitive long[] accumulator covering buckets it was busy in.
+ * Resources are kept in first seen order, role and group are taken from the first event of resource
+ */
+public class WorkloadMatrix {
+
+    static private final ZoneId UTC = ZoneId.of("UTC");
+
+    @Getter
+    private final Granularity granularity;
+    private final long size;
+    private final long origin;
+
+    private final Map<String, Row> rows = Maps.newLinkedHashMap();
+
+    public WorkloadMatrix(@NonNull Granularity granularity) {
+        this.granularity = granularity;
+        this.size = granularity.getSeconds();
+        this.origin = granularity.getOrigin();
+    }
+
+    /***
+     * Add busy interval of resource
+     * @param resource resource name
+     * @param role resource role, used if resource is new
+     * @param group resource group, used if resource is new
+     * @param start interval start, epoch seconds
+     * @param end interval end (exclusive), epoch seconds
+     */
+    public void add(@NonNull String resource, String role, String group, long start, long end) {
+        if (end <= start) return;
+
+        Row row = rows.computeIfAbsent(resource, key -> new Row(role, group));
+        long first = bucketOf(start);
+        long last = bucketOf(end - 1);
+        row.ensure(first, last);
+
+        int index = (int) (first - row.first);
+        if (first == last) {
+            row.seconds[index] += end - start;
+            return;
+        }
+
+        row.seconds[index] += bucketStart(first + 1) - start;
+        for (long bucket = first + 1; bucket < last; bucket++) {
+            row.seconds[++index] += size;
+        }
+        row.seconds[index + 1] += end - bucketStart(last);
+    }
+
+    /***
+     * Add workload of other matrix of the same granularity. Resources new to this matrix are appended
+     * @param other matrix to merge
+     * @return this matrix
+     */
+    public WorkloadMatrix merge(@NonNull WorkloadMatrix other) {
+        if (other.granularity != granularity)
+            throw new IllegalArgumentException("Can not merge " + other.granularity + " workload into " + granularity);
+
+        for (Map.Entry<String, Row> entry: other.rows.entrySet()) {
+            Row source = entry.getValue();
+            if (source.seconds == null) continue;
+
+            Row row = rows.computeIfAbsent(entry.getKey(), key -> new Row(source.role, source.group));
+            row.ensure(source.low, source.high);
+            int shift = (int) (source.first - row.first);
+            for (int i = (int) (source.low - source.first); i <= source.high - source.first; i++) {
+                row.seconds[shift + i] += source.seconds[i];
+            }
+        }
+
+        return this;
+    }
+
+    /***
+     * Resources in first seen order
+     * @return list of resource names
+     */
+    public List<String> getResources() {
+        return Lists.newArrayList(rows.keySet());
+    }
+
+    /***
+     * Index of the first bucket with workload, buckets are counted from granularity origin
+     * @return bucket index, 0 if matrix is empty
+     */
+    public long getFirstBucket() {
+        long first = Long.MAX_VALUE;
+        for (Row row: rows.values()) {
+            first = Math.min(first, row.low);
+        }
+        return first == Long.MAX_VALUE ? 0 : first;
+    }
+
+    /***
+     * Number of buckets between the first and the last bucket with workload
+     * @return column count of dense matrix
+     */
+    public int getBucketCount() {
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        for (Row row: rows.values()) {
+            first = Math.min(first, row.low);
+            last = Math.max(last, row.high);
+        }
+        return first > last ? 0 : (int) (last - first + 1);
+    }
+
+    /***
+     * Start time of bucket
+     * @param bucket bucket index
+     * @return bucket start in UTC
+     */
+    public ZonedDateTime getBucketStart(long bucket) {
+        return ZonedDateTime.ofInstant(Instant.ofEpochSecond(bucketStart(bucket)), UTC);
+    }
+
+    /***
+     * Dense workload row of resource, columns start from getFirstBucket
+     * @param resource resource name
+     * @return workload in seconds for each of getBucketCount buckets, null if resource is unknown
+     */
+    public long[] getWorkload(String resource) {
+        Row row = rows.get(resource);
+        if (row == null) return null;
+
+        long[] dense = new long[getBucketCount()];
+        if (row.seconds != null) {
+            // rows are over-allocated, copy only buckets resource was busy in
+            System.arraycopy(row.seconds, (int) (row.low - row.first), dense, (int) (row.low - getFirstBucket()),
+                    (int) (row.high - row.low + 1));
+        }
+        return dense;
+    }
+
+    /***
+     * Non-zero buckets as workload records, resource by resource in time order
+     * @return list of workloads
+     */
+    public List<Workload> toList() {
+        List<Workload> workloads = Lists.newArrayList();
+        for (Map.Entry<String, Row> entry: rows.entrySet()) {
+            Row row = entry.getValue();
+            if (row.seconds == null) continue;
+
+            for (int i = 0; i < row.seconds.length; i++) {
+                if (row.seconds[i] != 0) {
+                    workloads.add(new Workload(entry.getKey(), row.role, row.group,
+                            getBucketStart(row.first + i), row.seconds[i]));
+                }
+            }
+        }
+
+        return workloads;
+    }
+
+    private long bucketOf(long second) {
+        return Math.floorDiv(second - origin, size);
+    }
+
+    private long bucketStart(long bucket) {
+        return origin + bucket * size;
+    }
+
+    /**
+     * Accumulator of one resource, grows in both directions
+     */
+    static private class Row {
+        private final String role;
+        private final String group;
+        private long first;
+        private long[] seconds;
+        // range of buckets with workload
+        private long low = Long.MAX_VALUE;
+        private long high = Long.MIN_VALUE;
+
+        private Row(String role, String group) {
+            this.role = role;
+            this.group = group;
+        }
+
+        private void ensure(long from, long to) {
+            low = Math.min(low, from);
+            high = Math.max(high, to);
+
+            if (seconds == null) {
+                first = from;
+                seconds = new long[(int) Math.max(16, to - from + 1)];
+                return;
+            }
+
+            long last = first + seconds.length - 1;
+            if (from >= first && to <= last) return;
+
+            long newFirst = Math.min(first, from);
+            long newLast = Math.max(last, to);
+            // double capacity towards the growing side to keep growth amortized
+            if (from < first) newFirst = Math.min(newFirst, last - 2L * seconds.length + 1);
+            if (to > last) newLast = Math.max(newLast, first + 2L * seconds.length - 1);
+
+            long[] grown = new long[(int) (newLast - newFirst + 1)];
+            System.arraycopy(seconds, 0, grown, (int) (first - newFirst), seconds.length);
+            first = newFirst;
+            seconds = grown;
+        }
+    }
+}
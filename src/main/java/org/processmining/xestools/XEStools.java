@@ -1,24 +1,49 @@
 package org.processmining.xestools;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.*;
 import lombok.Getter;
 import lombok.NonNull;
-import org.apache.commons.math.stat.descriptive.DescriptiveStatistics;
+import org.deckfour.xes.classification.XEventClasses;
+import org.deckfour.xes.classification.XEventClassifier;
+import org.deckfour.xes.classification.XEventNameClassifier;
+import org.deckfour.xes.extension.std.XConceptExtension;
 import org.deckfour.xes.extension.std.XLifecycleExtension;
-import org.deckfour.xes.extension.std.XOrganizationalExtension;
 import org.deckfour.xes.extension.std.XTimeExtension;
 import org.deckfour.xes.factory.XFactory;
+import org.deckfour.xes.in.XLogStream;
 import org.deckfour.xes.in.XesXmlGZIPParser;
+import org.deckfour.xes.in.XesXmlParallelParser;
+import org.deckfour.xes.in.XesXmlParser;
 import org.deckfour.xes.model.*;
 import org.processmining.xeslite.external.XFactoryExternalStore;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.time.*;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import static org.processmining.log.utils.XUtils.getConceptName;
 
@@ -28,17 +53,92 @@ import static org.processmining.log.utils.XUtils.getConceptName;
  */
 public class XEStools {
 
-    static private final ZonedDateTime MINTIME = ZonedDateTime.of(LocalDateTime.MIN, ZoneId.systemDefault());
-    static private final ZonedDateTime MAXTIME = ZonedDateTime.of(LocalDateTime.MAX, ZoneId.systemDefault());
+    static final ZonedDateTime MINTIME = ZonedDateTime.of(LocalDateTime.MIN, ZoneId.systemDefault());
+    static final ZonedDateTime MAXTIME = ZonedDateTime.of(LocalDateTime.MAX, ZoneId.systemDefault());
+
+    /**
+     * Epoch millis value for events without timestamp
+     */
+    public static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+    static private final ZoneId UTC = ZoneId.of("UTC");
 
     private static final long EVENT_DEFAULT_DURATION = 60L;
 
+    private static final long SUMMARY_CACHE_SIZE = 1L << 21;
+
+    // chunks per worker thread in parallel mode, more chunks balance uneven traces better
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    // result cache bounds: number of results and total number of their list items and map entries
+    private static final int RESULT_CACHE_ENTRIES = 64;
+    private static final long RESULT_CACHE_WEIGHT = 1_000_000L;
+
     @Getter
     private XFactory xFactory;
 
     @Getter
     private XLog xlog;
 
+    // executor for parallel mode, null to run on calling thread
+    @Getter
+    private final Executor executor;
+
+    // trace summaries keyed by trace identity (weak keys compare by ==)
+    private final Cache<XTrace, TraceSummary> summaryCache = CacheBuilder.newBuilder()
+            .weakKeys()
+            .maximumSize(SUMMARY_CACHE_SIZE)
+            .build();
+
+    private final Function<XTrace, TraceSummary> summaryProvider = this::getTraceSummary;
+
+    // incremented when traces are appended, reported changed or their summaries recalculated after in place change,
+    // cached results and indexes built at other count are stale
+    private final AtomicInteger modifications = new AtomicInteger();
+
+    // concept:name -> position of trace in log, built on first lookup
+    private Map<String, Integer> traceIndex;
+    private int indexedSize;
+
+    // incremental mode: unfiltered aggregates kept between calls and extended by appended traces only
+    @Getter
+    private boolean incremental;
+    private final Maintained<Map<String, Long>> maintainedDurations = new Maintained<>(Maps::newHashMap,
+            (durations, xTrace) -> {
+                TraceSummary summary = getTraceSummary(xTrace);
+                durations.put(summary.getName(), summary.getDuration());
+            },
+            (left, right) -> {
+                left.putAll(right);
+                return left;
+            });
+    private final Maintained<Map<String, QuantileSketch>> maintainedShares = new Maintained<>(Maps::newHashMap,
+            (statistics, xTrace) -> addShares(statistics, xTrace, QuantileSketch.DEFAULT_ACCURACY),
+            XEStools::mergeShares);
+    private final Map<Granularity, Maintained<WorkloadMatrix>> maintainedWorkloads = Maps.newEnumMap(Granularity.class);
+
+    // columnar mode: analytics read columnar snapshot of log instead of XLog object graph
+    @Getter
+    private boolean columnar;
+    private ColumnarLogSnapshot snapshot;
+
+    // sorted trace start and end times for range filters, built on first range query
+    private TraceTimeIndex timeIndex;
+    private int timeIndexModifications;
+    // attribute value bitmaps for list filters, built on first list query
+    private TraceAttributeIndex attributeIndex;
+    private int attributeIndexModifications;
+    // event classes of whole log by classifier for variant indexes, built on first variant query
+    private final Map<XEventClassifier, XEventClasses> eventClasses = Maps.newHashMap();
+    private int classifiedSize;
+
+    // sampling mode: analytics visit sampled traces only
+    @Getter
+    private TraceSample sample;
+
+    // results of repeated trace list, share and workload requests
+    private final ResultCache resultCache = new ResultCache(RESULT_CACHE_ENTRIES, RESULT_CACHE_WEIGHT);
+
     public enum FilterType {
         EVENT_COUNT_RANGE,
         RESOURCE_LIST,
@@ -53,24 +153,81 @@ public class XEStools {
         TRACE_NAME_LIST
     }
 
+    /**
+     * Workload bucket size. Buckets are aligned in UTC, weeks start on Monday
+     */
+    public enum Granularity {
+        MINUTE(60L),
+        QUARTER_HOUR(900L),
+        HOUR(3600L),
+        DAY(86400L),
+        WEEK(604800L, 4 * 86400L); // 1970-01-05 is Monday
+
+        @Getter
+        private final long seconds;
+        @Getter
+        private final long origin;
+
+        Granularity(long seconds) {
+            this(seconds, 0L);
+        }
+
+        Granularity(long seconds, long origin) {
+            this.seconds = seconds;
+            this.origin = origin;
+        }
+    }
+
     public XEStools() {
-        this.xFactory = createXFactory();
-        this.xlog = xFactory.createLog();
+        this((Executor) null);
     }
 
     public XEStools(@NonNull XLog xlog) {
+        this(xlog, null);
+    }
+
+    /***
+     * Create tools in parallel mode. Log is split into trace ranges processed on executor,
+     * results are merged in log order and match sequential mode. Quantile estimates (median shares,
+     * transition time quantiles) are the exception: once more than accuracy values are sketched, merged
+     * partial sketches stay within rank error of the sequential result but depend on executor parallelism
+     * @param executor executor (e.g. ForkJoinPool) to run analytics on, null for sequential mode
+     */
+    public XEStools(Executor executor) {
         this.xFactory = createXFactory();
         this.xlog = xFactory.createLog();
+        this.executor = executor;
+    }
+
+    /***
+     * Create tools in parallel mode for log
+     * @param xlog log to work with
+     * @param executor executor (e.g. ForkJoinPool) to run analytics on, null for sequential mode
+     */
+    public XEStools(@NonNull XLog xlog, Executor executor) {
+        this(executor);
         setXLog(xlog);
     }
 
+    /***
+     * Parse log file and clear cache. Compressed files are parsed on calling thread, plain .xes files
+     * are split on trace boundaries and parsed on executor in parallel mode
+     * @param filename .xes, .xez or .xes.gz file
+     * @return true if log was parsed
+     */
     public boolean parseLog(String filename) {
         try {
-            XesXmlGZIPParser parser = new XesXmlGZIPParser(xFactory);
+            XesXmlParser parser = new XesXmlGZIPParser(xFactory);
             File file = new File(filename);
+            if (!parser.canParse(file)) {
+                // workers share the factory: its key and literal pools are lock free, ids are synchronized and
+                // attributes go to a concurrent MapDB tree, while every worker builds its own traces and events.
+                // A factory per worker would intern keys in separate pools, so equal attributes would not be equal
+                parser = executor == null ? new XesXmlParser(xFactory) : new XesXmlParallelParser(xFactory, executor);
+            }
             if (parser.canParse(file)) {
-                InputStream inputStream = new FileInputStream(file);
-                this.xlog = parser.parse(inputStream).get(0);
+                this.xlog = parser.parse(file).get(0);
+                clearCache();
                 return true;
             }
         }
@@ -81,6 +238,58 @@ public class XEStools {
         return false;
     }
 
+    /***
+     * Parse log file trace by trace and push traces matching filter to sink as soon as they are read.
+     * Traces are not kept, so files of any size are processed in memory of one trace. Current log is not changed.
+     * Exceptions of sink stop parsing and are passed to caller
+     * @param filename .xes, .xez or .xes.gz file
+     * @param filter Map of filters as attribute name = allowed value
+     * @param sink receiver of parsed traces
+     * @return log header with extensions, globals, classifiers and log attributes, null if file is not an XES log
+     * @throws UncheckedIOException if file can not be read
+     * @throws IllegalStateException if file can not be parsed, traces read before the error are already pushed
+     */
+    public XLog streamLog(String filename, Map<FilterType, Object> filter, @NonNull Consumer<? super XTrace> sink) {
+        return streamLogMatching(filename, TraceFilter.compile(filter), sink);
+    }
+
+    /***
+     * Parse log file trace by trace and push traces matching filter to sink as soon as they are read.
+     * Traces are not kept, so files of any size are processed in memory of one trace. Current log is not changed.
+     * Exceptions of sink stop parsing and are passed to caller
+     * @param filename .xes, .xez or .xes.gz file
+     * @param filter compiled filter to apply to traces, null to accept all
+     * @param sink receiver of parsed traces
+     * @return log header with extensions, globals, classifiers and log attributes, null if file is not an XES log
+     * @throws UncheckedIOException if file can not be read
+     * @throws IllegalStateException if file can not be parsed, traces read before the error are already pushed
+     */
+    public XLog streamLogMatching(String filename, TraceFilter filter, @NonNull Consumer<? super XTrace> sink) {
+        TraceFilter compiled = TraceFilter.orAll(filter);
+        XesXmlGZIPParser gzipParser = new XesXmlGZIPParser(xFactory);
+        File file = new File(filename);
+        XesXmlParser parser = gzipParser.canParse(file) ? gzipParser : new XesXmlParser(xFactory);
+        if (!parser.canParse(file)) return null;
+
+        try (InputStream input = new FileInputStream(file); XLogStream traces = parser.stream(input)) {
+            while (traces.hasNext()) {
+                XTrace xTrace = traces.next();
+                if (compiled.test(xTrace)) sink.accept(xTrace);
+            }
+            return traces.getHeader();
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Can not read " + filename, e);
+        }
+        catch (RuntimeException e) {
+            // parse errors of XLogStream and errors of sink
+            throw e;
+        }
+        catch (Exception e) {
+            throw new IllegalStateException("Can not parse " + filename, e);
+        }
+    }
+
     /***
      * Select log to work with and clear cache
      * @param xLog - new XLog
@@ -88,6 +297,185 @@ public class XEStools {
     public void setXLog(@NonNull XLog xLog) {
         // TODO ensure that log implementations match
         this.xlog = xLog;
+        clearCache();
+    }
+
+    /***
+     * Switch incremental mode. In incremental mode unfiltered getTraceDurations, eventDurationShares and
+     * calculateResourceWorkload keep their aggregates between calls and only process traces appended since
+     * the previous call. Changes of traces already in log should be reported with traceChanged
+     * @param incremental true to keep aggregates, false to drop them
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+        if (!incremental) resetMaintained();
+    }
+
+    /***
+     * Switch columnar mode. In columnar mode trace and event lists, durations, shares and workloads are calculated
+     * from ColumnarLogSnapshot built once on first request, so XLog attribute maps are not touched again.
+     * Snapshot is rebuilt when traces are appended, changes of traces already in log should be reported
+     * with traceChanged. Incremental aggregates are preferred for unfiltered requests
+     * @param columnar true to use snapshot, false to drop it
+     */
+    public synchronized void setColumnar(boolean columnar) {
+        this.columnar = columnar;
+        if (!columnar) snapshot = null;
+    }
+
+    /***
+     * Return columnar snapshot of current log, build it if log size changed
+     * @return log snapshot
+     */
+    public synchronized ColumnarLogSnapshot getSnapshot() {
+        if (snapshot == null || snapshot.getTraceCount() != xlog.size()) {
+            snapshot = ColumnarLogSnapshot.of(xlog);
+        }
+
+        return snapshot;
+    }
+
+    /***
+     * Draw uniform seeded sample of log traces, see setSample
+     * @param size sample size
+     * @param seed random seed
+     * @return sample
+     */
+    public TraceSample sampleTraces(int size, long seed) {
+        return TraceSample.uniform(xlog.size(), size, seed);
+    }
+
+    /***
+     * Draw seeded sample of log traces stratified by trace summary, e.g. TraceSummary::getResource.
+     * Stratum of every trace is calculated, so it takes one pass over log
+     * @param size total sample size
+     * @param seed random seed
+     * @param stratum stratum key of trace
+     * @return sample
+     */
+    public TraceSample sampleTraces(int size, long seed, @NonNull Function<TraceSummary, ?> stratum) {
+        int[] stratumOfTrace = new int[xlog.size()];
+        Map<Object, Integer> strata = Maps.newHashMap();
+        List<Object> keys = Lists.newArrayList();
+        for (int i = 0; i < stratumOfTrace.length; i++) {
+            Object key = stratum.apply(getTraceSummary(xlog.get(i)));
+            Integer index = strata.get(key);
+            if (index == null) {
+                index = keys.size();
+                strata.put(key, index);
+                keys.add(key);
+            }
+            stratumOfTrace[i] = index;
+        }
+
+        return TraceSample.stratified(stratumOfTrace, keys, size, seed);
+    }
+
+    /***
+     * Switch sampling mode. With sample set trace and event lists, durations, shares, workloads and other
+     * analytics process sampled traces only, estimate methods weight them and report confidence intervals.
+     * Set null to rerun exactly on whole log
+     * @param sample sample of current log, null for exact mode
+     */
+    public synchronized void setSample(TraceSample sample) {
+        if (sample != null && sample.getLogSize() > xlog.size())
+            throw new IllegalArgumentException("Sample was drawn from other log of " + sample.getLogSize() + " traces");
+        this.sample = sample;
+        resultCache.invalidateAll();
+    }
+
+    /***
+     * Limit result cache of getFullTraceList, eventDurationShares and calculateResourceWorkload. Results are
+     * keyed by canonical filter (order of list values does not matter) and arguments, least recently used
+     * results are evicted. Cache is cleared when log is set, parsed or changed. Results are also recalculated
+     * after appended traces and recalculated trace summaries, in place changes of traces should be reported
+     * by traceChanged
+     * @param maxEntries maximal number of cached results, 0 disables cache
+     * @param maxWeight maximal total number of cached list items and map entries
+     */
+    public void setResultCacheLimits(int maxEntries, long maxWeight) {
+        resultCache.setLimits(maxEntries, maxWeight);
+    }
+
+    /***
+     * Hit, miss and eviction counts of result cache
+     * @return cache statistics
+     */
+    public CacheStats getResultCacheStats() {
+        return resultCache.stats();
+    }
+
+    /***
+     * Append trace to log, trace index is updated in place
+     * @param xTrace trace to add
+     */
+    public synchronized void appendTrace(@NonNull XTrace xTrace) {
+        boolean indexed = isTraceIndexCurrent();
+        xlog.add(xTrace);
+        modifications.incrementAndGet();
+        if (indexed) {
+            String name = getConceptName(xTrace);
+            if (name != null) traceIndex.putIfAbsent(name, xlog.size() - 1);
+            indexedSize = xlog.size();
+        }
+    }
+
+    /***
+     * Append traces to log in given order
+     * @param xTraces traces to add
+     */
+    public synchronized void appendTraces(@NonNull Collection<? extends XTrace> xTraces) {
+        for (XTrace xTrace: xTraces) {
+            appendTrace(xTrace);
+        }
+    }
+
+    /***
+     * Report that trace already in log was changed (events added, removed or modified).
+     * Trace duration is updated in place unless trace was renamed, share and workload aggregates can not subtract old trace values
+     * and are rebuilt on next request
+     * @param xTrace changed trace
+     */
+    public synchronized void traceChanged(@NonNull XTrace xTrace) {
+        TraceSummary previous = summaryCache.getIfPresent(xTrace);
+        summaryCache.invalidate(xTrace);
+        modifications.incrementAndGet();
+        traceIndex = null;
+        resultCache.invalidateAll();
+
+        if (maintainedDurations.value != null) {
+            TraceSummary summary = getTraceSummary(xTrace);
+            // renamed trace would leave duration under old name, old name is unknown without cached summary
+            if (previous != null && Objects.equals(previous.getName(), summary.getName())) {
+                maintainedDurations.value.put(summary.getName(), summary.getDuration());
+            }
+            else {
+                maintainedDurations.reset();
+            }
+        }
+        maintainedShares.reset();
+        maintainedWorkloads.clear();
+        snapshot = null;
+        timeIndex = null;
+        attributeIndex = null;
+        eventClasses.clear();
+    }
+
+    /***
+     * Return trace summary from cache or calculate it. Summary is recalculated if trace size changed, then cached
+     * results are recalculated too
+     * @param xTrace trace to process
+     * @return trace summary
+     */
+    public TraceSummary getTraceSummary(@NonNull XTrace xTrace) {
+        TraceSummary summary = summaryCache.getIfPresent(xTrace);
+        if (summary == null || !summary.isCurrent(xTrace)) {
+            if (summary != null) modifications.incrementAndGet();
+            summary = TraceSummary.of(xTrace);
+            summaryCache.put(xTrace, summary);
+        }
+
+        return summary;
     }
 
     /***
@@ -106,22 +494,28 @@ public class XEStools {
      * @return ZonedDateTime
      */
     static public ZonedDateTime traceStartTime(@NonNull XTrace xTrace, String eventName) {
-        ZonedDateTime startTime = MINTIME;
+        return toZonedDateTime(traceStartMillis(xTrace, eventName));
+    }
 
-        if (xTrace.size() > 0) {
-            for(XEvent xEvent: xTrace) {
-                if (eventName != null && !getConceptName(xEvent).equals(eventName)) continue;
-                ZonedDateTime current = getTimeStamp(xEvent);
+    /***
+     * Find the start timestamp of the trace in epoch millis
+     * @param xTrace XTrace object to process
+     * @param eventName name of the event to search for, null to consider all events
+     * @return epoch millis or NO_TIMESTAMP if there are no matching events with timestamp
+     */
+    static public long traceStartMillis(@NonNull XTrace xTrace, String eventName) {
+        long startTime = Long.MAX_VALUE;
 
-                if (current != null) {
-                    if (startTime.equals(MINTIME) || current.isBefore(startTime)) {
-                        startTime = current;
-                    }
-                }
+        for(XEvent xEvent: xTrace) {
+            if (eventName != null && !eventName.equals(getConceptName(xEvent))) continue;
+            long current = getTimestampMillis(xEvent);
+
+            if (current != NO_TIMESTAMP && current < startTime) {
+                startTime = current;
             }
         }
 
-        return startTime;
+        return startTime == Long.MAX_VALUE ? NO_TIMESTAMP : startTime;
     }
 
     /***
@@ -144,7 +538,7 @@ public class XEStools {
         XTrace xTrace = getXTrace(index);
         if (xTrace != null)
         {
-            startTime = traceStartTime(xTrace, null);
+            startTime = getTraceSummary(xTrace).getStartTime();
         }
 
         return startTime;
@@ -175,22 +569,29 @@ public class XEStools {
      * @return zoned date time
      */
     static public ZonedDateTime traceEndTime(@NonNull XTrace xTrace, String eventName) {
-        ZonedDateTime endTime = MAXTIME;
+        long endTime = traceEndMillis(xTrace, eventName);
+        return endTime == NO_TIMESTAMP ? MAXTIME : toZonedDateTime(endTime);
+    }
 
-        if (xTrace.size() > 0) {
-            for(XEvent xEvent: xTrace) {
-                if (eventName != null && !getConceptName(xEvent).equals(eventName)) continue;
-                ZonedDateTime current = getTimeStamp(xEvent);
+    /***
+     * Find the last timestamp of the trace in epoch millis
+     * @param xTrace xTrace to process
+     * @param eventName name of the event to search for, null to consider all events
+     * @return epoch millis or NO_TIMESTAMP if there are no matching events with timestamp
+     */
+    static public long traceEndMillis(@NonNull XTrace xTrace, String eventName) {
+        long endTime = NO_TIMESTAMP;
 
-                if (current != null) {
-                    if (endTime.equals(MAXTIME) || current.isAfter(endTime)) {
-                        endTime = current;
-                    }
-                }
+        for(XEvent xEvent: xTrace) {
+            if (eventName != null && !eventName.equals(getConceptName(xEvent))) continue;
+            long current = getTimestampMillis(xEvent);
+
+            if (current > endTime) {
+                endTime = current;
             }
         }
 
-        return  endTime;
+        return endTime;
     }
 
     /***
@@ -204,7 +605,7 @@ public class XEStools {
         XTrace xTrace = getXTrace(index);
         if (xTrace != null)
         {
-            endTime = traceEndTime(xTrace);
+            endTime = getTraceSummary(xTrace).getEndTime();
         }
 
         return endTime;
@@ -258,7 +659,7 @@ public class XEStools {
         XTrace xTrace = getXTrace(index);
         if (xTrace != null)
         {
-            duration = getTraceDuration(xTrace, null, null);
+            duration = getTraceSummary(xTrace).getDuration();
         }
 
         return duration;
@@ -272,12 +673,12 @@ public class XEStools {
      * @return trace/segment duration
      */
     static public Long getTraceDuration(@NonNull XTrace xTrace, String startEventName, String endEventName) {
-        Long duration = 0L;
+        long duration = 0L;
 
-        ZonedDateTime start = traceStartTime(xTrace, startEventName);
-        ZonedDateTime end = traceEndTime(xTrace, endEventName);
-        if (start.isAfter(MINTIME) && end.isBefore(MAXTIME) && end.isAfter(start)) {
-            duration = Duration.between(start, end).toMillis()/1000;
+        long start = traceStartMillis(xTrace, startEventName);
+        long end = traceEndMillis(xTrace, endEventName);
+        if (start != NO_TIMESTAMP && end != NO_TIMESTAMP && end > start) {
+            duration = (end - start) / 1000;
         }
 
         return duration;
@@ -290,10 +691,38 @@ public class XEStools {
      * @return map of trace/segment durations
      */
     public Map<String, Long> getTraceDurations(String startEvent, String endEvent) {
+        if (isMaintained(null) && startEvent == null && endEvent == null) {
+            return Maps.newHashMap(catchUp(maintainedDurations));
+        }
+
         Map <String, Long> durations = Maps.newHashMap();
 
+        if (sample != null) {
+            for (int position: sample.positions()) {
+                XTrace xTrace = xlog.get(position);
+                durations.put(getConceptName(xTrace), startEvent == null && endEvent == null ?
+                        getTraceSummary(xTrace).getDuration() : getTraceDuration(xTrace, startEvent, endEvent));
+            }
+            return durations;
+        }
+
+        if (columnar && startEvent == null && endEvent == null) {
+            ColumnarLogSnapshot current = getSnapshot();
+            for (int trace = 0; trace < current.getTraceCount(); trace++) {
+                TraceSummary summary = current.getSummary(trace);
+                durations.put(summary.getName(), summary.getDuration());
+            }
+            return durations;
+        }
+
         for(XTrace xTrace: xlog) {
-            durations.put(getConceptName(xTrace), getTraceDuration(xTrace, startEvent, endEvent));
+            if (startEvent == null && endEvent == null) {
+                TraceSummary summary = getTraceSummary(xTrace);
+                durations.put(summary.getName(), summary.getDuration());
+            }
+            else {
+                durations.put(getConceptName(xTrace), getTraceDuration(xTrace, startEvent, endEvent));
+            }
         }
 
         return durations;
@@ -316,21 +745,56 @@ public class XEStools {
      * @return list of trace segments with calculated statistics
      */
     public List<FlatXTrace> getFullSubTraceList(Map<FilterType, Object> filter, String startName, String endName) {
-        List<FlatXTrace> traces = Lists.newArrayList();
-
-        for (XTrace current: xlog) {
+        return getFullSubTraceListMatching(TraceFilter.compile(filter), startName, endName);
+    }
 
-            current = trimTrace(current, startName, endName);
-            if (current != null && current.size() > 0) {
-                if (filterMatch(filter, current)) {
-                    FlatXTrace flatXTrace = new FlatXTrace(current);
-                    traces.add(flatXTrace);
-                }
-            }
+    /***
+     * Returns the list of flat trace segments filtered by compiled filter
+     * @param filter compiled filter to apply to segments, null to accept all
+     * @param startName event name of segment start
+     * @param endName event name of segment end
+     * @return list of trace segments with calculated statistics
+     */
+    public List<FlatXTrace> getFullSubTraceListMatching(TraceFilter filter, String startName, String endName) {
+        SegmentDefinition segment = SegmentDefinition.span(startName, endName);
+        return getFullSubTraceListMatching(filter, Collections.singletonList(segment)).get(segment);
+    }
 
-        }
+    /***
+     * Returns flat trace segments for several segment definitions, each trace is read once for all of them
+     * @param filter Map of filters as attribute name = allowed value
+     * @param segments segment definitions
+     * @return segment definition to list of segments in log order, equal definitions are calculated once
+     */
+    public Map<SegmentDefinition, List<FlatXTrace>> getFullSubTraceList(Map<FilterType, Object> filter,
+                                                                       @NonNull List<SegmentDefinition> segments) {
+        return getFullSubTraceListMatching(TraceFilter.compile(filter), segments);
+    }
 
-        return traces;
+    /***
+     * Returns flat trace segments for several segment definitions, each trace is read once for all of them
+     * @param filter compiled filter to apply to segments, null to accept all
+     * @param segments segment definitions
+     * @return segment definition to list of segments in log order, equal definitions are calculated once
+     */
+    public Map<SegmentDefinition, List<FlatXTrace>> getFullSubTraceListMatching(TraceFilter filter,
+                                                                       @NonNull List<SegmentDefinition> segments) {
+        TraceFilter traceFilter = TraceFilter.orAll(filter);
+        List<SegmentDefinition> definitions = Lists.newArrayList(Sets.newLinkedHashSet(segments));
+
+        return aggregate(TraceFilter.ALL,
+                () -> {
+                    Map<SegmentDefinition, List<FlatXTrace>> result = Maps.newLinkedHashMap();
+                    for (SegmentDefinition definition: definitions) result.put(definition, Lists.newArrayList());
+                    return result;
+                },
+                (Map<SegmentDefinition, List<FlatXTrace>> result, XTrace current) -> addSegments(result, current, traceFilter),
+                (left, right) -> {
+                    for (Map.Entry<SegmentDefinition, List<FlatXTrace>> entry: right.entrySet()) {
+                        left.get(entry.getKey()).addAll(entry.getValue());
+                    }
+                    return left;
+                });
     }
 
     /***
@@ -341,23 +805,36 @@ public class XEStools {
      * @return trace or null if start/end combination do not exist in trace
      */
     static public XTrace trimTrace(XTrace trace, String startName, String endName) {
-        XTrace trimmed = (XTrace)trace.clone();
-
-        ZonedDateTime startTime = traceStartTime(trimmed, startName);
-        ZonedDateTime endTime = traceEndTime(trimmed, endName);
-        if (startTime.isAfter(MINTIME) && endTime.isBefore(MAXTIME) && !startTime.isAfter(endTime)) {
-            trimmed.removeIf(
-                    event -> (
-                            getTimeStamp(event).isBefore(startTime) ||
-                            getTimeStamp(event).isAfter(endTime)
-                    )
-            );
-        }
-        else {
-            trimmed = null;
+        SubTraceView segment = subTrace(trace, startName, endName);
+        return segment == null ? null : segment.materialize();
+    }
+
+    /***
+     * Trace segment as view on trace events, no events are copied
+     * @param trace trace to process
+     * @param startName name of segment starting event, null for the first event
+     * @param endName name of segment ending event, null for the last event
+     * @return view from the earliest start event to the latest end event or null if start/end combination do not exist in trace
+     */
+    static public SubTraceView subTrace(@NonNull XTrace trace, String startName, String endName) {
+        long startTime = Long.MAX_VALUE;
+        long endTime = NO_TIMESTAMP;
+        boolean ordered = true;
+        long previous = NO_TIMESTAMP;
+
+        for (XEvent xEvent: trace) {
+            long stamp = getTimestampMillis(xEvent);
+            if (stamp < previous) ordered = false;
+            previous = stamp;
+            if (stamp == NO_TIMESTAMP) continue;
+
+            if (startName == null || startName.equals(getConceptName(xEvent))) startTime = Math.min(startTime, stamp);
+            if (endName == null || endName.equals(getConceptName(xEvent))) endTime = Math.max(endTime, stamp);
         }
 
-        return trimmed;
+        if (startTime == Long.MAX_VALUE || endTime == NO_TIMESTAMP || startTime > endTime) return null;
+
+        return SubTraceView.of(trace, startTime, endTime, ordered);
     }
 
     /***
@@ -366,14 +843,61 @@ public class XEStools {
      * @return map of traces
      */
     public List<FlatXTrace> getFullTraceList(Map<FilterType, Object> filter) {
-        List<FlatXTrace> traces = Lists.newArrayList();
+        return getFullTraceListMatching(TraceFilter.compile(filter));
+    }
 
-        xlog.stream().filter(current -> filterMatch(filter, current)).forEach(current -> {
-            FlatXTrace flatXTrace = new FlatXTrace(current);
-            traces.add(flatXTrace);
-        });
+    /***
+     * Returns the list of flat records filtered by compiled filter
+     * @param filter compiled filter to apply to log, null to accept all
+     * @return map of traces
+     */
+    public List<FlatXTrace> getFullTraceListMatching(TraceFilter filter) {
+        TraceFilter compiled = TraceFilter.orAll(filter);
+        return Lists.newArrayList(Lists.transform(
+                resultCache.get(ResultCache.key("getFullTraceList", compiled, xlog.size(), modifications.get()),
+                        () -> fullTraceList(compiled)),
+                FlatXTrace::new));
+    }
 
-        return traces;
+    private List<FlatXTrace> fullTraceList(TraceFilter filter) {
+        if (columnar) {
+            return aggregate(getSnapshot(), filter, Lists::newArrayList,
+                    (List<FlatXTrace> traces, ColumnarLogSnapshot current, int trace) ->
+                            traces.add(new FlatXTrace(current.getSummary(trace))),
+                    XEStools::concat);
+        }
+
+        return aggregate(filter, Lists::newArrayList,
+                (List<FlatXTrace> traces, XTrace current) -> traces.add(new FlatXTrace(current, getTraceSummary(current))),
+                XEStools::concat);
+    }
+
+    /***
+     * Push flat records of traces matching filter to sink one by one, in log order.
+     * Nothing is collected, so memory use does not depend on log size. Always sequential
+     * @param filter Map of filters as attribute name = allowed value
+     * @param sink receiver of flat traces
+     */
+    public void forEachTrace(Map<FilterType, Object> filter, @NonNull Consumer<? super FlatXTrace> sink) {
+        forEachTraceMatching(TraceFilter.compile(filter), sink);
+    }
+
+    /***
+     * Push flat records of traces matching filter to sink one by one, in log order.
+     * Nothing is collected, so memory use does not depend on log size. Always sequential
+     * @param filter compiled filter to apply to log, null to accept all
+     * @param sink receiver of flat traces
+     */
+    public void forEachTraceMatching(TraceFilter filter, @NonNull Consumer<? super FlatXTrace> sink) {
+        if (columnar) {
+            aggregateRange(getSnapshot(), TraceFilter.orAll(filter), () -> sink,
+                    (Consumer<? super FlatXTrace> target, ColumnarLogSnapshot source, int trace) ->
+                            target.accept(new FlatXTrace(source.getSummary(trace))));
+            return;
+        }
+
+        aggregateRange(xlog, TraceFilter.orAll(filter), () -> sink,
+                (Consumer<? super FlatXTrace> target, XTrace current) -> target.accept(new FlatXTrace(current, getTraceSummary(current))));
     }
 
     /***
@@ -387,9 +911,10 @@ public class XEStools {
         String result = "NA";
 
         for (XEvent xEvent: xTrace) {
-            if ( eventName != null && !getConceptName(xEvent).equals(eventName)) continue;
+            XAttributeMap attributes = xEvent.getAttributes();
+            if ( eventName != null && !eventName.equals(EventAttributes.getLiteral(attributes, XConceptExtension.KEY_NAME, null))) continue;
 
-            String current = (String)getAttribute(xEvent, attribute);
+            String current = EventAttributes.getLiteral(attributes, attribute, null);
             if ( current == null ) continue;
 
             if ( result.equals("NA") ) result = current;
@@ -404,7 +929,7 @@ public class XEStools {
     }
 
     /***
-     * Search for trace by it's concept:name
+     * Search for trace by it's concept:name. Uses name index, built on first call
      * @param name name to search for
      * @return trace of null if not found
      */
@@ -412,10 +937,14 @@ public class XEStools {
         XTrace xTrace = null;
 
         if(xlog.size() > 0) {
-            for (XTrace currentTrace: xlog) {
-                if (getConceptName(currentTrace).equals(name)) {
-                    xTrace = currentTrace;
-                    break;
+            Integer position = getTraceIndex().get(name);
+            if (position != null) {
+                xTrace = xlog.get(position);
+                if (!name.equals(getConceptName(xTrace))) {
+                    // trace was renamed after indexing
+                    traceIndex = null;
+                    position = getTraceIndex().get(name);
+                    xTrace = position != null ? xlog.get(position) : null;
                 }
             }
         }
@@ -423,6 +952,34 @@ public class XEStools {
         return xTrace;
     }
 
+    /***
+     * Search for traces by concept:name. Without name index all traces are found in one pass over log
+     * @param names names to search for
+     * @return map of name and trace, names not found in log are skipped
+     */
+    public Map<String, XTrace> getXTraces(@NonNull Collection<String> names) {
+        Map<String, XTrace> traces = Maps.newLinkedHashMap();
+
+        if (isTraceIndexCurrent()) {
+            for (String name: names) {
+                XTrace xTrace = getXTrace(name);
+                if (xTrace != null) traces.put(name, xTrace);
+            }
+        }
+        else {
+            Set<String> wanted = Sets.newHashSet(names);
+            for (XTrace xTrace: xlog) {
+                String name = getConceptName(xTrace);
+                if (name != null && wanted.remove(name)) {
+                    traces.put(name, xTrace);
+                    if (wanted.isEmpty()) break;
+                }
+            }
+        }
+
+        return traces;
+    }
+
     /***
      * Get attribute value
      * @param object object with attributes (event or trace)
@@ -444,30 +1001,16 @@ public class XEStools {
         Object value = null;
 
         if (object.hasAttributes()) {
-            XAttributeMap xAttributeMap = object.getAttributes();
-            XAttribute attribute = null;
+            // attribute map is keyed by attribute key, single lookup is enough
+            XAttribute attribute = object.getAttributes().get(name);
 
-            if (xAttributeMap.containsKey(name)) {
-                attribute = xAttributeMap.get(name);
+            if (attribute instanceof XAttributeLiteral) {
+                value = ((XAttributeLiteral) attribute).getValue();
             }
-            else {
-                for (XAttribute current : xAttributeMap.values()) {
-                    if (current.getKey().equals(name)) {
-                        attribute = current;
-                        break;
-                    }
-                }
+            else if (attribute instanceof XAttributeTimestamp) {
+                value = toZonedDateTime(((XAttributeTimestamp) attribute).getValueMillis());
             }
-
-            if (attribute != null) {
-                if (XAttributeLiteral.class.isInstance(attribute)) {
-                    value = ((XAttributeLiteral) attribute).getValue();
-                }
-                else if (attribute.getKey().equals(XTimeExtension.KEY_TIMESTAMP)) {
-                    value = ZonedDateTime.ofInstant(((XAttributeTimestamp) attribute).getValue().toInstant(), ZoneId.of("UTC"));
-                }
-            }
-            else {
+            else if (attribute == null) {
                 value = defaultValue;
             }
         }
@@ -482,42 +1025,171 @@ public class XEStools {
      * @return map of event durations
      */
     public Map<String, Double> eventDurationShares(Map<FilterType, Object> filter, boolean useMedian) {
+        return eventDurationSharesMatching(TraceFilter.compile(filter), useMedian);
+    }
+
+    /***
+     * Calculate average share of event duration in trace on whole log. Median is estimated with default
+     * accuracy, see eventDurationSharesMatching(TraceFilter, double, int)
+     * @param filter compiled filter to apply, null to accept all
+     * @param useMedian mode of calculation - mean or median (better if skewed)
+     * @return map of event durations
+     */
+    public Map<String, Double> eventDurationSharesMatching(TraceFilter filter, boolean useMedian) {
+        if (useMedian)
+            return eventDurationSharesMatching(filter, 0.5, QuantileSketch.DEFAULT_ACCURACY);
+
+        TraceFilter compiled = TraceFilter.orAll(filter);
+        return Maps.newHashMap(resultCache.get(ResultCache.key("eventDurationShares", compiled, xlog.size(), modifications.get()),
+                () -> meanShares(compiled)));
+    }
+
+    private Map<String, Double> meanShares(TraceFilter filter) {
         Map<String, Double> shares = Maps.newHashMap();
-        Map<String, DescriptiveStatistics> buffer = Maps.newHashMap();
-
-        xlog.stream().filter(xTrace -> filterMatch(filter, xTrace)).forEach(xTrace -> {
-                Map<String, Double> traceShares = eventSharesInTrace(xTrace);
-                for (Map.Entry<String, Double> entry : traceShares.entrySet()) {
-                    DescriptiveStatistics current = buffer.getOrDefault(entry.getKey(), new DescriptiveStatistics());
-                    current.addValue(entry.getValue());
-                    buffer.put(
-                            entry.getKey(),
-                            current
-                    );
-                }
-        });
+        Map<String, QuantileSketch> statistics = isMaintained(filter) ?
+                catchUp(maintainedShares) : shareStatistics(filter, 0);
+        for (Map.Entry<String, QuantileSketch> entry: statistics.entrySet()) {
+            shares.put(entry.getKey(), entry.getValue().getMean());
+        }
+
+        return shares;
+    }
+
+    /***
+     * Estimate quantile of event duration share in trace on whole log. Memory per event class does not depend
+     * on log size, result is exact while event class is found in less than accuracy traces
+     * @param filter log filter to apply
+     * @param quantile quantile in (0, 1], 0.5 for median
+     * @param accuracy sketch size, see QuantileSketch
+     * @return map of event duration share quantiles
+     */
+    public Map<String, Double> eventDurationShares(Map<FilterType, Object> filter, double quantile, int accuracy) {
+        return eventDurationSharesMatching(TraceFilter.compile(filter), quantile, accuracy);
+    }
+
+    /***
+     * Estimate quantile of event duration share in trace on whole log. Memory per event class does not depend
+     * on log size, result is exact while event class is found in less than accuracy traces. Beyond that
+     * result is within rank error of about 1/accuracy, and in parallel mode depends on executor parallelism
+     * @param filter compiled filter to apply, null to accept all
+     * @param quantile quantile in (0, 1], 0.5 for median
+     * @param accuracy sketch size, see QuantileSketch
+     * @return map of event duration share quantiles
+     */
+    public Map<String, Double> eventDurationSharesMatching(TraceFilter filter, double quantile, int accuracy) {
+        if (accuracy <= 0) throw new IllegalArgumentException("Accuracy should be positive, got " + accuracy);
 
-        // average share
-        for (Map.Entry<String, DescriptiveStatistics> entry: buffer.entrySet()) {
-            if (useMedian)
-                shares.put(entry.getKey(), entry.getValue().getPercentile(50));
-            else
-                shares.put(entry.getKey(), entry.getValue().getMean());
+        TraceFilter compiled = TraceFilter.orAll(filter);
+        return Maps.newHashMap(resultCache.get(
+                ResultCache.key("eventDurationShares", compiled, xlog.size(), modifications.get(), quantile, accuracy),
+                () -> quantileShares(compiled, quantile, accuracy)));
+    }
+
+    private Map<String, Double> quantileShares(TraceFilter filter, double quantile, int accuracy) {
+        Map<String, Double> shares = Maps.newHashMap();
+        Map<String, QuantileSketch> statistics = isMaintained(filter) && accuracy == QuantileSketch.DEFAULT_ACCURACY ?
+                catchUp(maintainedShares) : shareStatistics(filter, accuracy);
+        for (Map.Entry<String, QuantileSketch> entry: statistics.entrySet()) {
+            shares.put(entry.getKey(), entry.getValue().getQuantile(quantile));
         }
 
         return shares;
     }
 
+    /***
+     * Estimate mean trace duration. In sampling mode sampled traces are weighted by strata,
+     * otherwise whole log is processed and interval has zero width
+     * @param filter log filter to apply
+     * @param confidence confidence level in (0, 1), e.g. 0.95
+     * @return mean duration in seconds with confidence interval
+     */
+    public Estimate estimateMeanTraceDuration(Map<FilterType, Object> filter, double confidence) {
+        return estimateMeanTraceDurationMatching(TraceFilter.compile(filter), confidence);
+    }
+
+    /***
+     * Estimate mean trace duration. In sampling mode sampled traces are weighted by strata,
+     * otherwise whole log is processed and interval has zero width
+     * @param filter compiled filter to apply, null to accept all
+     * @param confidence confidence level in (0, 1), e.g. 0.95
+     * @return mean duration in seconds with confidence interval
+     */
+    public Estimate estimateMeanTraceDurationMatching(TraceFilter filter, double confidence) {
+        TraceSample current = sample;
+        int strata = current == null ? 1 : current.getStrata().size();
+        StratifiedMean mean = foldSample(current, TraceFilter.orAll(filter), () -> new StratifiedMean(strata),
+                (StratifiedMean result, int stratum, XTrace xTrace) ->
+                        result.add(stratum, getTraceSummary(xTrace).getDuration()),
+                StratifiedMean::merge);
+
+        return estimate(current, mean, confidence);
+    }
+
+    /***
+     * Estimate mean share of event duration in trace, same as eventDurationShares with mean.
+     * In sampling mode sampled traces are weighted by strata, otherwise whole log is processed
+     * and intervals have zero width
+     * @param filter log filter to apply
+     * @param confidence confidence level in (0, 1), e.g. 0.95
+     * @return map of event name and mean share with confidence interval
+     */
+    public Map<String, Estimate> estimateEventDurationShares(Map<FilterType, Object> filter, double confidence) {
+        return estimateEventDurationSharesMatching(TraceFilter.compile(filter), confidence);
+    }
+
+    /***
+     * Estimate mean share of event duration in trace, same as eventDurationShares with mean.
+     * In sampling mode sampled traces are weighted by strata, otherwise whole log is processed
+     * and intervals have zero width
+     * @param filter compiled filter to apply, null to accept all
+     * @param confidence confidence level in (0, 1), e.g. 0.95
+     * @return map of event name and mean share with confidence interval
+     */
+    public Map<String, Estimate> estimateEventDurationSharesMatching(TraceFilter filter, double confidence) {
+        TraceSample current = sample;
+        int strata = current == null ? 1 : current.getStrata().size();
+        Map<String, StratifiedMean> means = foldSample(current, TraceFilter.orAll(filter), Maps::newHashMap,
+                (Map<String, StratifiedMean> result, int stratum, XTrace xTrace) -> {
+                    Map<String, Double> shares = eventSharesInTrace(xTrace, getTraceSummary(xTrace).getDuration());
+                    for (Map.Entry<String, Double> entry: shares.entrySet()) {
+                        result.computeIfAbsent(entry.getKey(), key -> new StratifiedMean(strata))
+                                .add(stratum, entry.getValue());
+                    }
+                },
+                (left, right) -> {
+                    right.forEach((name, mean) -> left.merge(name, mean, StratifiedMean::merge));
+                    return left;
+                });
+
+        Map<String, Estimate> estimates = Maps.newHashMap();
+        for (Map.Entry<String, StratifiedMean> entry: means.entrySet()) {
+            estimates.put(entry.getKey(), estimate(current, entry.getValue(), confidence));
+        }
+        return estimates;
+    }
+
+    private Estimate estimate(TraceSample current, StratifiedMean mean, double confidence) {
+        if (current == null) {
+            // whole log is one stratum fully observed
+            return mean.estimate(new long[]{xlog.size()}, new int[]{xlog.size()}, confidence);
+        }
+        return mean.estimate(current.populations(), current.sizes(), confidence);
+    }
+
     /***
      * Calculate event class(unique name) share of trace duration
      * @param xTrace object to process
      * @return map with event name and share
      */
     static public Map<String, Double> eventSharesInTrace(XTrace xTrace) {
+        return eventSharesInTrace(xTrace, getTraceDuration(xTrace));
+    }
+
+    static private Map<String, Double> eventSharesInTrace(XTrace xTrace, long traceDuration) {
         Map<String, Double> shares = eventDurationInTrace(xTrace);
 
         // divide by total trace duration
-        double duration = (double) getTraceDuration(xTrace);
+        double duration = (double) traceDuration;
         shares.replaceAll((key, value) -> value / duration);
 
         return shares;
@@ -530,19 +1202,18 @@ public class XEStools {
      */
     static public Map<String, Double> eventDurationInTrace(XTrace xTrace) {
         Map<String, Double> durations = Maps.newHashMap();
-        Map<XEvent, ZonedDateTime> buffer;
 
         if (xTrace.size() > 0) {
-            buffer = calculateEventsEndTime(xTrace, 0L);
+            EventIntervals intervals = EventIntervals.of(xTrace, 0L);
 
             // calculate total event durations
-            buffer.entrySet().stream()
-                    .filter(entry -> getTimeStamp(entry.getKey()).isBefore(entry.getValue()))
-                    .forEach(entry -> durations.put(
-                            getConceptName(entry.getKey()),
-                            durations.getOrDefault(getConceptName(entry.getKey()), 0D) +
-                                Duration.between(getTimeStamp(entry.getKey()),
-                            entry.getValue()).getSeconds()));
+            for (int i = 0; i < intervals.size(); i++) {
+                long start = intervals.getStart(i);
+                long end = intervals.getEnd(i);
+                if (start != NO_TIMESTAMP && start < end) {
+                    durations.merge(getConceptName(intervals.getEvent(i)), (double) ((end - start) / 1000), Double::sum);
+                }
+            }
         }
         return durations;
     }
@@ -553,267 +1224,716 @@ public class XEStools {
      * @return Zoned Time Date
      */
     static public ZonedDateTime getTimeStamp(XEvent xEvent) {
-        ZonedDateTime stamp = MINTIME;
+        return toZonedDateTime(getTimestampMillis(xEvent));
+    }
 
-        if (xEvent.getAttributes().containsKey(XTimeExtension.KEY_TIMESTAMP)) {
-            stamp = ZonedDateTime.ofInstant(XTimeExtension.instance().extractTimestamp(xEvent).toInstant(), ZoneId.of("UTC"));
-        }
+    /***
+     * Get event timestamp as epoch millis, no objects are created
+     * @param xEvent to process
+     * @return epoch millis or NO_TIMESTAMP if not present
+     */
+    static public long getTimestampMillis(XEvent xEvent) {
+        XAttribute attribute = xEvent.getAttributes().get(XTimeExtension.KEY_TIMESTAMP);
+        return attribute instanceof XAttributeTimestamp ? ((XAttributeTimestamp) attribute).getValueMillis() : NO_TIMESTAMP;
+    }
 
-        return stamp;
+    /***
+     * Convert epoch millis to UTC zoned date time
+     * @param millis epoch millis
+     * @return Zoned Time Date or MINTIME for NO_TIMESTAMP
+     */
+    static public ZonedDateTime toZonedDateTime(long millis) {
+        return millis == NO_TIMESTAMP ? MINTIME : ZonedDateTime.ofInstant(Instant.ofEpochMilli(millis), UTC);
     }
 
     /***
-     * Calculate workload table (resource name, time, workload in seconds)
+     * Calculate hourly workload table (resource name, time, workload in seconds)
      * @param filter filter to apply to log
      * @return list of workloads
      */
     public List<Workload> calculateResourceWorkload(Map <FilterType, Object> filter) {
-        Table<String, ZonedDateTime, Workload> workloads = HashBasedTable.create();
+        return calculateResourceWorkloadMatching(TraceFilter.compile(filter));
+    }
 
-        // TODO extend hourly granularity to other levels
-        for (XTrace xTrace: xlog) {
-            if (filterMatch(filter, xTrace)) {
-                // calculate event durations in trace
-                Map<XEvent, ZonedDateTime> events = calculateEventsEndTime(xTrace, EVENT_DEFAULT_DURATION);
+    /***
+     * Calculate hourly workload table (resource name, time, workload in seconds)
+     * @param filter compiled filter to apply to log, null to accept all
+     * @return list of workloads
+     */
+    public List<Workload> calculateResourceWorkloadMatching(TraceFilter filter) {
+        return calculateResourceWorkloadMatching(filter, Granularity.HOUR);
+    }
 
-                for(Map.Entry<XEvent, ZonedDateTime> entry: events.entrySet()) {
+    /***
+     * Calculate workload table (resource name, time, workload in seconds)
+     * @param filter filter to apply to log
+     * @param granularity bucket size
+     * @return list of non-zero workloads, resource by resource in time order
+     */
+    public List<Workload> calculateResourceWorkload(Map <FilterType, Object> filter, Granularity granularity) {
+        return calculateResourceWorkloadMatching(TraceFilter.compile(filter), granularity);
+    }
 
-                    String resource = (String)getAttribute(entry.getKey(), XOrganizationalExtension.KEY_RESOURCE);
-                    if (resource == null ) resource = "NA";
+    /***
+     * Calculate workload table (resource name, time, workload in seconds)
+     * @param filter compiled filter to apply to log, null to accept all
+     * @param granularity bucket size
+     * @return list of non-zero workloads, resource by resource in time order
+     */
+    public List<Workload> calculateResourceWorkloadMatching(TraceFilter filter, Granularity granularity) {
+        TraceFilter compiled = TraceFilter.orAll(filter);
+        return Lists.newArrayList(Lists.transform(resultCache.get(
+                ResultCache.key("calculateResourceWorkload", compiled, xlog.size(), modifications.get(), granularity),
+                () -> getWorkloadMatrix(compiled, granularity).toList()),
+                Workload::new));
+    }
+
+    /***
+     * Calculate dense workload matrix
+     * @param filter compiled filter to apply to log, null to accept all
+     * @param granularity bucket size
+     * @return workload matrix
+     */
+    public WorkloadMatrix getWorkloadMatrix(TraceFilter filter, @NonNull Granularity granularity) {
+        if (isMaintained(filter)) {
+            Maintained<WorkloadMatrix> maintained = maintainedWorkloads.computeIfAbsent(granularity,
+                    key -> new Maintained<>(() -> new WorkloadMatrix(key), XEStools::addWorkload, WorkloadMatrix::merge));
+            return new WorkloadMatrix(granularity).merge(catchUp(maintained));
+        }
 
-                    String role = (String)getAttribute(entry.getKey(), XOrganizationalExtension.KEY_ROLE);
-                    if (role == null ) role = "NA";
+        if (columnar) {
+            return aggregate(getSnapshot(), TraceFilter.orAll(filter), () -> new WorkloadMatrix(granularity),
+                    (WorkloadMatrix workloads, ColumnarLogSnapshot current, int trace) ->
+                            current.addWorkload(workloads, trace, EVENT_DEFAULT_DURATION),
+                    WorkloadMatrix::merge);
+        }
 
-                    String group = (String)getAttribute(entry.getKey(), XOrganizationalExtension.KEY_GROUP);
-                    if (group == null ) group = "NA";
+        return aggregate(TraceFilter.orAll(filter), () -> new WorkloadMatrix(granularity),
+                XEStools::addWorkload, WorkloadMatrix::merge);
+    }
 
-                    ZonedDateTime stamp = getTimeStamp(entry.getKey());
-                    Duration duration = Duration.between(stamp, entry.getValue());
+    /***
+     * Add workload of trace events to workload matrix
+     * @param workloads matrix to update
+     * @param xTrace trace to process
+     */
+    static private void addWorkload(WorkloadMatrix workloads, XTrace xTrace) {
+        EventIntervals events = EventIntervals.of(xTrace, EVENT_DEFAULT_DURATION);
 
-                    // first hour
-                    ZonedDateTime hour = getTimeStamp(entry.getKey()).withMinute(0).withSecond(0);
-                    Workload workload;
-                    if (workloads.contains(resource, hour))
-                        workload = workloads.get(resource, hour);
-                    else
-                        workload = new Workload(resource, role, group, hour, 0L);
+        for(int i = 0; i < events.size(); i++) {
+            long start = events.getStart(i);
+            if (start == NO_TIMESTAMP) continue;
 
-                    int firstHour = 3600 - stamp.getMinute()*60 - stamp.getSecond();
-                    workload.setWorkload(workload.getWorkload() + Math.min(duration.getSeconds(), firstHour ));
-                    workloads.put(resource, hour, workload);
+            EventAttributes attributes = EventAttributes.of(events.getEvent(i));
+            long second = Math.floorDiv(start, 1000L);
+            workloads.add(attributes.getResource(), attributes.getRole(), attributes.getGroup(),
+                    second, second + Math.floorDiv(events.getEnd(i) - start, 1000L));
+        }
+    }
 
-                    duration = duration.minusSeconds(firstHour);
+    /***
+     * Build directly-follows graph of activities in one pass over traces matching filter
+     * @param filter Map of filters as attribute name = allowed value
+     * @return graph with pair counts and transition time statistics
+     */
+    public DirectlyFollowsGraph getDirectlyFollowsGraph(Map<FilterType, Object> filter) {
+        return getDirectlyFollowsGraphMatching(TraceFilter.compile(filter), QuantileSketch.DEFAULT_ACCURACY);
+    }
 
-                    while (duration.getSeconds() > 0) {
-                        hour = hour.plusHours(1);
-                        if (workloads.contains(resource, hour))
-                            workload = workloads.get(resource, hour);
-                        else
-                            workload = new Workload(resource, role, group, hour, 0L);
+    /***
+     * Build directly-follows graph of activities in one pass over traces matching filter
+     * @param filter compiled filter to apply, null to accept all
+     * @param accuracy transition time sketch size, see QuantileSketch. 0 to keep mean only
+     * @return graph with pair counts and transition time statistics
+     */
+    public DirectlyFollowsGraph getDirectlyFollowsGraphMatching(TraceFilter filter, int accuracy) {
+        if (columnar) {
+            return aggregate(getSnapshot(), TraceFilter.orAll(filter), () -> new DirectlyFollowsGraph(accuracy),
+                    (DirectlyFollowsGraph graph, ColumnarLogSnapshot current, int trace) ->
+                            current.addDirectlyFollows(graph, trace),
+                    DirectlyFollowsGraph::merge);
+        }
 
-                        workload.setWorkload(workload.getWorkload() + Math.min(3600, duration.getSeconds() ));
-                        workloads.put(resource, hour, workload);
+        return aggregate(TraceFilter.orAll(filter), () -> new DirectlyFollowsGraph(accuracy),
+                XEStools::addDirectlyFollows, DirectlyFollowsGraph::merge);
+    }
 
-                        duration = duration.minusSeconds(3600);
-                    }
+    static private void addDirectlyFollows(DirectlyFollowsGraph graph, XTrace xTrace) {
+        EventIntervals intervals = EventIntervals.of(xTrace, 0L);
+        graph.addTrace(intervals, i -> getConceptName(intervals.getEvent(i)));
+    }
+
+    /***
+     * Build index of process variants (event name sequences) of traces matching filter
+     * @param filter Map of filters as attribute name = allowed value
+     * @return variant index
+     */
+    public VariantIndex getVariantIndex(Map<FilterType, Object> filter) {
+        return getVariantIndexMatching(TraceFilter.compile(filter), new XEventNameClassifier());
+    }
+
+    /***
+     * Build index of process variants of traces matching filter. Event classes are derived from whole log once
+     * per classifier and kept until log changes, then traces are encoded and indexed in parallel mode by ranges
+     * @param filter compiled filter to apply, null to accept all
+     * @param classifier event classifier defining variant alphabet
+     * @return variant index
+     */
+    public VariantIndex getVariantIndexMatching(TraceFilter filter, @NonNull XEventClassifier classifier) {
+        XEventClasses classes = getEventClasses(classifier);
+        TraceFilter compiled = TraceFilter.orAll(filter);
+        int[] positions = candidates(compiled);
+
+        return foldRanges(0, positions == null ? xlog.size() : positions.length, (from, to) -> {
+            VariantIndex variants = new VariantIndex(classes);
+            for (int i = from; i < to; i++) {
+                int position = positions == null ? i : positions[i];
+                XTrace xTrace = xlog.get(position);
+                if (compiled.test(xTrace, summaryProvider)) {
+                    variants.addTrace(position, xTrace);
                 }
             }
-        }
-
-        return Lists.newArrayList(workloads.values());
+            return variants;
+        }, VariantIndex::merge);
     }
 
+    /***
+     * Returns the list of flat events of traces matching filter
+     * @param filter Map of filters as attribute name = allowed value
+     * @return list of events
+     */
     public List<FlatXEvent> getEventList(Map<FilterType, Object> filter) {
-        List<FlatXEvent> events = Lists.newArrayList();
-
-        xlog.stream().filter(xTrace -> filterMatch(filter, xTrace)).forEach(xTrace -> {
-            Map<XEvent, ZonedDateTime> eventList = calculateEventsEndTime(xTrace, EVENT_DEFAULT_DURATION);
-            for (Map.Entry<XEvent, ZonedDateTime> entry : eventList.entrySet()) {
-                FlatXEvent event = new FlatXEvent();
-                event.setResource((String) getAttribute(entry.getKey(), XOrganizationalExtension.KEY_RESOURCE, "NA"));
-                event.setRole((String) getAttribute(entry.getKey(), XOrganizationalExtension.KEY_ROLE, "NA"));
-                event.setGroup((String) getAttribute(entry.getKey(), XOrganizationalExtension.KEY_GROUP, "NA"));
-                event.setName(getConceptName(entry.getKey()));
-                event.setTrace(getConceptName(xTrace));
-                event.setStart(getTimeStamp(entry.getKey()));
-                event.setEnd(entry.getValue());
-
-                events.add(event);
-            }
-        });
+        return getEventListMatching(TraceFilter.compile(filter));
+    }
 
-        return events;
+    /***
+     * Returns the list of flat events of traces matching filter
+     * @param filter compiled filter to apply to log, null to accept all
+     * @return list of events
+     */
+    public List<FlatXEvent> getEventListMatching(TraceFilter filter) {
+        if (columnar) {
+            return aggregate(getSnapshot(), TraceFilter.orAll(filter), Lists::newArrayList,
+                    (List<FlatXEvent> events, ColumnarLogSnapshot current, int trace) ->
+                            current.flattenEvents(trace, EVENT_DEFAULT_DURATION, events::add),
+                    XEStools::concat);
+        }
+
+        return aggregate(TraceFilter.orAll(filter), Lists::newArrayList,
+                (List<FlatXEvent> events, XTrace xTrace) -> flattenEvents(xTrace, events::add),
+                XEStools::concat);
     }
 
-    /* Private functions */
+    /***
+     * Push flat events of traces matching filter to sink one by one, trace by trace in log order.
+     * Nothing is collected, so memory use does not depend on log size. Always sequential
+     * @param filter Map of filters as attribute name = allowed value
+     * @param sink receiver of flat events
+     */
+    public void forEachEvent(Map<FilterType, Object> filter, @NonNull Consumer<? super FlatXEvent> sink) {
+        forEachEventMatching(TraceFilter.compile(filter), sink);
+    }
 
     /***
-     * Apply filter to the trace. ALL condition should match. empty filter always tru
-     * @param filter list of conditions
-     * @param xTrace trace to check
-     * @return true if trace match conditions
+     * Push flat events of traces matching filter to sink one by one, trace by trace in log order.
+     * Nothing is collected, so memory use does not depend on log size. Always sequential
+     * @param filter compiled filter to apply to log, null to accept all
+     * @param sink receiver of flat events
      */
-    @SuppressWarnings("unchecked")
-    static private boolean filterMatch(Map<FilterType, Object> filter, XTrace xTrace) {
-        boolean verdict = true;
-        if (filter != null && filter.size() > 0) {
+    public void forEachEventMatching(TraceFilter filter, @NonNull Consumer<? super FlatXEvent> sink) {
+        if (columnar) {
+            aggregateRange(getSnapshot(), TraceFilter.orAll(filter), () -> sink,
+                    (Consumer<? super FlatXEvent> target, ColumnarLogSnapshot source, int trace) ->
+                            source.flattenEvents(trace, EVENT_DEFAULT_DURATION, target));
+            return;
+        }
 
-            for (Map.Entry<FilterType, Object> rule : filter.entrySet()) {
-                if (rule.getValue() == null) continue;
+        aggregateRange(xlog, TraceFilter.orAll(filter), () -> sink,
+                (Consumer<? super FlatXEvent> target, XTrace xTrace) -> flattenEvents(xTrace, target));
+    }
 
-                if (rule.getKey().equals(FilterType.TRACE_START_RANGE)) {
-                    if (! ((Range)rule.getValue()).contains(traceStartTime(xTrace)) ) {
-                        verdict = false;
-                        break;
-                    }
-                }
-                if (rule.getKey().equals(FilterType.TRACE_END_RANGE)) {
-                    if (! ((Range)rule.getValue()).contains(traceEndTime(xTrace)) ) {
-                        verdict = false;
-                        break;
-                    }
-                }
-                else if (rule.getKey().equals(FilterType.EVENT_COUNT_RANGE)) {
-                    if (! ((Range)rule.getValue()).contains(xTrace.size()) ) {
-                        verdict = false;
-                        break;
-                    }
-                }
-                else if (rule.getKey().equals(FilterType.RESOURCE_LIST)) {
-                    if (! ((List<String>)rule.getValue()).contains(getTraceResource(xTrace, XOrganizationalExtension.KEY_RESOURCE, null)) ) {
-                        verdict = false;
-                        break;
-                    }
-                }
-                else if (rule.getKey().equals(FilterType.ROLE_LIST)) {
-                    if (! ((List<String>)rule.getValue()).contains(getTraceResource(xTrace, XOrganizationalExtension.KEY_ROLE, null)) ) {
-                        verdict = false;
-                        break;
-                    }
-                }
-                else if (rule.getKey().equals(FilterType.GROUP_LIST)) {
-                    if (! ((List<String>)rule.getValue()).contains(getTraceResource(xTrace, XOrganizationalExtension.KEY_GROUP, null)) ) {
-                        verdict = false;
-                        break;
-                    }
-                }
-                else if (rule.getKey().equals(FilterType.LIFECYCLE_TRANSITION_LIST)) {
-                    if (! ((List<String>)rule.getValue()).contains(getTraceResource(xTrace, XLifecycleExtension.KEY_TRANSITION, null)) ) {
-                        verdict = false;
-                        break;
-                    }
-                }
-                else if (rule.getKey().equals(FilterType.TRACE_NAME_LIST)) {
-                    if (! ((List<String>)rule.getValue()).contains(getConceptName(xTrace)) ) {
-                        verdict = false;
-                        break;
-                    }
+    /* Private functions */
+
+    /***
+     * Cut trace into segments of all definitions. Event names and timestamps are read once
+     * @param result segment definition to segment list, updated
+     * @param xTrace trace to process
+     * @param filter filter to apply to segments
+     */
+    static private void addSegments(Map<SegmentDefinition, List<FlatXTrace>> result, XTrace xTrace, TraceFilter filter) {
+        int count = xTrace.size();
+        long[] stamps = new long[count];
+        String[] names = new String[count];
+        boolean ordered = true;
+        int position = 0;
+        for (XEvent xEvent: xTrace) {
+            stamps[position] = getTimestampMillis(xEvent);
+            names[position] = EventAttributes.getLiteral(xEvent, XConceptExtension.KEY_NAME);
+            if (position > 0 && stamps[position] < stamps[position - 1]) ordered = false;
+            position++;
+        }
+        int[] order = null;
+
+        for (Map.Entry<SegmentDefinition, List<FlatXTrace>> entry: result.entrySet()) {
+            SegmentDefinition definition = entry.getKey();
+
+            if (!definition.isRepeated()) {
+                long startTime = Long.MAX_VALUE;
+                long endTime = NO_TIMESTAMP;
+                for (int i = 0; i < count; i++) {
+                    if (stamps[i] == NO_TIMESTAMP) continue;
+                    if (definition.matchesStart(names[i])) startTime = Math.min(startTime, stamps[i]);
+                    if (definition.matchesEnd(names[i])) endTime = Math.max(endTime, stamps[i]);
                 }
-                else if (rule.getKey().equals(FilterType.EVENT_NAME_LIST)) {
-                    verdict = false;
-                    for(XEvent event: xTrace) {
-                        if (((List<String>) rule.getValue()).contains(getConceptName(event))) {
-                            verdict = true;
-                            break;
-                        }
-                    }
+                if (startTime != Long.MAX_VALUE && endTime != NO_TIMESTAMP && startTime <= endTime) {
+                    addSegment(entry.getValue(), SubTraceView.of(xTrace, stamps, startTime, endTime, ordered), filter);
                 }
-                else if (rule.getKey().equals(FilterType.TRACE_START_WEEKDAY_LIST)) {
-                    if (! ((List<DayOfWeek>)rule.getValue()).contains(traceStartTime(xTrace).getDayOfWeek()) ) {
-                        verdict = false;
-                        break;
-                    }
+                continue;
+            }
+
+            if (!ordered && order == null) order = EventIntervals.timeOrder(stamps);
+            boolean open = false;
+            long startTime = NO_TIMESTAMP;
+            for (int i = 0; i < count; i++) {
+                int index = ordered ? i : order[i];
+                if (stamps[index] == NO_TIMESTAMP) continue;
+
+                if (open && definition.matchesEnd(names[index])) {
+                    addSegment(entry.getValue(), SubTraceView.of(xTrace, stamps, startTime, stamps[index], ordered), filter);
+                    open = false;
                 }
-                else if (rule.getKey().equals(FilterType.TRACE_END_WEEKDAY_LIST)) {
-                    if (! ((List<DayOfWeek>)rule.getValue()).contains(traceEndTime(xTrace).getDayOfWeek()) ) {
-                        verdict = false;
-                        break;
-                    }
+                else if (!open && definition.matchesStart(names[index])) {
+                    open = true;
+                    startTime = stamps[index];
                 }
             }
+        }
+    }
 
+    static private void addSegment(List<FlatXTrace> segments, SubTraceView segment, TraceFilter filter) {
+        if (segment.size() == 0) return;
+
+        // segment is a new view object, so its summary is not cached
+        TraceSummary summary = TraceSummary.of(segment);
+        if (filter.test(segment, trace -> summary)) {
+            segments.add(new FlatXTrace(segment, summary));
         }
-        return verdict;
     }
 
+    /***
+     * Collect statistics of event duration shares per event class
+     * @param filter filter to apply
+     * @param accuracy sketch size, 0 if quantiles are not needed
+     * @return map of event name and share statistics
+     */
+    private Map<String, QuantileSketch> shareStatistics(TraceFilter filter, int accuracy) {
+        if (columnar) {
+            return aggregate(getSnapshot(), TraceFilter.orAll(filter), Maps::newHashMap,
+                    (Map<String, QuantileSketch> statistics, ColumnarLogSnapshot current, int trace) ->
+                            addShares(statistics, current.eventDurations(trace),
+                                    current.getSummary(trace).getDuration(), accuracy),
+                    XEStools::mergeShares);
+        }
+
+        return aggregate(TraceFilter.orAll(filter), Maps::newHashMap,
+                (Map<String, QuantileSketch> statistics, XTrace xTrace) -> addShares(statistics, xTrace, accuracy),
+                XEStools::mergeShares);
+    }
+
+    private void addShares(Map<String, QuantileSketch> statistics, XTrace xTrace, int accuracy) {
+        Map<String, Double> traceShares = eventSharesInTrace(xTrace, getTraceSummary(xTrace).getDuration());
+        for (Map.Entry<String, Double> entry : traceShares.entrySet()) {
+            statistics.computeIfAbsent(entry.getKey(), key -> new QuantileSketch(accuracy))
+                    .add(entry.getValue());
+        }
+    }
+
+    static private void addShares(Map<String, QuantileSketch> statistics, Map<String, Double> eventDurations,
+                                  long traceDuration, int accuracy) {
+        double duration = (double) traceDuration;
+        for (Map.Entry<String, Double> entry : eventDurations.entrySet()) {
+            statistics.computeIfAbsent(entry.getKey(), key -> new QuantileSketch(accuracy))
+                    .add(entry.getValue() / duration);
+        }
+    }
+
+    static private Map<String, QuantileSketch> mergeShares(Map<String, QuantileSketch> left, Map<String, QuantileSketch> right) {
+        for (Map.Entry<String, QuantileSketch> entry : right.entrySet()) {
+            left.merge(entry.getKey(), entry.getValue(), QuantileSketch::merge);
+        }
+        return left;
+    }
 
     /***
-     * Determine end time for events in trace based on lifecycle or event sequence. Last event in trace
-     * (without lifecycle) will have fixed duration
-     * @param xTrace trace with events
-     * @param defaultDuration default last event duration in seconds
-     * @return map of event and event end time
+     * Check if analytics can use incrementally maintained aggregates
+     * @param filter requested filter
+     * @return true in incremental mode for unfiltered requests without sample
      */
-    static private Map<XEvent, ZonedDateTime> calculateEventsEndTime(XTrace xTrace, Long defaultDuration) {
-        Map<XEvent, ZonedDateTime> buffer = Maps.newHashMap();
+    private boolean isMaintained(TraceFilter filter) {
+        return incremental && sample == null && TraceFilter.orAll(filter) == TraceFilter.ALL;
+    }
+
+    /***
+     * Fold traces appended since last call into maintained aggregate
+     * @param maintained aggregate to update
+     * @return current aggregate, callers should copy it before returning to user
+     */
+    private synchronized <R> R catchUp(Maintained<R> maintained) {
+        int size = xlog.size();
+        if (maintained.value == null || maintained.size > size) {
+            maintained.value = maintained.supplier.get();
+            maintained.size = 0;
+        }
 
-        // let sort events first
-        Collections.sort(xTrace,
-                (e1, e2) -> XTimeExtension.instance().extractTimestamp(e1)
-                        .compareTo(XTimeExtension.instance().extractTimestamp(e2)));
+        if (maintained.size < size) {
+            R delta = aggregate(xlog, maintained.size, size, TraceFilter.ALL,
+                    maintained.supplier, maintained.accumulator, maintained.combiner);
+            maintained.value = maintained.combiner.apply(maintained.value, delta);
+            maintained.size = size;
+        }
 
-        XEvent lastEvent = null;
+        return maintained.value;
+    }
 
-        for (XEvent xEvent: xTrace) {
-            if (
-                    lastEvent != null &&
-                    (
-                            !lastEvent.getAttributes().containsKey(XLifecycleExtension.KEY_TRANSITION) ||
-                            XLifecycleExtension.instance().extractStandardTransition(lastEvent) == XLifecycleExtension.StandardModel.COMPLETE
-                    )
-            ) {
-                buffer.put(lastEvent, getTimeStamp(xEvent));
+    /**
+     * Aggregate over log prefix, extended when traces are appended
+     */
+    static private class Maintained<R> {
+        private final Supplier<R> supplier;
+        private final BiConsumer<R, XTrace> accumulator;
+        private final BinaryOperator<R> combiner;
+        private R value;
+        // number of log traces folded into value
+        private int size;
+
+        private Maintained(Supplier<R> supplier, BiConsumer<R, XTrace> accumulator, BinaryOperator<R> combiner) {
+            this.supplier = supplier;
+            this.accumulator = accumulator;
+            this.combiner = combiner;
+        }
+
+        private void reset() {
+            value = null;
+            size = 0;
+        }
+    }
+
+    static private void flattenEvents(XTrace xTrace, Consumer<? super FlatXEvent> sink) {
+        String traceName = getConceptName(xTrace);
+        EventIntervals intervals = EventIntervals.of(xTrace, EVENT_DEFAULT_DURATION);
+        for (int i = 0; i < intervals.size(); i++) {
+            EventAttributes attributes = EventAttributes.of(intervals.getEvent(i));
+            FlatXEvent event = new FlatXEvent();
+            event.setResource(attributes.getResource());
+            event.setRole(attributes.getRole());
+            event.setGroup(attributes.getGroup());
+            event.setName(attributes.getName());
+            event.setTrace(traceName);
+            event.setStart(toZonedDateTime(intervals.getStart(i)));
+            event.setEnd(toZonedDateTime(intervals.getEnd(i)));
+
+            sink.accept(event);
+        }
+    }
+
+    /***
+     * Fold matching traces into result. In parallel mode log is split into trace ranges, each range is
+     * folded into own partial result and partials are combined in log order
+     * @param filter filter to apply to traces
+     * @param supplier creates empty (partial) result
+     * @param accumulator adds trace to result
+     * @param combiner merges right partial result into left one, should keep log order
+     * @return combined result
+     */
+    private <R> R aggregate(TraceFilter filter, Supplier<R> supplier, BiConsumer<R, XTrace> accumulator,
+                            BinaryOperator<R> combiner) {
+        int[] positions = candidates(filter);
+        if (positions == null) {
+            return aggregate(xlog, 0, xlog.size(), filter, supplier, accumulator, combiner);
+        }
+
+        return foldRanges(0, positions.length,
+                (from, to) -> aggregateRange(xlog, positions, from, to, filter, supplier, accumulator), combiner);
+    }
+
+    /***
+     * Fold matching traces of log range [start, end) into result
+     */
+    private <R> R aggregate(XLog log, int start, int end, TraceFilter filter, Supplier<R> supplier,
+                            BiConsumer<R, XTrace> accumulator, BinaryOperator<R> combiner) {
+        return foldRanges(start, end,
+                (from, to) -> aggregateRange(log, null, from, to, filter, supplier, accumulator), combiner);
+    }
+
+    /***
+     * Fold matching traces of log snapshot into result, same as aggregate on XLog
+     */
+    private <R> R aggregate(ColumnarLogSnapshot snapshot, TraceFilter filter, Supplier<R> supplier,
+                            SnapshotAccumulator<R> accumulator, BinaryOperator<R> combiner) {
+        int[] positions = candidates(filter);
+        return foldRanges(0, positions == null ? snapshot.getTraceCount() : positions.length,
+                (from, to) -> aggregateRange(snapshot, positions, from, to, filter, supplier, accumulator), combiner);
+    }
+
+    /***
+     * Split [start, end) into chunks in parallel mode, fold them and combine partials in order
+     */
+    private <R> R foldRanges(int start, int end, BiFunction<Integer, Integer, R> folder, BinaryOperator<R> combiner) {
+        int size = end - start;
+        int chunks = executor == null ? 1 : Math.max(1, Math.min(size, getParallelism() * CHUNKS_PER_THREAD));
+
+        if (chunks == 1) {
+            return folder.apply(start, end);
+        }
+
+        List<CompletableFuture<R>> partials = Lists.newArrayListWithCapacity(chunks);
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            int from = start + (int) ((long) size * chunk / chunks);
+            int to = start + (int) ((long) size * (chunk + 1) / chunks);
+            partials.add(CompletableFuture.supplyAsync(() -> folder.apply(from, to), executor));
+        }
+
+        try {
+            R result = partials.get(0).join();
+            for (int chunk = 1; chunk < chunks; chunk++) {
+                result = combiner.apply(result, partials.get(chunk).join());
             }
+            return result;
+        }
+        catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
+    /***
+     * Fold matching traces of whole log on calling thread, in log order
+     */
+    private <R> R aggregateRange(XLog log, TraceFilter filter, Supplier<R> supplier, BiConsumer<R, XTrace> accumulator) {
+        int[] positions = candidates(filter);
+        return aggregateRange(log, positions, 0, positions == null ? log.size() : positions.length,
+                filter, supplier, accumulator);
+    }
 
-            lastEvent = xEvent;
+    /***
+     * Fold matching traces of log range into result
+     * @param positions trace positions to visit, null to visit [from, to) of log
+     * @param from first index in positions or log
+     * @param to end index (exclusive) in positions or log
+     */
+    private <R> R aggregateRange(XLog log, int[] positions, int from, int to, TraceFilter filter, Supplier<R> supplier,
+                                 BiConsumer<R, XTrace> accumulator) {
+        R result = supplier.get();
+        for (int i = from; i < to; i++) {
+            XTrace xTrace = log.get(positions == null ? i : positions[i]);
+            if (filter.test(xTrace, summaryProvider)) {
+                accumulator.accept(result, xTrace);
+            }
+        }
+
+        return result;
+    }
 
-            if (xEvent.getAttributes().containsKey(XLifecycleExtension.KEY_TRANSITION)) {
-                if (XLifecycleExtension.instance().extractStandardTransition(xEvent) == XLifecycleExtension.StandardModel.START)
-                {
-                    buffer.put(xEvent, MINTIME);
+    private <R> R aggregateRange(ColumnarLogSnapshot snapshot, TraceFilter filter, Supplier<R> supplier,
+                                 SnapshotAccumulator<R> accumulator) {
+        int[] positions = candidates(filter);
+        return aggregateRange(snapshot, positions, 0, positions == null ? snapshot.getTraceCount() : positions.length,
+                filter, supplier, accumulator);
+    }
+
+    static private <R> R aggregateRange(ColumnarLogSnapshot snapshot, int[] positions, int from, int to,
+                                        TraceFilter filter, Supplier<R> supplier, SnapshotAccumulator<R> accumulator) {
+        R result = supplier.get();
+        for (int i = from; i < to; i++) {
+            int trace = positions == null ? i : positions[i];
+            if (filter.test(snapshot, trace)) {
+                accumulator.accept(result, snapshot, trace);
+            }
+        }
+
+        return result;
+    }
+
+    /***
+     * Fold sampled traces matching filter into result, whole log as one stratum if there is no sample
+     */
+    private <R> R foldSample(TraceSample current, TraceFilter filter, Supplier<R> supplier,
+                             SampleAccumulator<R> accumulator, BinaryOperator<R> combiner) {
+        int size = current == null ? xlog.size() : current.size();
+        return foldRanges(0, size, (from, to) -> {
+            R result = supplier.get();
+            for (int i = from; i < to; i++) {
+                XTrace xTrace = xlog.get(current == null ? i : current.positions()[i]);
+                if (filter.test(xTrace, summaryProvider)) {
+                    accumulator.accept(result, current == null ? 0 : current.stratumAt(i), xTrace);
                 }
-                else if (
-                        XLifecycleExtension.instance().extractStandardTransition(xEvent) == XLifecycleExtension.StandardModel.COMPLETE
-                        ) {
-                    // we only support START and COMPLETE transitions
-                    // go back and update open event. We assume no nested events available, nor same event can run in parallel
-                    // TODO improve code to accepts mentioned cases
-                    String name = getConceptName(xEvent);
-                    boolean success = false;
-                    for (XEvent key: buffer.keySet()) {
-                        if (
-                                getConceptName(key).equals(name) &&
-                                XLifecycleExtension.instance().extractStandardTransition(key) == XLifecycleExtension.StandardModel.START &&
-                                buffer.get(key).equals(MINTIME)
-                            ) {
-                            buffer.put(key, getTimeStamp(xEvent));
-                            success = true;
-                            break;
-                        }
-                    }
+            }
+            return result;
+        }, combiner);
+    }
+
+    /**
+     * Adds sampled trace of stratum to result
+     */
+    @FunctionalInterface
+    private interface SampleAccumulator<R> {
+        void accept(R result, int stratum, XTrace xTrace);
+    }
+
+    /**
+     * Adds trace of log snapshot to result
+     */
+    @FunctionalInterface
+    private interface SnapshotAccumulator<R> {
+        void accept(R result, ColumnarLogSnapshot snapshot, int trace);
+    }
+
+    /***
+     * Positions of traces which can match time ranges and attribute lists of filter,
+     * see TraceTimeIndex and TraceAttributeIndex
+     * @param filter compiled filter
+     * @return ascending trace positions, null to visit all traces
+     */
+    private int[] candidates(TraceFilter filter) {
+        TraceSample current = sample;
+        if (current != null) {
+            // sample is small, filter checks it directly
+            return current.positions();
+        }
+
+        int[] byTime = TraceTimeIndex.supports(filter) ? getTimeIndex().candidates(filter) : null;
+        if (!TraceAttributeIndex.supports(filter)) return byTime;
+
+        TraceBitmap byAttributes = getAttributeIndex().select(filter);
+        if (byTime == null) return byAttributes.toArray();
+
+        int[] positions = new int[byTime.length];
+        int size = 0;
+        for (int position: byTime) {
+            if (byAttributes.contains(position)) positions[size++] = position;
+        }
+        return Arrays.copyOf(positions, size);
+    }
+
+    /***
+     * Return time index of current log, build it if log size or modification count changed
+     * @return time index
+     */
+    private synchronized TraceTimeIndex getTimeIndex() {
+        int size = xlog.size();
+        int modified = modifications.get();
+        if (timeIndex == null || timeIndex.size() != size || timeIndexModifications != modified) {
+            long[] starts = new long[size];
+            long[] ends = new long[size];
+            ColumnarLogSnapshot current = columnar ? getSnapshot() : null;
+            foldRanges(0, size, (from, to) -> {
+                for (int i = from; i < to; i++) {
+                    TraceSummary summary = current != null ? current.getSummary(i) : getTraceSummary(xlog.get(i));
+                    starts[i] = TraceTimeIndex.startOf(summary);
+                    ends[i] = TraceTimeIndex.endOf(summary);
+                }
+                return null;
+            }, (left, right) -> left);
+            timeIndex = TraceTimeIndex.of(starts, ends);
+            timeIndexModifications = modified;
+        }
+
+        return timeIndex;
+    }
 
-                    if (! success ) {
-                        buffer.put(xEvent, MINTIME);
+    /***
+     * Return attribute index of current log, build it if log size or modification count changed
+     * @return attribute index
+     */
+    private synchronized TraceAttributeIndex getAttributeIndex() {
+        int size = xlog.size();
+        int modified = modifications.get();
+        if (attributeIndex == null || attributeIndex.size() != size || attributeIndexModifications != modified) {
+            ColumnarLogSnapshot current = columnar ? getSnapshot() : null;
+            attributeIndex = foldRanges(0, size, (from, to) -> {
+                TraceAttributeIndex index = new TraceAttributeIndex();
+                for (int i = from; i < to; i++) {
+                    if (current != null) {
+                        current.addToIndex(index, i);
+                        continue;
                     }
-                    else {
-                        lastEvent = null; // skip complete event
+
+                    XTrace xTrace = xlog.get(i);
+                    index.addTrace(i, getTraceSummary(xTrace));
+                    for (XEvent xEvent: xTrace) {
+                        index.addEventName(i, getConceptName(xEvent));
                     }
                 }
+                return index;
+            }, TraceAttributeIndex::merge);
+            attributeIndexModifications = modified;
+        }
 
-            }
-            else {
-                buffer.put(xEvent, MINTIME);
-            }
+        return attributeIndex;
+    }
 
+    /***
+     * Return event classes of current log for classifier, derive them if log size changed
+     * @param classifier event classifier
+     * @return event classes
+     */
+    private synchronized XEventClasses getEventClasses(XEventClassifier classifier) {
+        if (classifiedSize != xlog.size()) {
+            eventClasses.clear();
+            classifiedSize = xlog.size();
         }
 
-        if (defaultDuration > 0 ) {
-            buffer.entrySet().stream()
-                    .filter(entry -> entry.getValue().equals(MINTIME))
-                    .forEach(entry -> buffer.put(entry.getKey(), getTimeStamp(entry.getKey()).plusSeconds(defaultDuration)));
+        return eventClasses.computeIfAbsent(classifier, key -> XEventClasses.deriveEventClasses(key, xlog));
+    }
+
+    private int getParallelism() {
+        if (executor instanceof ForkJoinPool) return ((ForkJoinPool) executor).getParallelism();
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    static private <T> List<T> concat(List<T> left, List<T> right) {
+        left.addAll(right);
+        return left;
+    }
+
+    private synchronized void clearCache() {
+        summaryCache.invalidateAll();
+        traceIndex = null;
+        resetMaintained();
+        snapshot = null;
+        timeIndex = null;
+        attributeIndex = null;
+        eventClasses.clear();
+        sample = null;
+        resultCache.invalidateAll();
+    }
+
+    private synchronized void resetMaintained() {
+        maintainedDurations.reset();
+        maintainedShares.reset();
+        maintainedWorkloads.clear();
+    }
+
+    private boolean isTraceIndexCurrent() {
+        return traceIndex != null && indexedSize == xlog.size();
+    }
+
+    /***
+     * Return name index, rebuild it if log size changed. First trace wins for duplicated names
+     * @return map of trace name and trace position in log
+     */
+    private Map<String, Integer> getTraceIndex() {
+        if (!isTraceIndexCurrent()) {
+            Map<String, Integer> index = Maps.newHashMapWithExpectedSize(xlog.size());
+            for (int i = 0; i < xlog.size(); i++) {
+                String name = getConceptName(xlog.get(i));
+                if (name != null) index.putIfAbsent(name, i);
+            }
+            traceIndex = index;
+            indexedSize = xlog.size();
         }
 
-        return buffer;
+        return traceIndex;
     }
 
     private XFactory createXFactory() {
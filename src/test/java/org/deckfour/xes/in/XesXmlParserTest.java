@@ -0,0 +1,99 @@
+package org.deckfour.xes.in;
+
+import com.google.common.collect.Maps;
+import org.deckfour.xes.extension.std.XConceptExtension;
+import org.deckfour.xes.extension.std.XOrganizationalExtension;
+import org.deckfour.xes.factory.XFactoryNaiveImpl;
+import org.deckfour.xes.model.XAttributeLiteral;
+import org.deckfour.xes.model.XEvent;
+import org.deckfour.xes.model.XLog;
+import org.deckfour.xes.model.XTrace;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks tag dispatch, key and value dictionaries and extension lookup of the XES handler.
+ */
+public class XesXmlParserTest {
+
+    @Test
+    public void mixedCaseTagsTest() throws Exception {
+        for (String tag: Arrays.asList("string", "String", "STRING", "sTrInG")) {
+            assertTrue("Tag " + tag + " should resolve to string", XesXmlParser.resolveTag(tag, tag) == XesXmlParser.TAG_STRING);
+        }
+        assertTrue("Empty local name should fall back to qualified name", XesXmlParser.resolveTag("", "Trace") == XesXmlParser.TAG_TRACE);
+        assertTrue("Unknown tag should resolve to other", XesXmlParser.resolveTag("strings", "strings") == XesXmlParser.TAG_OTHER);
+
+        String lower = "<log xes.version=\"1.0\"><trace><string key=\"concept:name\" value=\"1\"/>"
+                + "<event><string key=\"concept:name\" value=\"a\"/><int key=\"count\" value=\"3\"/>"
+                + "<date key=\"time:timestamp\" value=\"2015-01-01T10:00:00Z\"/></event></trace></log>";
+        String mixed = "<Log xes.version=\"1.0\"><TRACE><String key=\"concept:name\" value=\"1\"/>"
+                + "<Event><STRING key=\"concept:name\" value=\"a\"/><Int key=\"count\" value=\"3\"/>"
+                + "<Date key=\"time:timestamp\" value=\"2015-01-01T10:00:00Z\"/></Event></TRACE></Log>";
+        XLog expected = parse(lower);
+        XLog log = parse(mixed);
+        assertTrue("Mixed case log should have one trace", log.size() == 1 && log.get(0).size() == 1);
+        assertTrue("Mixed case trace should match", Maps.newHashMap(log.get(0).getAttributes()).equals(Maps.newHashMap(expected.get(0).getAttributes())));
+        assertTrue("Mixed case event should match",
+                Maps.newHashMap(log.get(0).get(0).getAttributes()).equals(Maps.newHashMap(expected.get(0).get(0).getAttributes())));
+    }
+
+    @Test
+    public void valueDictionaryTest() throws Exception {
+        // resource has few values, id has more than the dictionary holds
+        int events = XesXmlParser.VALUE_DICTIONARY_LIMIT + 100;
+        StringBuilder xml = new StringBuilder("<log xes.version=\"1.0\"><trace>");
+        for (int i = 0; i < events; i++) {
+            xml.append("<event><string key=\"org:resource\" value=\"R").append(i % 3)
+                    .append("\"/><string key=\"id\" value=\"E").append(i).append("\"/></event>");
+        }
+        XTrace trace = parse(xml.append("</trace></log>").toString()).get(0);
+        assertTrue("All events should be parsed", trace.size() == events);
+
+        for (int i = 0; i < events; i++) {
+            XEvent event = trace.get(i);
+            XAttributeLiteral resource = (XAttributeLiteral) event.getAttributes().get("org:resource");
+            XAttributeLiteral id = (XAttributeLiteral) event.getAttributes().get("id");
+            assertTrue("Resource value should be kept", resource.getValue().equals("R" + i % 3));
+            assertTrue("Id value should be kept over dictionary limit", id.getValue().equals("E" + i));
+            if (i >= 3) {
+                XAttributeLiteral first = (XAttributeLiteral) trace.get(i % 3).getAttributes().get("org:resource");
+                assertTrue("Low cardinality values should be shared", resource.getValue() == first.getValue());
+            }
+            assertTrue("Keys should be shared", resource.getKey() == ((XAttributeLiteral) trace.get(0).getAttributes().get("org:resource")).getKey());
+        }
+
+        XesXmlParser.XesXmlHandler handler = new XesXmlParser().new XesXmlHandler();
+        for (int i = 0; i < XesXmlParser.VALUE_DICTIONARY_LIMIT; i++) {
+            handler.internValue("id", "E" + i);
+        }
+        String value = new String("E0");
+        assertTrue("Value within limit should be shared", handler.internValue("id", value) != value);
+        handler.internValue("id", "E" + XesXmlParser.VALUE_DICTIONARY_LIMIT);
+        assertTrue("Value over limit should not be shared", handler.internValue("id", value) == value);
+        String key = new String("concept:name");
+        assertTrue("Key should be shared", handler.internKey("concept:name") == handler.internKey(key));
+    }
+
+    @Test
+    public void extensionOfTest() {
+        XesXmlParser.XesXmlHandler handler = new XesXmlParser().new XesXmlHandler();
+        assertTrue("Concept key should have concept extension", handler.extensionOf("concept:name") == XConceptExtension.instance());
+        assertTrue("Organizational key should have organizational extension",
+                handler.extensionOf("org:resource") == XOrganizationalExtension.instance());
+        for (String key: Arrays.asList("name", "unknown:name", ":name", "concept:", "")) {
+            assertTrue("Key " + key + " should have no extension", handler.extensionOf(key) == null);
+            assertTrue("Missing extension should be cached for " + key, handler.keyExtensions.containsKey(key));
+        }
+        assertTrue("Cached lookup should match", handler.extensionOf("concept:name") == XConceptExtension.instance());
+    }
+
+    private static XLog parse(String xml) throws Exception {
+        return new XesXmlParser(new XFactoryNaiveImpl()).parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8))).get(0);
+    }
+}
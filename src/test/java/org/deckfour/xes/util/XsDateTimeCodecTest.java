@@ -0,0 +1,73 @@
+package org.deckfour.xes.util;
+
+import org.junit.Test;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks XsDateTimeCodec against java.time.
+ */
+public class XsDateTimeCodecTest {
+
+    // fraction only if not zero, Z for UTC, offset seconds are dropped
+    private static final DateTimeFormatter WHOLE_SECONDS = DateTimeFormatter.ofPattern("uuuu-MM-dd'T'HH:mm:ssXXX");
+    private static final DateTimeFormatter WITH_MILLIS = DateTimeFormatter.ofPattern("uuuu-MM-dd'T'HH:mm:ss.SSSXXX");
+
+    @Test
+    public void formatTest() {
+        Random random = new Random(42);
+        for (String zoneId: Arrays.asList("UTC", "Europe/Moscow", "America/New_York", "Asia/Kolkata")) {
+            TimeZone zone = TimeZone.getTimeZone(zoneId);
+            for (int i = 0; i < 2000; i++) {
+                // 1900 to 2100, every 4th timestamp in whole seconds
+                long millis = -2208988800000L + (long) (random.nextDouble() * 6311390400000L);
+                if (i % 4 == 0) millis -= Math.floorMod(millis, 1000L);
+                OffsetDateTime time = Instant.ofEpochMilli(millis).atZone(ZoneId.of(zoneId)).toOffsetDateTime();
+                String expected = (Math.floorMod(millis, 1000L) == 0 ? WHOLE_SECONDS : WITH_MILLIS).format(time);
+                String formatted = XsDateTimeCodec.format(millis, zone);
+                assertTrue("Format should match " + expected + ", got " + formatted, expected.equals(formatted));
+                // historical offsets with seconds can not be written
+                if (zone.getOffset(millis) % 60000 == 0)
+                    assertTrue("Parse should invert format for " + formatted, XsDateTimeCodec.parse(formatted) == millis);
+            }
+        }
+    }
+
+    @Test
+    public void parseTest() {
+        // codec input and the same instant in ISO form
+        List<String[]> cases = Arrays.asList(
+                new String[]{"2005-10-24T11:57:31.000+01:00", "2005-10-24T11:57:31.000+01:00"},
+                new String[]{"2005-10-24T11:57:31.1234Z", "2005-10-24T11:57:31.1234Z"},
+                new String[]{"2000-02-29T24:00:00-05:30", "2000-03-01T00:00:00-05:30"},
+                new String[]{" 1969-12-31T23:59:59.999+14:00 ", "1969-12-31T23:59:59.999+14:00"},
+                new String[]{"10000-01-01T00:00:00Z", "+10000-01-01T00:00:00Z"},
+                new String[]{"2005-10-24T11:57:31+0100", "2005-10-24T11:57:31+01:00"},
+                new String[]{"2005-10-24T11:57:31-01", "2005-10-24T11:57:31-01:00"});
+        for (String[] pair: cases) {
+            long expected = OffsetDateTime.parse(pair[1]).toInstant().toEpochMilli();
+            assertTrue("Parse should match for " + pair[0], XsDateTimeCodec.parse(pair[0]) == expected);
+            char[] chars = ("<" + pair[0] + ">").toCharArray();
+            assertTrue("Char array parse should match for " + pair[0], XsDateTimeCodec.parse(chars, 1, pair[0].length()) == expected);
+        }
+
+        long local = LocalDateTime.parse("2015-03-29T12:30:00").atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        assertTrue("Time without zone should be in the default zone", XsDateTimeCodec.parse("2015-03-29T12:30:00") == local);
+
+        for (String text: Arrays.asList("", "2005-13-24T11:57:31Z", "2005-02-29T11:57:31Z", "2005-10-24 11:57:31Z",
+                "2005-10-24T11:57Z", "2005-10-24T24:00:01Z", "2005-10-24T11:57:31.Z", "2005-10-24T11:57:31+1:00", "05-10-24T11:57:31Z")) {
+            assertTrue("Parse should reject " + text, XsDateTimeCodec.parse(text) == XsDateTimeCodec.INVALID);
+            assertTrue("Char array parse should reject " + text, XsDateTimeCodec.parse(text.toCharArray(), 0, text.length()) == XsDateTimeCodec.INVALID);
+        }
+    }
+}
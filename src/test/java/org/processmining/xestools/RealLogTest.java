@@ -2,20 +2,33 @@ package org.processmining.xestools;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import org.deckfour.xes.factory.XFactoryRegistry;
+import org.deckfour.xes.in.XLogStream;
+import org.deckfour.xes.in.XesXmlParallelParser;
 import org.deckfour.xes.in.XesXmlGZIPParser;
+import org.deckfour.xes.model.XAttributable;
+import org.deckfour.xes.model.XLog;
 import org.deckfour.xes.model.XTrace;
 import org.junit.Test;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.GZIPInputStream;
 
 import static junit.framework.TestCase.assertNotNull;
 import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
 
 /**
  * Created by nsitnikov on 17/12/15.
@@ -52,6 +65,10 @@ public class RealLogTest {
         }
         assertTrue("All traces has at least 3 events", !lessThen3);
 
+        Map<String, XTrace> found = parsed.getXTraces(Lists.newArrayList("610705", "no such trace"));
+        assertTrue("Only one trace should be found, got " + found.size(), found.size() == 1);
+        assertTrue("Batch lookup should return same trace", found.get("610705") == xTrace);
+
         //String name = "709340";
         String name = "710400";
         xTrace = parsed.getXTrace(name);
@@ -71,4 +88,132 @@ public class RealLogTest {
         assertTrue("Expected number of events 62, got " + eventList.size(), eventList.size()==62);
 
     }
+
+    @Test
+    public void logStream() throws Exception {
+        URL url = RealLogTest.class.getClassLoader().getResource("out.xes.gz");
+        File file = new File(url.toURI());
+        XLog xLog = new XesXmlGZIPParser().parse(new FileInputStream(file)).get(0);
+
+        int count = 0;
+        try (XLogStream stream = new XesXmlGZIPParser().stream(new FileInputStream(file))) {
+            XLog header = stream.getHeader();
+            assertTrue("Header should have no traces", header.isEmpty());
+            assertTrue("Header should have extensions", header.getExtensions().equals(xLog.getExtensions()));
+            assertTrue("Header should have globals", header.getGlobalEventAttributes().size() == xLog.getGlobalEventAttributes().size()
+                    && header.getGlobalTraceAttributes().size() == xLog.getGlobalTraceAttributes().size());
+            assertTrue("Header should have classifiers", header.getClassifiers().equals(xLog.getClassifiers()));
+            assertTrue("Header should have log attributes", header.getAttributes().keySet().equals(xLog.getAttributes().keySet()));
+
+            while (stream.hasNext()) {
+                XTrace streamed = stream.next();
+                XTrace parsed = xLog.get(count++);
+                assertTrue("Traces should match", Maps.newHashMap(streamed.getAttributes()).equals(Maps.newHashMap(parsed.getAttributes()))
+                        && streamed.size() == parsed.size());
+                for (int i = 0; i < parsed.size(); i++) {
+                    assertTrue("Events should match", Maps.newHashMap(streamed.get(i).getAttributes())
+                            .equals(Maps.newHashMap(parsed.get(i).getAttributes())));
+                }
+            }
+        }
+        assertTrue("All traces should be streamed, got " + count, count == xLog.size());
+
+        Map<XEStools.FilterType, Object> filter = Maps.newHashMap();
+        filter.put(XEStools.FilterType.TRACE_NAME_LIST, Lists.newArrayList("610705", "710400"));
+        List<XTrace> found = Lists.newArrayList();
+        XLog header = new XEStools().streamLog(file.getPath(), filter, found::add);
+        assertNotNull("Log should be streamed", header);
+        assertTrue("Filtered traces should be streamed, got " + found.size(), found.size() == 2
+                && found.get(0).size() + found.get(1).size() == 126);
+
+        // errors of sink and of parser are passed to caller
+        IllegalArgumentException stop = new IllegalArgumentException("stop");
+        List<XTrace> delivered = Lists.newArrayList();
+        try {
+            new XEStools().streamLogMatching(file.getPath(), TraceFilter.ALL, xTrace -> {
+                delivered.add(xTrace);
+                if (delivered.size() == 3) throw stop;
+            });
+            fail("Sink exception should be thrown");
+        }
+        catch (IllegalArgumentException e) {
+            assertTrue("Sink exception should be passed as is", e == stop && delivered.size() == 3);
+        }
+
+        File broken = File.createTempFile("broken", ".xes");
+        broken.deleteOnExit();
+        Files.write(broken.toPath(), "<log xes.version=\"1.0\"><trace><string key=\"concept:name\" value=\"1\"/></trace><trace><event>"
+                .getBytes(StandardCharsets.UTF_8));
+        delivered.clear();
+        try {
+            new XEStools().streamLogMatching(broken.getPath(), TraceFilter.ALL, delivered::add);
+            fail("Truncated log should not be parsed");
+        }
+        catch (IllegalStateException e) {
+            assertTrue("Traces before error should be delivered, got " + delivered.size(), delivered.size() == 1);
+        }
+        assertTrue("Unknown file type should not be streamed",
+                new XEStools().streamLogMatching(broken.getPath() + ".txt", TraceFilter.ALL, delivered::add) == null);
+    }
+
+    @Test
+    public void parallelParse() throws Exception {
+        URL url = RealLogTest.class.getClassLoader().getResource("out.xes.gz");
+        File file = new File(url.toURI());
+        XLog xLog = new XesXmlGZIPParser().parse(new FileInputStream(file)).get(0);
+
+        File plain = File.createTempFile("out", ".xes");
+        plain.deleteOnExit();
+        try (InputStream inputStream = new GZIPInputStream(new FileInputStream(file))) {
+            Files.copy(inputStream, plain.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        XLog parsed = new XesXmlParallelParser(XFactoryRegistry.instance().currentDefault(), pool).parse(plain).get(0);
+        pool.shutdown();
+        assertTrue("All traces should be parsed, got " + parsed.size(), parsed.size() == xLog.size());
+        assertTrue("Header should match", parsed.getExtensions().equals(xLog.getExtensions())
+                && parsed.getClassifiers().equals(xLog.getClassifiers())
+                && parsed.getGlobalEventAttributes().size() == xLog.getGlobalEventAttributes().size()
+                && Maps.newHashMap(parsed.getAttributes()).equals(Maps.newHashMap(xLog.getAttributes())));
+        for (int trace = 0; trace < xLog.size(); trace++) {
+            assertTrue("Traces should be in file order", Maps.newHashMap(parsed.get(trace).getAttributes())
+                    .equals(Maps.newHashMap(xLog.get(trace).getAttributes())) && parsed.get(trace).size() == xLog.get(trace).size());
+            for (int event = 0; event < xLog.get(trace).size(); event++) {
+                assertTrue("Events should match", Maps.newHashMap(parsed.get(trace).get(event).getAttributes())
+                        .equals(Maps.newHashMap(xLog.get(trace).get(event).getAttributes())));
+            }
+        }
+
+        // MapDB factory of tools shared by workers
+        XEStools sequential = new XEStools();
+        assertTrue("Plain log should be parsed", sequential.parseLog(plain.getPath()));
+        pool = new ForkJoinPool(4);
+        try {
+            XEStools tools = new XEStools(pool);
+            assertTrue("Plain log should be parsed in parallel", tools.parseLog(plain.getPath()));
+            assertTrue("Trace 610705 should be present", tools.getXTrace("610705").size() == 4);
+            assertTrue("Parallel parse should match sequential, got " + tools.getXLogSize(),
+                    tools.getXLogSize() == sequential.getXLogSize());
+            for (int trace = 0; trace < sequential.getXLogSize(); trace++) {
+                XTrace expected = sequential.getXlog().get(trace);
+                XTrace actual = tools.getXlog().get(trace);
+                // attributes of different MapDB factories compare by interned keys, so values are compared
+                assertTrue("Traces should match", values(actual).equals(values(expected)) && actual.size() == expected.size());
+                for (int event = 0; event < expected.size(); event++) {
+                    assertTrue("Events should match", values(actual.get(event)).equals(values(expected.get(event))));
+                }
+            }
+            assertTrue("Analytics should match", tools.getFullTraceListMatching(TraceFilter.ALL).equals(sequential.getFullTraceListMatching(TraceFilter.ALL)));
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    private static Map<String, String> values(XAttributable attributable) {
+        Map<String, String> values = Maps.newHashMap();
+        attributable.getAttributes().forEach((key, attribute) -> values.put(key, attribute.toString()));
+        return values;
+    }
 }
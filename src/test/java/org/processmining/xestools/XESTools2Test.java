@@ -2,25 +2,55 @@ package org.processmining.xestools;
 
 import com.google.common.collect.BoundType;
 import com.google.common.collect.Lists;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Range;
+import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
+import org.apache.commons.math.stat.descriptive.DescriptiveStatistics;
+import org.deckfour.xes.classification.XEventNameClassifier;
+import org.deckfour.xes.extension.std.XConceptExtension;
+import org.deckfour.xes.extension.std.XLifecycleExtension;
 import org.deckfour.xes.extension.std.XOrganizationalExtension;
 import org.deckfour.xes.extension.std.XTimeExtension;
+import org.deckfour.xes.in.XesXmlGZIPParser;
+import org.deckfour.xes.model.XEvent;
 import org.deckfour.xes.model.XLog;
+import org.deckfour.xes.model.XTrace;
+import org.deckfour.xes.util.XParallelGZIPOutputStream;
+import org.deckfour.xes.util.XPipelinedGZIPInputStream;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.Timeout;
 import org.processmining.log.utils.XLogBuilder;
+import org.processmining.log.utils.XUtils;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import static com.google.common.collect.Range.closed;
 import static com.google.common.collect.Range.upTo;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * Created by nsitnikov on 20/12/15.
@@ -101,6 +131,36 @@ public class XESTools2Test {
         filter.put(XEStools.FilterType.EVENT_NAME_LIST, Lists.newArrayList("event 3"));
         filtered = xeStools.getFullTraceList(filter);
         assertTrue("Should be no trace, got " + filtered.size(), filtered.size() == 0);
+
+        filter.clear();
+        filter.put(XEStools.FilterType.TRACE_END_RANGE, closed(
+                ZonedDateTime.ofInstant(Instant.parse("2015-01-01T00:00:00.00Z"), ZoneId.of("UTC")),
+                ZonedDateTime.ofInstant(Instant.parse("2015-01-01T23:59:59.00Z"), ZoneId.of("UTC"))
+        ));
+        filter.put(XEStools.FilterType.EVENT_COUNT_RANGE, closed(3, 3));
+        filter.put(XEStools.FilterType.TRACE_NAME_LIST, null);
+        TraceFilter traceFilter = TraceFilter.compile(filter);
+        filtered = xeStools.getFullTraceListMatching(traceFilter);
+        assertTrue("Should be only one trace, got " + filtered.size(), filtered.size() == 1);
+        assertTrue("Trace should be test 1, got " + filtered.get(0).getName(), filtered.get(0).getName().equals("test 1"));
+        assertTrue("Compiled filter should be reusable", xeStools.getEventListMatching(traceFilter).size() == 3);
+
+        assertTrue("Empty filter should match all", TraceFilter.compile(Maps.newHashMap()) == TraceFilter.ALL);
+        assertTrue("Null filter map should compile to all", TraceFilter.compile(null) == TraceFilter.ALL);
+        assertTrue("All filter should match all", xeStools.getFullTraceListMatching(TraceFilter.ALL).size() == 3);
+        assertTrue("Null compiled filter should match all", xeStools.getFullTraceListMatching((TraceFilter) null).size() == 3);
+
+        assertTrue("Filter should keep its rules", traceFilter.get(XEStools.FilterType.EVENT_COUNT_RANGE).equals(closed(3, 3))
+                && traceFilter.get(XEStools.FilterType.TRACE_NAME_LIST) == null && traceFilter.getRules().size() == 2);
+        assertTrue("Filters of equal rules should be equal", traceFilter.equals(TraceFilter.compile(filter))
+                && traceFilter.hashCode() == TraceFilter.compile(filter).hashCode());
+        try {
+            traceFilter.getRules().clear();
+            fail("Rules should not be modifiable");
+        }
+        catch (UnsupportedOperationException e) {
+            assertTrue("Rules should be kept", traceFilter.getRules().size() == 2);
+        }
     }
 
     @Test
@@ -142,12 +202,82 @@ public class XESTools2Test {
 
         List<Workload> matrix = xeStools.calculateResourceWorkload(null);
         assertTrue("There should be 6 records, got "+ matrix.size(), matrix.size() == 8);
-        assertTrue("2nd workload event should be SIDOROV, got " + matrix.get(1).getResource(), matrix.get(1).getResource().equals("SIDOROV"));
-        assertTrue("2nd workload event duration should be 3000, got " + matrix.get(1).getWorkload(), matrix.get(1).getWorkload() == 3000);
-        assertTrue("2nd workload event should be at 11:00, got " + matrix.get(1).getTimestamp(), matrix.get(1).getTimestamp().equals(ZonedDateTime.ofInstant(Instant.parse("2015-01-01T11:00:00.00Z"), ZoneId.of("UTC"))));
+        // resources in first seen order, IVANOV is busy in 5 hours
+        assertTrue("6th workload event should be SIDOROV, got " + matrix.get(5).getResource(), matrix.get(5).getResource().equals("SIDOROV"));
+        assertTrue("6th workload event duration should be 3000, got " + matrix.get(5).getWorkload(), matrix.get(5).getWorkload() == 3000);
+        assertTrue("6th workload event should be at 11:00, got " + matrix.get(5).getTimestamp(), matrix.get(5).getTimestamp().equals(ZonedDateTime.ofInstant(Instant.parse("2015-01-01T11:00:00.00Z"), ZoneId.of("UTC"))));
+        assertTrue("4th workload event should be IVANOV 19:00 2460, got " + matrix.get(3).getWorkload(), matrix.get(3).getWorkload() == 2460
+                && matrix.get(3).getTimestamp().equals(ZonedDateTime.ofInstant(Instant.parse("2015-01-01T19:00:00.00Z"), ZoneId.of("UTC"))));
         assertTrue("8th workload event should be PETROV, got " + matrix.get(7).getResource(), matrix.get(7).getResource().equals("PETROV"));
         assertTrue("8th workload event duration should be 1800, got " + matrix.get(7).getWorkload(), matrix.get(7).getWorkload() == 1800);
 
+        matrix = xeStools.calculateResourceWorkloadMatching(TraceFilter.ALL, XEStools.Granularity.DAY);
+        assertTrue("There should be 4 daily records, got "+ matrix.size(), matrix.size() == 4);
+        assertTrue("IVANOV daily workload should be 6720, got " + matrix.get(0).getWorkload(), matrix.get(0).getWorkload() == 6720);
+
+        WorkloadMatrix dense = xeStools.getWorkloadMatrix(null, XEStools.Granularity.DAY);
+        assertTrue("Matrix should have 2 days, got " + dense.getBucketCount(), dense.getBucketCount() == 2);
+        assertTrue("Matrix should start on 2015-01-01, got " + dense.getBucketStart(dense.getFirstBucket()),
+                dense.getBucketStart(dense.getFirstBucket()).toInstant().equals(Instant.parse("2015-01-01T00:00:00.00Z")));
+        assertTrue("SIDOROV is busy only on first day", Arrays.equals(dense.getWorkload("SIDOROV"), new long[]{4800, 0}));
+        assertTrue("PETROV is busy only on second day", Arrays.equals(dense.getWorkload("PETROV"), new long[]{0, 1800}));
+
+        matrix = xeStools.calculateResourceWorkloadMatching(TraceFilter.ALL, XEStools.Granularity.WEEK);
+        assertTrue("There should be 3 weekly records, got "+ matrix.size(), matrix.size() == 3);
+        assertTrue("Week should start on Monday, got " + matrix.get(0).getTimestamp(),
+                matrix.get(0).getTimestamp().toInstant().equals(Instant.parse("2014-12-29T00:00:00.00Z")));
+
+    }
+
+    @Test
+    public void parallelModeTest() {
+        XLogBuilder builder = XLogBuilder.newInstance().startLog("PARALLEL TEST");
+        String[] resources = {"IVANOV", "PETROV", "SIDOROV"};
+        for (int trace = 0; trace < 50; trace++) {
+            builder.addTrace("trace " + trace);
+            for (int event = 0; event < 5; event++) {
+                builder.addEvent("event " + (event + trace) % 4)
+                        .addAttribute(XTimeExtension.KEY_TIMESTAMP, Date.from(Instant.parse("2015-01-01T10:00:00.00Z")
+                                .plusSeconds(trace * 3600 + event * 1000 + trace * event * 7)))
+                        .addAttribute(XOrganizationalExtension.KEY_RESOURCE, resources[(trace + event) % 3]);
+            }
+        }
+        XLog alog = builder.build();
+
+        XEStools sequential = new XEStools(alog);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            XEStools parallel = new XEStools(alog, pool);
+
+            Map<XEStools.FilterType, Object> filter = Maps.newHashMap();
+            filter.put(XEStools.FilterType.RESOURCE_LIST, Lists.newArrayList("MULTI"));
+
+            assertTrue("Trace lists should match", sequential.getFullTraceList(filter).equals(parallel.getFullTraceList(filter)));
+            assertTrue("Sub trace lists should match",
+                    sequential.getFullSubTraceList(filter, "event 1", "event 3").equals(parallel.getFullSubTraceList(filter, "event 1", "event 3")));
+            assertTrue("Mean shares should match", sequential.eventDurationShares(filter, false).equals(parallel.eventDurationShares(filter, false)));
+            assertTrue("Median shares should match", sequential.eventDurationShares(filter, true).equals(parallel.eventDurationShares(filter, true)));
+
+            List<FlatXEvent> expectedEvents = sequential.getEventList(filter);
+            List<FlatXEvent> events = parallel.getEventList(filter);
+            assertTrue("Event lists should have same size, got " + events.size(), expectedEvents.size() == events.size());
+            for (int i = 0; i < events.size(); i++) {
+                assertTrue("Events should be in same order", expectedEvents.get(i).getStart().equals(events.get(i).getStart()));
+                assertTrue("Events should be in same order", expectedEvents.get(i).getTrace().equals(events.get(i).getTrace()));
+            }
+
+            List<Workload> expected = sequential.calculateResourceWorkload(filter);
+            List<Workload> workloads = parallel.calculateResourceWorkload(filter);
+            assertTrue("Workloads should have same size, got " + workloads.size(), expected.size() == workloads.size());
+            for (int i = 0; i < workloads.size(); i++) {
+                assertTrue("Workload resources should be in same order", expected.get(i).getResource().equals(workloads.get(i).getResource()));
+                assertTrue("Workload hours should be in same order", expected.get(i).getTimestamp().equals(workloads.get(i).getTimestamp()));
+                assertTrue("Workload values should match", expected.get(i).getWorkload().equals(workloads.get(i).getWorkload()));
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
     }
 
     @Test
@@ -192,5 +322,956 @@ public class XESTools2Test {
         List<FlatXEvent> flatXEvents = xeStools.getEventList(filter);
         assertTrue("List should have 3 events, got " + flatXEvents.size(), flatXEvents.size() == 3);
 
+        List<FlatXEvent> streamed = Lists.newArrayList();
+        xeStools.forEachEvent(filter, streamed::add);
+        assertTrue("Streamed events should match list, got " + streamed.size(), streamed.size() == 3
+                && streamed.get(0).getName().equals(flatXEvents.get(0).getName())
+                && streamed.get(2).getStart().equals(flatXEvents.get(2).getStart()));
+
+        StringWriter out = new StringWriter();
+        try (FlatCsvWriter csv = FlatCsvWriter.forEvents(out)) {
+            xeStools.forEachEvent(filter, csv::write);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        String[] lines = out.toString().split("\r\n");
+        assertTrue("CSV should have header and 3 rows, got " + lines.length, lines.length == 4);
+        assertTrue("Unexpected first row " + lines[1], lines[1].equals(
+                "test 2,event 1,2015-01-02T10:00:00Z,2015-01-02T10:10:00Z,PETROV,NA,NA"));
+
+        out = new StringWriter();
+        try (FlatCsvWriter csv = FlatCsvWriter.forTraces(out)) {
+            xeStools.forEachTraceMatching(TraceFilter.ALL, csv::write);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        lines = out.toString().split("\r\n");
+        assertTrue("CSV should have header and 3 rows, got " + lines.length, lines.length == 4);
+        assertTrue("Unexpected first row " + lines[1], lines[1].equals(
+                "test 1,2015-01-01T10:00:00Z,2015-01-01T10:30:00Z,IVANOV,NA,NA,3,1800"));
+    }
+
+    @Test
+    public void lifecycleInstancesTest() {
+        XLog alog = XLogBuilder.newInstance().startLog("LIFECYCLE TEST")
+                .addTrace("test 1")
+                .addEvent("A")
+                .addAttribute(XTimeExtension.KEY_TIMESTAMP, Date.from(Instant.parse("2015-01-01T10:00:00.00Z")))
+                .addAttribute(XLifecycleExtension.KEY_TRANSITION, "start")
+                .addAttribute(XConceptExtension.KEY_INSTANCE, "1")
+                .addEvent("A")
+                .addAttribute(XTimeExtension.KEY_TIMESTAMP, Date.from(Instant.parse("2015-01-01T10:10:00.00Z")))
+                .addAttribute(XLifecycleExtension.KEY_TRANSITION, "start")
+                .addAttribute(XConceptExtension.KEY_INSTANCE, "2")
+                .addEvent("A")
+                .addAttribute(XTimeExtension.KEY_TIMESTAMP, Date.from(Instant.parse("2015-01-01T10:40:00.00Z")))
+                .addAttribute(XLifecycleExtension.KEY_TRANSITION, "complete")
+                .addAttribute(XConceptExtension.KEY_INSTANCE, "1")
+                .addEvent("A")
+                .addAttribute(XTimeExtension.KEY_TIMESTAMP, Date.from(Instant.parse("2015-01-01T10:20:00.00Z")))
+                .addAttribute(XLifecycleExtension.KEY_TRANSITION, "complete")
+                .addAttribute(XConceptExtension.KEY_INSTANCE, "2")
+                .addTrace("test 2")
+                .addEvent("B")
+                .addAttribute(XTimeExtension.KEY_TIMESTAMP, Date.from(Instant.parse("2015-01-01T11:00:00.00Z")))
+                .addAttribute(XLifecycleExtension.KEY_TRANSITION, "start")
+                .addEvent("B")
+                .addAttribute(XTimeExtension.KEY_TIMESTAMP, Date.from(Instant.parse("2015-01-01T11:05:00.00Z")))
+                .addAttribute(XLifecycleExtension.KEY_TRANSITION, "start")
+                .addEvent("B")
+                .addAttribute(XTimeExtension.KEY_TIMESTAMP, Date.from(Instant.parse("2015-01-01T11:10:00.00Z")))
+                .addAttribute(XLifecycleExtension.KEY_TRANSITION, "complete")
+                .addEvent("B")
+                .addAttribute(XTimeExtension.KEY_TIMESTAMP, Date.from(Instant.parse("2015-01-01T11:30:00.00Z")))
+                .addAttribute(XLifecycleExtension.KEY_TRANSITION, "complete")
+                .addTrace("test 3")
+                .addEvent("C")
+                .addAttribute(XTimeExtension.KEY_TIMESTAMP, Date.from(Instant.parse("2015-01-01T12:00:00.00Z")))
+                .addAttribute(XLifecycleExtension.KEY_TRANSITION, "start")
+                .addEvent("A")
+                .addAttribute(XTimeExtension.KEY_TIMESTAMP, Date.from(Instant.parse("2015-01-01T12:10:00.00Z")))
+                .addAttribute(XLifecycleExtension.KEY_TRANSITION, "start")
+                .addEvent("A")
+                .addAttribute(XTimeExtension.KEY_TIMESTAMP, Date.from(Instant.parse("2015-01-01T12:20:00.00Z")))
+                .addAttribute(XLifecycleExtension.KEY_TRANSITION, "complete")
+                .build();
+
+        XEStools xeStools = new XEStools(alog);
+        List<FlatXEvent> flatXEvents = xeStools.getEventListMatching(TraceFilter.ALL);
+        assertTrue("List should have 6 events, got " + flatXEvents.size(), flatXEvents.size() == 6);
+
+        // instances are paired by concept:instance, completes come out of time order
+        FlatXEvent first = flatXEvents.get(0);
+        assertTrue("First instance should end at 10:40, got " + first.getEnd(),
+                first.getStart().toInstant().equals(Instant.parse("2015-01-01T10:00:00.00Z"))
+                        && first.getEnd().toInstant().equals(Instant.parse("2015-01-01T10:40:00.00Z")));
+        FlatXEvent second = flatXEvents.get(1);
+        assertTrue("Second instance should end at 10:20, got " + second.getEnd(),
+                second.getStart().toInstant().equals(Instant.parse("2015-01-01T10:10:00.00Z"))
+                        && second.getEnd().toInstant().equals(Instant.parse("2015-01-01T10:20:00.00Z")));
+
+        // without instance the latest open start is completed first, nested instance closes inside outer one
+        assertTrue("Outer start should end last, got " + flatXEvents.get(2).getEnd(),
+                flatXEvents.get(2).getStart().toInstant().equals(Instant.parse("2015-01-01T11:00:00.00Z"))
+                        && flatXEvents.get(2).getEnd().toInstant().equals(Instant.parse("2015-01-01T11:30:00.00Z")));
+        assertTrue("Nested start should end first, got " + flatXEvents.get(3).getEnd(),
+                flatXEvents.get(3).getStart().toInstant().equals(Instant.parse("2015-01-01T11:05:00.00Z"))
+                        && flatXEvents.get(3).getEnd().toInstant().equals(Instant.parse("2015-01-01T11:10:00.00Z")));
+
+        XTrace xTrace = alog.get(0);
+        XEvent lastEvent = xTrace.get(3);
+        Map<String, Double> durations = XEStools.eventDurationInTrace(xTrace);
+        assertTrue("Both instances take 3000 seconds, got " + durations.get("A"), durations.get("A") == 3000D);
+        assertTrue("Trace should not be reordered", xTrace.get(3) == lastEvent);
+
+        // START without COMPLETE gets default duration in event list and is left out of durations
+        assertTrue("Unpaired start should end in 60 seconds, got " + flatXEvents.get(4).getEnd(),
+                flatXEvents.get(4).getName().equals("C")
+                        && flatXEvents.get(4).getEnd().toInstant().equals(Instant.parse("2015-01-01T12:01:00.00Z")));
+        assertTrue("Paired instance after unpaired start should end at 12:20",
+                flatXEvents.get(5).getEnd().toInstant().equals(Instant.parse("2015-01-01T12:20:00.00Z")));
+        durations = XEStools.eventDurationInTrace(alog.get(2));
+        assertTrue("Only paired instance should have duration, got " + durations, durations.equals(ImmutableMap.of("A", 600D)));
+
+        assertModesMatch(alog, TraceFilter.ALL);
+    }
+
+    @Test
+    public void quantileSketchTest() {
+        // exact while values fit into sketch
+        DescriptiveStatistics exact = new DescriptiveStatistics();
+        QuantileSketch small = new QuantileSketch();
+        for (int i = 0; i < 99; i++) {
+            double value = (i * 37 % 101) / 7.0;
+            exact.addValue(value);
+            small.add(value);
+        }
+        assertTrue("Median should be exact, got " + small.getQuantile(0.5), small.getQuantile(0.5) == exact.getPercentile(50));
+        assertTrue("90% should be exact, got " + small.getQuantile(0.9), small.getQuantile(0.9) == exact.getPercentile(90));
+        assertTrue("Mean should be exact, got " + small.getMean(), Math.abs(small.getMean() - exact.getMean()) < 1e-12);
+
+        // compacted sketch of 0..99999, split in two merged parts
+        QuantileSketch left = new QuantileSketch();
+        QuantileSketch right = new QuantileSketch();
+        for (int i = 0; i < 100000; i++) {
+            int value = i * 7919 % 100000;
+            if (i % 3 == 0) left.add(value); else right.add(value);
+        }
+        QuantileSketch merged = left.merge(right);
+        assertTrue("Count should be exact, got " + merged.getCount(), merged.getCount() == 100000);
+        assertTrue("Mean should be exact, got " + merged.getMean(), merged.getMean() == 49999.5);
+        assertTrue("Min and max should be exact", merged.getMin() == 0 && merged.getMax() == 99999);
+        assertTrue("Median should be within 2% rank error, got " + merged.getQuantile(0.5), Math.abs(merged.getQuantile(0.5) - 50000) < 2000);
+        assertTrue("90% should be within 2% rank error, got " + merged.getQuantile(0.9), Math.abs(merged.getQuantile(0.9) - 90000) < 2000);
+    }
+
+    @Test
+    public void medianSharesParallelTest() {
+        // far more values per activity than sketch accuracy, so sketches are compacted
+        Random random = new Random(42);
+        XLogBuilder builder = XLogBuilder.newInstance().startLog("MEDIAN TEST");
+        for (int trace = 0; trace < 2000; trace++) {
+            builder.addTrace("trace " + trace);
+            Instant timestamp = Instant.parse("2015-01-01T10:00:00.00Z").plusSeconds(trace * 3600);
+            for (String event: Arrays.asList("a", "b", "c")) {
+                builder.addEvent(event).addAttribute(XTimeExtension.KEY_TIMESTAMP, Date.from(timestamp));
+                timestamp = timestamp.plusSeconds(1 + random.nextInt(1000));
+            }
+        }
+        XLog alog = builder.build();
+
+        XEStools sequential = new XEStools(alog);
+        Map<String, Double> median = sequential.eventDurationSharesMatching(TraceFilter.ALL, true);
+        Map<String, Double> lower = sequential.eventDurationSharesMatching(TraceFilter.ALL, 0.48, 10000);
+        Map<String, Double> upper = sequential.eventDurationSharesMatching(TraceFilter.ALL, 0.52, 10000);
+        for (int parallelism: new int[]{4, 16}) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                XEStools parallel = new XEStools(alog, pool);
+                assertTrue("Exact medians should match with " + parallelism + " threads",
+                        sequential.eventDurationSharesMatching(TraceFilter.ALL, 0.5, 10000).equals(parallel.eventDurationSharesMatching(TraceFilter.ALL, 0.5, 10000)));
+                Map<String, Double> estimate = parallel.eventDurationSharesMatching(TraceFilter.ALL, true);
+                assertTrue("Merged medians should not depend on run",
+                        estimate.equals(new XEStools(alog, pool).eventDurationSharesMatching(TraceFilter.ALL, true)));
+                for (String name: Arrays.asList("a", "b")) {
+                    for (double value: Arrays.asList(median.get(name), estimate.get(name))) {
+                        assertTrue("Median of " + name + " should be within 2% rank error, got " + value,
+                                value >= lower.get(name) && value <= upper.get(name));
+                    }
+                }
+            }
+            finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void incrementalModeTest() {
+        XLogBuilder builder = XLogBuilder.newInstance().startLog("INCREMENTAL TEST");
+        String[] resources = {"IVANOV", "PETROV", "SIDOROV"};
+        for (int trace = 0; trace < 30; trace++) {
+            builder.addTrace("trace " + trace);
+            for (int event = 0; event < 4; event++) {
+                builder.addEvent("event " + (event + trace) % 3)
+                        .addAttribute(XTimeExtension.KEY_TIMESTAMP, Date.from(Instant.parse("2015-01-01T10:00:00.00Z")
+                                .plusSeconds(trace * 5400 + event * 900 + trace * event * 11)))
+                        .addAttribute(XOrganizationalExtension.KEY_RESOURCE, resources[(trace + event) % 3]);
+            }
+        }
+        XLog full = builder.build();
+
+        XLog head = (XLog) full.clone();
+        head.clear();
+        head.addAll(full.subList(0, 20));
+        XEStools incremental = new XEStools(head);
+        incremental.setIncremental(true);
+        incremental.getTraceDurations();
+        incremental.eventDurationSharesMatching(TraceFilter.ALL, true);
+        incremental.calculateResourceWorkloadMatching(TraceFilter.ALL, XEStools.Granularity.HOUR);
+        assertTrue("Trace should be found", incremental.getXTrace("trace 3") != null);
+
+        incremental.appendTraces(full.subList(20, 30));
+        assertTrue("Appended trace should be found", incremental.getXTrace("trace 25") == full.get(25));
+        assertIncrementalMatch(new XEStools(full), incremental);
+
+        // change already processed trace
+        XTrace changed = full.get(5);
+        XEvent late = (XEvent) changed.get(changed.size() - 1).clone();
+        XTimeExtension.instance().assignTimestamp(late, Date.from(Instant.parse("2015-01-05T10:00:00.00Z")));
+        changed.add(late);
+        incremental.traceChanged(changed);
+        assertIncrementalMatch(new XEStools(full), incremental);
+
+        // renamed trace should not keep duration under old name
+        XConceptExtension.instance().assignName(full.get(7), "renamed 7");
+        incremental.traceChanged(full.get(7));
+        assertTrue("Old name should be dropped", !incremental.getTraceDurations().containsKey("trace 7"));
+        assertIncrementalMatch(new XEStools(full), incremental);
+
+        // traces appended from several threads are all indexed
+        XLog shared = (XLog) full.clone();
+        shared.clear();
+        XEStools appending = new XEStools(shared);
+        assertTrue("Empty log should have no trace", appending.getXTrace("trace 0") == null);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            pool.submit(() -> full.parallelStream().forEach(appending::appendTrace)).join();
+        }
+        finally {
+            pool.shutdown();
+        }
+        assertTrue("All traces should be appended, got " + shared.size(), shared.size() == full.size());
+        for (XTrace xTrace: full) {
+            XTrace found = appending.getXTrace(XConceptExtension.instance().extractName(xTrace));
+            assertTrue("Appended trace should be found", found == xTrace);
+        }
+    }
+
+    @Test
+    public void columnarModeTest() {
+        XLog alog = lifecycleLog("COLUMNAR TEST", 40);
+        XEStools expected = new XEStools(alog);
+        XEStools columnar = new XEStools(alog);
+        columnar.setColumnar(true);
+        assertTrue("Snapshot should have all events, got " + columnar.getSnapshot().getEventCount(),
+                columnar.getSnapshot().getEventCount() == 245);
+
+        Map<XEStools.FilterType, Object> byResource = Maps.newHashMap();
+        byResource.put(XEStools.FilterType.RESOURCE_LIST, Lists.newArrayList("MULTI"));
+        Map<XEStools.FilterType, Object> byEvent = Maps.newHashMap();
+        byEvent.put(XEStools.FilterType.EVENT_NAME_LIST, Lists.newArrayList("event 3"));
+        byEvent.put(XEStools.FilterType.EVENT_COUNT_RANGE, closed(6, 6));
+        Map<XEStools.FilterType, Object> byName = Maps.newHashMap();
+        byName.put(XEStools.FilterType.TRACE_NAME_LIST, Lists.newArrayList("missing"));
+        for (TraceFilter filter: Arrays.asList(TraceFilter.ALL, TraceFilter.compile(byResource), TraceFilter.compile(byEvent))) {
+            assertModesMatch(alog, filter);
+        }
+        assertTrue("Filter should match nothing", columnar.getEventList(byName).isEmpty());
+        assertModesMatch(alog, TraceFilter.compile(byName));
+
+        // snapshot follows appended traces
+        XTrace appended = (XTrace) alog.get(1).clone();
+        XConceptExtension.instance().assignName(appended, "trace 40");
+        columnar.appendTrace(appended);
+        assertTrue("Snapshot should be rebuilt, got " + columnar.getSnapshot().getTraceCount(),
+                columnar.getSnapshot().getTraceCount() == 43);
+        assertSameResults(expected, columnar, TraceFilter.ALL);
+
+        columnar.setColumnar(false);
+        assertSameResults(expected, columnar, TraceFilter.ALL);
+    }
+
+    /***
+     * Log of start and complete pairs with resources and roles. Traces do not start in log order, every third
+     * trace has events out of time order, even traces have one resource. Last traces are edge cases: one without
+     * timestamps and one with START never completed
+     */
+    private static XLog lifecycleLog(String name, int traces) {
+        XLogBuilder builder = XLogBuilder.newInstance().startLog(name);
+        String[] resources = {"IVANOV", "PETROV", "SIDOROV"};
+        for (int trace = 0; trace < traces; trace++) {
+            Instant start = Instant.parse("2015-01-01T10:00:00.00Z").plusSeconds((trace * 37 % traces) * 3600L);
+            builder.addTrace("trace " + trace);
+            for (int event = 0; event < 6; event++) {
+                int step = trace % 3 == 0 ? 5 - event : event;
+                builder.addEvent("event " + (event / 2 + trace) % 4)
+                        .addAttribute(XTimeExtension.KEY_TIMESTAMP, Date.from(start.plusSeconds(step * 600 + trace * event * 13)))
+                        .addAttribute(XLifecycleExtension.KEY_TRANSITION, event % 2 == 0 ? "start" : "complete")
+                        .addAttribute(XOrganizationalExtension.KEY_RESOURCE, resources[(trace / 3 + event / 2 * (trace % 2)) % 3])
+                        .addAttribute(XOrganizationalExtension.KEY_ROLE, trace % 4 == 0 ? "MANAGER" : "CLERK");
+            }
+        }
+
+        Instant start = Instant.parse("2015-01-02T06:00:00.00Z");
+        return builder.addTrace("no time")
+                .addEvent("event 1")
+                .addAttribute(XLifecycleExtension.KEY_TRANSITION, "start")
+                .addAttribute(XOrganizationalExtension.KEY_RESOURCE, "IVANOV")
+                .addEvent("event 1")
+                .addAttribute(XLifecycleExtension.KEY_TRANSITION, "complete")
+                .addAttribute(XOrganizationalExtension.KEY_RESOURCE, "IVANOV")
+                .addTrace("unpaired")
+                .addEvent("event 2")
+                .addAttribute(XTimeExtension.KEY_TIMESTAMP, Date.from(start))
+                .addAttribute(XLifecycleExtension.KEY_TRANSITION, "start")
+                .addAttribute(XOrganizationalExtension.KEY_RESOURCE, "PETROV")
+                .addEvent("event 3")
+                .addAttribute(XTimeExtension.KEY_TIMESTAMP, Date.from(start.plusSeconds(600)))
+                .addAttribute(XLifecycleExtension.KEY_TRANSITION, "start")
+                .addAttribute(XOrganizationalExtension.KEY_RESOURCE, "PETROV")
+                .addEvent("event 3")
+                .addAttribute(XTimeExtension.KEY_TIMESTAMP, Date.from(start.plusSeconds(1200)))
+                .addAttribute(XLifecycleExtension.KEY_TRANSITION, "complete")
+                .addAttribute(XOrganizationalExtension.KEY_RESOURCE, "PETROV")
+                .build();
+    }
+
+    /***
+     * Check that parallel, columnar and parallel columnar analytics match sequential ones
+     * @param log log to analyse
+     * @param filter filter to apply
+     */
+    private void assertModesMatch(XLog log, TraceFilter filter) {
+        XEStools expected = new XEStools(log);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            XEStools columnar = new XEStools(log);
+            columnar.setColumnar(true);
+            XEStools parallelColumnar = new XEStools(log, pool);
+            parallelColumnar.setColumnar(true);
+            for (XEStools actual: Arrays.asList(new XEStools(log, pool), columnar, parallelColumnar)) {
+                assertSameResults(expected, actual, filter);
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    // names of traces matching filter in log order, found by testing every trace
+    private static List<String> scan(XLog log, TraceFilter filter) {
+        return log.stream().filter(filter).map(XConceptExtension.instance()::extractName).collect(Collectors.toList());
+    }
+
+    private static List<String> names(List<FlatXTrace> traces) {
+        return traces.stream().map(FlatXTrace::getName).collect(Collectors.toList());
+    }
+
+    private static List<String> signatures(VariantIndex index) {
+        return index.getVariants().stream()
+                .map(variant -> variant.getActivities() + ":" + Arrays.toString(variant.getTraces()))
+                .collect(Collectors.toList());
+    }
+
+    private void assertSameResults(XEStools expected, XEStools actual, TraceFilter filter) {
+        assertTrue("Durations should match", expected.getTraceDurations().equals(actual.getTraceDurations()));
+        assertTrue("Trace lists should match", expected.getFullTraceListMatching(filter).equals(actual.getFullTraceListMatching(filter)));
+
+        List<FlatXEvent> expectedEvents = expected.getEventListMatching(filter);
+        List<FlatXEvent> events = actual.getEventListMatching(filter);
+        assertTrue("Event lists should have same size, got " + events.size(), expectedEvents.size() == events.size());
+        for (int i = 0; i < events.size(); i++) {
+            assertTrue("Events should match", expectedEvents.get(i).getName().equals(events.get(i).getName())
+                    && expectedEvents.get(i).getTrace().equals(events.get(i).getTrace())
+                    && expectedEvents.get(i).getResource().equals(events.get(i).getResource())
+                    && expectedEvents.get(i).getStart().equals(events.get(i).getStart())
+                    && expectedEvents.get(i).getEnd().equals(events.get(i).getEnd()));
+        }
+
+        Map<String, Double> expectedShares = expected.eventDurationSharesMatching(filter, false);
+        Map<String, Double> shares = actual.eventDurationSharesMatching(filter, false);
+        assertTrue("Shares should have same events", expectedShares.keySet().equals(shares.keySet()));
+        for (String name: shares.keySet()) {
+            assertTrue("Mean share should match for " + name, Math.abs(expectedShares.get(name) - shares.get(name)) < 1e-12);
+        }
+        assertTrue("Median shares should match",
+                expected.eventDurationSharesMatching(filter, true).equals(actual.eventDurationSharesMatching(filter, true)));
+
+        List<Workload> expectedWorkloads = expected.calculateResourceWorkloadMatching(filter, XEStools.Granularity.HOUR);
+        List<Workload> workloads = actual.calculateResourceWorkloadMatching(filter, XEStools.Granularity.HOUR);
+        assertTrue("Workloads should have same size, got " + workloads.size(), expectedWorkloads.size() == workloads.size());
+        for (int i = 0; i < workloads.size(); i++) {
+            assertTrue("Workloads should match", expectedWorkloads.get(i).getResource().equals(workloads.get(i).getResource())
+                    && expectedWorkloads.get(i).getTimestamp().equals(workloads.get(i).getTimestamp())
+                    && expectedWorkloads.get(i).getWorkload().equals(workloads.get(i).getWorkload()));
+        }
+
+        assertTrue("Variants should match", signatures(expected.getVariantIndexMatching(filter, new XEventNameClassifier()))
+                .equals(signatures(actual.getVariantIndexMatching(filter, new XEventNameClassifier()))));
+    }
+
+    @Test
+    public void directlyFollowsGraphTest() {
+        XLog alog = XLogBuilder.newInstance().startLog("DFG TEST")
+                .addTrace("test 1")
+                .addEvent("A")
+                .addAttribute(XTimeExtension.KEY_TIMESTAMP, Date.from(Instant.parse("2015-01-01T10:00:00.00Z")))
+                .addEvent("C")
+                .addAttribute(XTimeExtension.KEY_TIMESTAMP, Date.from(Instant.parse("2015-01-01T10:40:00.00Z")))
+                .addEvent("B")
+                .addAttribute(XTimeExtension.KEY_TIMESTAMP, Date.from(Instant.parse("2015-01-01T10:10:00.00Z")))
+                .addTrace("test 2")
+                .addEvent("A")
+                .addAttribute(XTimeExtension.KEY_TIMESTAMP, Date.from(Instant.parse("2015-01-01T11:00:00.00Z")))
+                .addEvent("B")
+                .addAttribute(XTimeExtension.KEY_TIMESTAMP, Date.from(Instant.parse("2015-01-01T11:20:00.00Z")))
+                .addTrace("test 3")
+                .addEvent("A")
+                .addAttribute(XTimeExtension.KEY_TIMESTAMP, Date.from(Instant.parse("2015-01-01T12:00:00.00Z")))
+                .addAttribute(XLifecycleExtension.KEY_TRANSITION, "start")
+                .addEvent("A")
+                .addAttribute(XTimeExtension.KEY_TIMESTAMP, Date.from(Instant.parse("2015-01-01T12:30:00.00Z")))
+                .addAttribute(XLifecycleExtension.KEY_TRANSITION, "complete")
+                .addEvent("B")
+                .addAttribute(XTimeExtension.KEY_TIMESTAMP, Date.from(Instant.parse("2015-01-01T12:45:00.00Z")))
+                .addAttribute(XLifecycleExtension.KEY_TRANSITION, "start")
+                .build();
+
+        XEStools xeStools = new XEStools(alog);
+        DirectlyFollowsGraph graph = xeStools.getDirectlyFollowsGraph((Map<XEStools.FilterType, Object>) null);
+        assertTrue("Graph should have 2 edges, got " + graph.getEdges().size(), graph.getEdges().size() == 2);
+        assertTrue("Graph should count 3 traces, got " + graph.getTraceCount(), graph.getTraceCount() == 3);
+
+        // waiting after lifecycle activity starts at its complete
+        DirectlyFollowsGraph.Edge edge = graph.getEdge("A", "B");
+        assertTrue("A should be followed by B 3 times, got " + edge.getCount(), edge.getCount() == 3);
+        assertTrue("Mean A-B time should be 900 seconds, got " + edge.getMeanTime(), edge.getMeanTime() == 900D);
+        assertTrue("Median A-B time should be 900 seconds, got " + edge.getTimeQuantile(0.5), edge.getTimeQuantile(0.5) == 900D);
+        assertTrue("B-C time should be 1800 seconds", graph.getEdge("B", "C").getMeanTime() == 1800D);
+        assertTrue("C should not follow A", graph.getEdge("A", "C") == null);
+        assertTrue("All traces should start with A", graph.getStartActivities().get("A") == 3L);
+        assertTrue("Two traces should end with B", graph.getEndActivities().get("B") == 2L);
+
+        Map<XEStools.FilterType, Object> filter = Maps.newHashMap();
+        filter.put(XEStools.FilterType.TRACE_NAME_LIST, Lists.newArrayList("test 1"));
+        DirectlyFollowsGraph filtered = xeStools.getDirectlyFollowsGraph(filter);
+        assertTrue("Filtered A-B should be counted once", filtered.getEdge("A", "B").getCount() == 1);
+
+        // parallel and columnar graphs match sequential one
+        XLogBuilder builder = XLogBuilder.newInstance().startLog("PARALLEL DFG TEST");
+        for (int trace = 0; trace < 50; trace++) {
+            builder.addTrace("trace " + trace);
+            for (int event = 0; event < 6; event++) {
+                builder.addEvent("event " + (event * trace) % 5)
+                        .addAttribute(XTimeExtension.KEY_TIMESTAMP, Date.from(Instant.parse("2015-01-01T10:00:00.00Z")
+                                .plusSeconds(trace * 3600 + event * 600 + trace * event * 17)));
+            }
+        }
+        XLog large = builder.build();
+        DirectlyFollowsGraph expected = new XEStools(large).getDirectlyFollowsGraphMatching(TraceFilter.ALL, QuantileSketch.DEFAULT_ACCURACY);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            XEStools columnar = new XEStools(large, pool);
+            columnar.setColumnar(true);
+            for (DirectlyFollowsGraph actual: Arrays.asList(
+                    new XEStools(large, pool).getDirectlyFollowsGraphMatching(TraceFilter.ALL, QuantileSketch.DEFAULT_ACCURACY),
+                    columnar.getDirectlyFollowsGraphMatching(TraceFilter.ALL, QuantileSketch.DEFAULT_ACCURACY))) {
+                assertTrue("Edges should match", expected.getEdges().size() == actual.getEdges().size());
+                for (DirectlyFollowsGraph.Edge expectedEdge: expected.getEdges()) {
+                    DirectlyFollowsGraph.Edge actualEdge = actual.getEdge(expectedEdge.getFrom(), expectedEdge.getTo());
+                    assertTrue("Edge counts should match", expectedEdge.getCount() == actualEdge.getCount());
+                    assertTrue("Edge mean times should match", Math.abs(expectedEdge.getMeanTime() - actualEdge.getMeanTime()) < 1e-9);
+                    assertTrue("Edge median times should match", expectedEdge.getTimeQuantile(0.5) == actualEdge.getTimeQuantile(0.5));
+                }
+                assertTrue("Start activities should match", expected.getStartActivities().equals(actual.getStartActivities()));
+                assertTrue("End activities should match", expected.getEndActivities().equals(actual.getEndActivities()));
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void variantIndexTest() {
+        String[][] sequences = {{"A", "B", "C"}, {"A", "B"}, {"A", "B", "C"}, {"A", "C"}, {"A", "B", "C"}, {"A", "B"}};
+        XLogBuilder builder = XLogBuilder.newInstance().startLog("VARIANT TEST");
+        for (int trace = 0; trace < sequences.length; trace++) {
+            builder.addTrace("test " + trace);
+            for (String name: sequences[trace]) {
+                builder.addEvent(name);
+            }
+        }
+        XLog alog = builder.build();
+
+        XEStools xeStools = new XEStools(alog);
+        VariantIndex index = xeStools.getVariantIndex((Map<XEStools.FilterType, Object>) null);
+        assertTrue("Index should have 3 variants, got " + index.getVariantCount(), index.getVariantCount() == 3);
+        assertTrue("Index should have 6 traces, got " + index.getTraceCount(), index.getTraceCount() == 6);
+
+        List<VariantIndex.Variant> variants = index.getVariants();
+        assertTrue("Most frequent variant should be A B C, got " + variants.get(0).getActivities(),
+                variants.get(0).getActivities().equals(Arrays.asList("A", "B", "C")));
+        assertTrue("A B C should have traces 0, 2, 4", Arrays.equals(variants.get(0).getTraces(), new int[]{0, 2, 4}));
+        assertTrue("Second variant should be A B", variants.get(1).getActivities().equals(Arrays.asList("A", "B"))
+                && variants.get(1).getCount() == 2);
+        assertTrue("Variant of trace should be found", index.getVariant(alog.get(3)).getCount() == 1);
+
+        Map<XEStools.FilterType, Object> filter = Maps.newHashMap();
+        filter.put(XEStools.FilterType.EVENT_COUNT_RANGE, closed(2, 2));
+        VariantIndex filtered = xeStools.getVariantIndex(filter);
+        assertTrue("Filtered index should have 2 variants, got " + filtered.getVariantCount(), filtered.getVariantCount() == 2);
+        assertTrue("Long variant should be filtered out", filtered.getVariant(alog.get(0)) == null);
+
+        // event classes are derived once per classifier until log changes
+        assertTrue("Event classes should be reused", filtered.getClasses() == index.getClasses());
+        assertTrue("Equal classifier should reuse event classes",
+                xeStools.getVariantIndexMatching(null, new XEventNameClassifier()).getClasses() == index.getClasses());
+        xeStools.appendTrace(XLogBuilder.newInstance().startLog("APPENDED").addTrace("test 6").addEvent("D").build().get(0));
+        VariantIndex appended = xeStools.getVariantIndex((Map<XEStools.FilterType, Object>) null);
+        assertTrue("Appended trace should derive event classes again", appended.getClasses() != index.getClasses()
+                && appended.getVariantCount() == 4 && appended.getVariant(alog.get(6)) != null);
+        alog.get(6).add(alog.get(0).get(0));
+        xeStools.traceChanged(alog.get(6));
+        VariantIndex changed = xeStools.getVariantIndex((Map<XEStools.FilterType, Object>) null);
+        assertTrue("Changed trace should derive event classes again", changed.getClasses() != appended.getClasses()
+                && changed.getVariant(alog.get(6)).getActivities().equals(Arrays.asList("D", "A")));
+
+        // index matches grouping of stringified traces, other modes match sequential index
+        XLog large = lifecycleLog("PARALLEL VARIANT TEST", 200);
+        Map<String, Integer> expected = Maps.newHashMap();
+        for (XTrace xTrace: large) {
+            expected.merge(XUtils.stringifyTrace(xTrace), 1, Integer::sum);
+        }
+        VariantIndex sequential = new XEStools(large).getVariantIndexMatching(TraceFilter.ALL, new XEventNameClassifier());
+        assertTrue("Variant counts should match, got " + sequential.getVariantCount(), sequential.getVariantCount() == expected.size());
+        for (VariantIndex.Variant variant: sequential.getVariants()) {
+            String signature = XUtils.stringifyTrace(large.get(variant.getTraces()[0]));
+            assertTrue("Variant count should match for " + signature, expected.get(signature) == variant.getCount());
+        }
+        assertModesMatch(large, TraceFilter.ALL);
+
+        Map<XEStools.FilterType, Object> nothing = Maps.newHashMap();
+        nothing.put(XEStools.FilterType.EVENT_NAME_LIST, Lists.newArrayList("missing"));
+        assertTrue("Filter should match no variant", new XEStools(large).getVariantIndex(nothing).getVariantCount() == 0);
+        assertModesMatch(large, TraceFilter.compile(nothing));
+    }
+
+    @Test
+    public void timeIndexTest() {
+        XLog alog = lifecycleLog("TIME INDEX TEST", 100);
+
+        ZonedDateTime from = ZonedDateTime.ofInstant(Instant.parse("2015-01-02T00:00:00.00Z"), ZoneId.of("UTC"));
+        ZonedDateTime to = ZonedDateTime.ofInstant(Instant.parse("2015-01-02T12:00:00.00Z"), ZoneId.of("UTC"));
+        List<Map<XEStools.FilterType, Object>> filters = Lists.newArrayList();
+        filters.add(Maps.newHashMap());
+        filters.get(0).put(XEStools.FilterType.TRACE_START_RANGE, closed(from, to));
+        filters.add(Maps.newHashMap());
+        filters.get(1).put(XEStools.FilterType.TRACE_END_RANGE, Range.atLeast(to));
+        filters.add(Maps.newHashMap());
+        filters.get(2).put(XEStools.FilterType.TRACE_START_RANGE, upTo(from, BoundType.OPEN));
+        filters.get(2).put(XEStools.FilterType.TRACE_END_RANGE, closed(from, to));
+
+        XEStools xeStools = new XEStools(alog);
+        for (Map<XEStools.FilterType, Object> filter: filters) {
+            TraceFilter traceFilter = TraceFilter.compile(filter);
+            List<String> expected = scan(alog, traceFilter);
+            assertTrue("Filter should select some traces", !expected.isEmpty());
+            List<String> names = names(xeStools.getFullTraceListMatching(traceFilter));
+            assertTrue("Indexed traces should match scan in log order, got " + names, expected.equals(names));
+            assertModesMatch(alog, traceFilter);
+        }
+
+        // windows after and before all traces and empty range select nothing
+        Map<XEStools.FilterType, Object> nothing = Maps.newHashMap();
+        for (Range<ZonedDateTime> range: Arrays.asList(Range.atLeast(to.plusYears(1)), Range.closed(from.minusYears(1), to.minusYears(1)),
+                Range.closedOpen(from, from))) {
+            nothing.put(XEStools.FilterType.TRACE_START_RANGE, range);
+            assertTrue("Filter should match nothing for " + range, xeStools.getFullTraceList(nothing).isEmpty());
+            assertModesMatch(alog, TraceFilter.compile(nothing));
+        }
+
+        // index follows appended traces
+        XTrace late = (XTrace) alog.get(0).clone();
+        XConceptExtension.instance().assignName(late, "late");
+        for (XEvent xEvent: late) {
+            XTimeExtension.instance().assignTimestamp(xEvent, Date.from(Instant.parse("2015-01-02T06:00:00.00Z")));
+        }
+        xeStools.appendTrace(late);
+        List<String> names = names(xeStools.getFullTraceList(filters.get(0)));
+        assertTrue("Appended trace should be found last, got " + names, names.get(names.size() - 1).equals("late"));
+
+        // index follows traces changed in place, once summary is recalculated or trace is reported changed
+        Map<XEStools.FilterType, Object> later = Maps.newHashMap();
+        later.put(XEStools.FilterType.TRACE_END_RANGE, closed(to.plusYears(1), to.plusYears(1).plusDays(2)));
+        assertTrue("No trace should end a year later", xeStools.getFullTraceList(later).isEmpty());
+        XEvent moved = (XEvent) alog.get(1).get(0).clone();
+        XTimeExtension.instance().assignTimestamp(moved, Date.from(to.plusYears(1).plusDays(1).toInstant()));
+        alog.get(1).add(moved);
+        xeStools.getTraceSummary(alog.get(1));
+        names = names(xeStools.getFullTraceList(later));
+        assertTrue("Trace with recalculated summary should be found, got " + names, names.equals(Arrays.asList("trace 1")));
+        alog.get(2).add((XEvent) moved.clone());
+        xeStools.traceChanged(alog.get(2));
+        names = names(xeStools.getFullTraceList(later));
+        assertTrue("Changed trace should be found, got " + names, names.equals(Arrays.asList("trace 1", "trace 2")));
+    }
+
+    @Test
+    public void attributeIndexTest() {
+        // sparse and dense containers, across 16 bit boundaries
+        Random random = new Random(42);
+        Set<Integer> left = Sets.newTreeSet();
+        Set<Integer> right = Sets.newTreeSet();
+        for (int i = 0; i < 20000; i++) {
+            left.add(random.nextInt(70000));
+            right.add(65000 + random.nextInt(200000));
+        }
+        TraceBitmap leftBitmap = TraceBitmap.of(left.stream().mapToInt(Integer::intValue).toArray());
+        TraceBitmap rightBitmap = TraceBitmap.of(right.stream().mapToInt(Integer::intValue).toArray());
+        Set<Integer> union = Sets.newTreeSet(Sets.union(left, right));
+        Set<Integer> intersection = Sets.newTreeSet(Sets.intersection(left, right));
+        assertTrue("Bitmap should keep values", Arrays.equals(leftBitmap.toArray(), left.stream().mapToInt(Integer::intValue).toArray()));
+        assertTrue("Union should match", Arrays.equals(leftBitmap.or(rightBitmap).toArray(), union.stream().mapToInt(Integer::intValue).toArray()));
+        assertTrue("Intersection should match",
+                Arrays.equals(leftBitmap.and(rightBitmap).toArray(), intersection.stream().mapToInt(Integer::intValue).toArray()));
+        assertTrue("Bitmap should contain value", leftBitmap.contains(left.iterator().next()) && !leftBitmap.contains(300000));
+
+        // indexed filters match scan
+        XLog alog = lifecycleLog("ATTRIBUTE INDEX TEST", 120);
+
+        List<Map<XEStools.FilterType, Object>> filters = Lists.newArrayList();
+        filters.add(Maps.newHashMap());
+        filters.get(0).put(XEStools.FilterType.RESOURCE_LIST, Lists.newArrayList("IVANOV", "MULTI"));
+        filters.add(Maps.newHashMap());
+        filters.get(1).put(XEStools.FilterType.EVENT_NAME_LIST, Lists.newArrayList("event 1", "event 4"));
+        filters.get(1).put(XEStools.FilterType.ROLE_LIST, Lists.newArrayList("MANAGER"));
+        filters.add(Maps.newHashMap());
+        filters.get(2).put(XEStools.FilterType.GROUP_LIST, Lists.newArrayList("NA"));
+        filters.get(2).put(XEStools.FilterType.RESOURCE_LIST, Lists.newArrayList("PETROV"));
+        filters.get(2).put(XEStools.FilterType.TRACE_START_RANGE, closed(
+                ZonedDateTime.ofInstant(Instant.parse("2015-01-02T00:00:00.00Z"), ZoneId.of("UTC")),
+                ZonedDateTime.ofInstant(Instant.parse("2015-01-04T00:00:00.00Z"), ZoneId.of("UTC"))));
+
+        XEStools xeStools = new XEStools(alog);
+        for (Map<XEStools.FilterType, Object> filter: filters) {
+            TraceFilter traceFilter = TraceFilter.compile(filter);
+            List<String> expected = scan(alog, traceFilter);
+            assertTrue("Filter should select some traces", !expected.isEmpty());
+            List<String> names = names(xeStools.getFullTraceListMatching(traceFilter));
+            assertTrue("Indexed traces should match scan in log order, got " + names, expected.equals(names));
+            assertModesMatch(alog, traceFilter);
+        }
+
+        // unknown value and values of different traces select nothing
+        Map<XEStools.FilterType, Object> nothing = Maps.newHashMap();
+        nothing.put(XEStools.FilterType.RESOURCE_LIST, Lists.newArrayList("NOBODY"));
+        assertTrue("Unknown resource should match nothing", xeStools.getFullTraceList(nothing).isEmpty());
+        assertModesMatch(alog, TraceFilter.compile(nothing));
+        nothing.put(XEStools.FilterType.RESOURCE_LIST, Lists.newArrayList("MULTI"));
+        nothing.put(XEStools.FilterType.ROLE_LIST, Lists.newArrayList("MANAGER"));
+        assertTrue("Multi resource managers should match nothing", xeStools.getFullTraceList(nothing).isEmpty());
+        assertModesMatch(alog, TraceFilter.compile(nothing));
+        // index follows traces changed in place, once summary is recalculated or trace is reported changed
+        Map<XEStools.FilterType, Object> multi = Maps.newHashMap();
+        multi.put(XEStools.FilterType.RESOURCE_LIST, Lists.newArrayList("MULTI"));
+        multi.put(XEStools.FilterType.ROLE_LIST, Lists.newArrayList("MANAGER"));
+        for (XTrace xTrace: Arrays.asList(alog.get(0), alog.get(4))) {
+            XEvent xEvent = (XEvent) xTrace.get(0).clone();
+            XOrganizationalExtension.instance().assignResource(xEvent, "NEWCOMER");
+            xTrace.add(xEvent);
+            if (xTrace == alog.get(0)) {
+                xeStools.getTraceSummary(xTrace);
+            }
+            else {
+                xeStools.traceChanged(xTrace);
+            }
+            List<String> names = names(xeStools.getFullTraceList(multi));
+            assertTrue("Trace becoming multi resource should be found, got " + names, names.equals(scan(alog, TraceFilter.compile(multi)))
+                    && names.contains(XConceptExtension.instance().extractName(xTrace)));
+        }
+    }
+
+    @Test
+    public void samplingModeTest() {
+        XLogBuilder builder = XLogBuilder.newInstance().startLog("SAMPLING TEST");
+        String[] resources = {"IVANOV", "PETROV", "SIDOROV"};
+        for (int trace = 0; trace < 3000; trace++) {
+            // durations differ by resource, so stratification matters
+            String resource = resources[trace % 7 == 0 ? 0 : trace % 5 == 0 ? 1 : 2];
+            Instant start = Instant.parse("2015-01-01T10:00:00.00Z").plusSeconds(trace * 600L);
+            builder.addTrace("trace " + trace)
+                    .addEvent("event 1")
+                    .addAttribute(XTimeExtension.KEY_TIMESTAMP, Date.from(start))
+                    .addAttribute(XOrganizationalExtension.KEY_RESOURCE, resource)
+                    .addEvent("event 2")
+                    .addAttribute(XTimeExtension.KEY_TIMESTAMP, Date.from(start.plusSeconds(60L * (trace * 31 % 17)
+                            + (resource.equals("IVANOV") ? 3600 : 0))))
+                    .addAttribute(XOrganizationalExtension.KEY_RESOURCE, resource)
+                    .addEvent("event 3")
+                    .addAttribute(XTimeExtension.KEY_TIMESTAMP, Date.from(start.plusSeconds(60L * (trace * 31 % 17)
+                            + (resource.equals("IVANOV") ? 3600 : 0) + 60L * (trace % 11 + 1))))
+                    .addAttribute(XOrganizationalExtension.KEY_RESOURCE, resource);
+        }
+        XLog alog = builder.build();
+        XEStools xeStools = new XEStools(alog);
+
+        Estimate exact = xeStools.estimateMeanTraceDurationMatching(TraceFilter.ALL, 0.95);
+        double mean = xeStools.getTraceDurations().values().stream().mapToLong(Long::longValue).average().getAsDouble();
+        assertTrue("Exact estimate should be mean, got " + exact, Math.abs(exact.getValue() - mean) < 1e-9 && exact.getMargin() == 0);
+        Map<String, Double> exactShares = xeStools.eventDurationSharesMatching(TraceFilter.ALL, false);
+        Map<String, Estimate> estimatedShares = xeStools.estimateEventDurationSharesMatching(TraceFilter.ALL, 0.95);
+        for (String name: exactShares.keySet()) {
+            assertTrue("Exact share should match for " + name,
+                    Math.abs(exactShares.get(name) - estimatedShares.get(name).getValue()) < 1e-12);
+        }
+
+        TraceSample uniform = xeStools.sampleTraces(300, 7L);
+        assertTrue("Sample should have 300 traces, got " + uniform.size(), uniform.size() == 300);
+        assertTrue("Same seed should give same sample", Arrays.equals(uniform.getPositions(), xeStools.sampleTraces(300, 7L).getPositions()));
+        assertTrue("Other seed should give other sample", !Arrays.equals(uniform.getPositions(), xeStools.sampleTraces(300, 8L).getPositions()));
+
+        TraceSample stratified = xeStools.sampleTraces(300, 7L, TraceSummary::getResource);
+        assertTrue("Sample should have 3 strata, got " + stratified.getStrata(), stratified.getStrata().size() == 3);
+        for (int stratum = 0; stratum < 3; stratum++) {
+            double expected = 300.0 * stratified.getPopulation(stratum) / 3000;
+            assertTrue("Stratum size should be proportional", Math.abs(stratified.getSize(stratum) - expected) <= 1);
+        }
+
+        for (TraceSample sample: Arrays.asList(uniform, stratified)) {
+            xeStools.setSample(sample);
+            assertTrue("Analytics should use sample", xeStools.getFullTraceListMatching(TraceFilter.ALL).size() == 300
+                    && xeStools.getTraceDurations().size() == 300);
+
+            Estimate estimate = xeStools.estimateMeanTraceDurationMatching(TraceFilter.ALL, 0.99);
+            assertTrue("Interval should cover exact mean " + exact.getValue() + ", got " + estimate,
+                    estimate.getLower() <= exact.getValue() && exact.getValue() <= estimate.getUpper());
+            assertTrue("Interval should be narrow, got " + estimate, estimate.getMargin() > 0 && estimate.getMargin() < exact.getValue() * 0.2
+                    && estimate.getSampleCount() == 300);
+
+            Map<XEStools.FilterType, Object> filter = Maps.newHashMap();
+            filter.put(XEStools.FilterType.RESOURCE_LIST, Lists.newArrayList("IVANOV"));
+            Estimate domain = xeStools.estimateMeanTraceDuration(filter, 0.99);
+            xeStools.setSample(null);
+            Estimate exactDomain = xeStools.estimateMeanTraceDuration(filter, 0.99);
+            assertTrue("Filtered interval should cover exact mean " + exactDomain.getValue() + ", got " + domain,
+                    domain.getLower() <= exactDomain.getValue() && exactDomain.getValue() <= domain.getUpper());
+        }
+        assertTrue("Exact rerun should use whole log", xeStools.getFullTraceListMatching(TraceFilter.ALL).size() == 3000);
+    }
+
+    @Test
+    public void resultCacheTest() {
+        XLogBuilder builder = XLogBuilder.newInstance().startLog("RESULT CACHE TEST");
+        String[] resources = {"IVANOV", "PETROV", "SIDOROV"};
+        for (int trace = 0; trace < 30; trace++) {
+            builder.addTrace("trace " + trace);
+            for (int event = 0; event < 3; event++) {
+                builder.addEvent("event " + event)
+                        .addAttribute(XTimeExtension.KEY_TIMESTAMP, Date.from(Instant.parse("2015-01-01T10:00:00.00Z")
+                                .plusSeconds(trace * 3600 + event * 600 * (1 + trace % 4))))
+                        .addAttribute(XOrganizationalExtension.KEY_RESOURCE, resources[trace % 3]);
+            }
+        }
+        XLog alog = builder.build();
+        XEStools xeStools = new XEStools(alog);
+
+        Map<XEStools.FilterType, Object> filter = Maps.newHashMap();
+        filter.put(XEStools.FilterType.RESOURCE_LIST, Lists.newArrayList("IVANOV", "PETROV"));
+        Map<XEStools.FilterType, Object> reordered = Maps.newHashMap();
+        reordered.put(XEStools.FilterType.RESOURCE_LIST, Lists.newArrayList("PETROV", "IVANOV", "PETROV"));
+
+        List<FlatXTrace> traces = xeStools.getFullTraceList(filter);
+        Map<String, Double> shares = xeStools.eventDurationShares(filter, false);
+        Map<String, Double> medians = xeStools.eventDurationShares(filter, true);
+        List<Workload> workloads = xeStools.calculateResourceWorkload(filter);
+        assertTrue("First requests should miss", xeStools.getResultCacheStats().missCount() == 4
+                && xeStools.getResultCacheStats().hitCount() == 0);
+
+        FlatXTrace first = new FlatXTrace(traces.get(0));
+        traces.get(0).setName("changed by caller");
+        traces.clear();
+        List<FlatXTrace> cachedTraces = xeStools.getFullTraceList(reordered);
+        assertTrue("Cached traces should not be changed by caller", cachedTraces.size() == 20 && cachedTraces.get(0).equals(first));
+        assertTrue("Cached shares should match", shares.equals(xeStools.eventDurationShares(reordered, false))
+                && medians.equals(xeStools.eventDurationShares(reordered, true)));
+        long workload = workloads.get(0).getWorkload();
+        workloads.get(0).setWorkload(-1L);
+        List<Workload> cachedWorkloads = xeStools.calculateResourceWorkload(reordered);
+        assertTrue("Cached workloads should not be changed by caller", cachedWorkloads.size() == workloads.size()
+                && cachedWorkloads.get(0) != workloads.get(0) && cachedWorkloads.get(0).getWorkload() == workload);
+        assertTrue("Reordered filter should hit, got " + xeStools.getResultCacheStats(),
+                xeStools.getResultCacheStats().hitCount() == 4 && xeStools.getResultCacheStats().missCount() == 4);
+
+        xeStools.eventDurationShares(filter, 0.9, 100);
+        assertTrue("Other arguments should miss", xeStools.getResultCacheStats().missCount() == 5);
+
+        // event added in place is seen once trace summary is recalculated or trace is reported changed
+        alog.get(0).add((XEvent) alog.get(0).get(2).clone());
+        xeStools.getTraceSummary(alog.get(0));
+        assertTrue("Recalculated summary should miss", xeStools.getFullTraceList(filter).get(0).getEventCount() == 4
+                && xeStools.getResultCacheStats().missCount() == 6);
+        alog.get(0).add((XEvent) alog.get(0).get(2).clone());
+        xeStools.traceChanged(alog.get(0));
+        assertTrue("Changed trace should miss", xeStools.getFullTraceList(filter).get(0).getEventCount() == 5
+                && xeStools.getResultCacheStats().missCount() == 7);
+        xeStools.appendTrace((XTrace) alog.get(1).clone());
+        assertTrue("Appended trace should miss", xeStools.getFullTraceList(filter).size() == 21
+                && xeStools.getResultCacheStats().missCount() == 8);
+
+        // new log with the same size should not get old results
+        XLog other = (XLog) alog.clone();
+        for (XTrace xTrace: other) {
+            for (XEvent xEvent: xTrace) XOrganizationalExtension.instance().assignResource(xEvent, "IVANOV");
+        }
+        xeStools.setXLog(other);
+        assertTrue("Cache should be cleared with log", xeStools.getFullTraceList(filter).size() == 31
+                && xeStools.getResultCacheStats().missCount() == 9);
+
+        // least recently used result is evicted
+        xeStools.setResultCacheLimits(2, 1000);
+        xeStools.getFullTraceListMatching(TraceFilter.ALL);
+        xeStools.eventDurationSharesMatching(TraceFilter.ALL, false);
+        xeStools.getFullTraceList(filter);
+        xeStools.getFullTraceListMatching(TraceFilter.ALL);
+        assertTrue("Evicted result should be computed again, got " + xeStools.getResultCacheStats(),
+                xeStools.getResultCacheStats().missCount() == 13 && xeStools.getResultCacheStats().evictionCount() >= 2);
+
+        // results over weight limit are not cached
+        xeStools.setResultCacheLimits(2, 10);
+        xeStools.getFullTraceListMatching(TraceFilter.ALL);
+        xeStools.getFullTraceListMatching(TraceFilter.ALL);
+        assertTrue("Heavy result should not be cached", xeStools.getResultCacheStats().missCount() == 15);
+    }
+
+    @Test
+    public void gzipStreamsTest() throws IOException {
+        Random random = new Random(42);
+        ForkJoinPool pool = new ForkJoinPool(3);
+        for (int size: new int[]{0, 1, 32767, 3 * (1 << 16) + 17, 5 * (1 << 20) + 3}) {
+            // compressible text with some noise
+            byte[] data = new byte[size];
+            for (int i = 0; i < size; i++) {
+                data[i] = (byte) (random.nextInt(10) == 0 ? random.nextInt(256) : "<event key=\"concept:name\"/>".charAt(i % 27));
+            }
+
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (XParallelGZIPOutputStream out = new XParallelGZIPOutputStream(compressed, pool, Deflater.DEFAULT_COMPRESSION, 1 << 16)) {
+                out.write(data, 0, size / 3);
+                out.flush();
+                for (int i = size / 3; i < size / 2; i++) out.write(data[i]);
+                out.write(data, size / 2, size - size / 2);
+            }
+            assertTrue("Data should be compressed", size < 1000 || compressed.size() < size / 2);
+
+            assertTrue("Gzip should read parallel output of " + size + " bytes",
+                    Arrays.equals(data, ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(compressed.toByteArray())))));
+            try (InputStream in = new XPipelinedGZIPInputStream(new ByteArrayInputStream(compressed.toByteArray()), 1000, 2)) {
+                assertTrue("Pipelined stream should read " + size + " bytes", Arrays.equals(data, ByteStreams.toByteArray(in)));
+            }
+        }
+        pool.shutdown();
+
+        // concatenated members and errors
+        ByteArrayOutputStream members = new ByteArrayOutputStream();
+        for (String text: Arrays.asList("first ", "second")) {
+            GZIPOutputStream out = new GZIPOutputStream(members);
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+            out.finish();
+        }
+        try (InputStream in = new XPipelinedGZIPInputStream(new ByteArrayInputStream(members.toByteArray()))) {
+            assertTrue("Members should be concatenated", "first second".equals(new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8)));
+        }
+        byte[] broken = Arrays.copyOf(members.toByteArray(), members.size() - 5);
+        boolean failed = false;
+        try (InputStream in = new XPipelinedGZIPInputStream(new ByteArrayInputStream(broken))) {
+            ByteStreams.toByteArray(in);
+        }
+        catch (IOException e) {
+            failed = true;
+        }
+        assertTrue("Truncated input should fail", failed);
+    }
+
+    @Test
+    public void gzipParseFailureTest() throws IOException {
+        // small buffers, so inflater is blocked on a full pipeline when parser fails
+        XesXmlGZIPParser parser = new XesXmlGZIPParser() {
+            @Override
+            protected InputStream decompress(InputStream is) throws IOException {
+                return new XPipelinedGZIPInputStream(is, 1024, 2);
+            }
+        };
+        StringBuilder xml = new StringBuilder("<log xes.version=\"1.0\"><trace><string key=\"concept:name\" value=\"1\"/></trace>");
+        StringBuilder corrupt = new StringBuilder(xml).append("<trace><event></trace>");
+        for (int i = 0; i < 10000; i++) {
+            xml.append("<trace><string key=\"concept:name\" value=\"").append(i).append("\"/></trace>");
+            corrupt.append("<trace/>");
+        }
+        byte[] valid = gzip(xml.append("</log>").toString());
+        byte[] truncated = Arrays.copyOf(valid, valid.length / 2);
+
+        for (byte[] data: Arrays.asList(gzip(corrupt.toString()), truncated)) {
+            for (boolean streamed: new boolean[]{false, true}) {
+                boolean failed = false;
+                try {
+                    if (streamed) {
+                        parser.stream(new ByteArrayInputStream(data)).forEachRemaining(xTrace -> {});
+                    }
+                    else {
+                        parser.parse(new ByteArrayInputStream(data));
+                    }
+                }
+                catch (Exception e) {
+                    failed = true;
+                }
+                assertTrue("Broken log should not be parsed", failed);
+                assertTrue("Inflater thread should end", Thread.getAllStackTraces().keySet().stream()
+                        .noneMatch(thread -> thread.getName().equals("XES gzip inflater") && thread.isAlive()));
+            }
+        }
+    }
+
+    private static byte[] gzip(String text) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+        return compressed.toByteArray();
+    }
+
+    private void assertIncrementalMatch(XEStools expected, XEStools incremental) {
+        assertTrue("Durations should match", expected.getTraceDurations().equals(incremental.getTraceDurations()));
+
+        Map<String, Double> expectedShares = expected.eventDurationSharesMatching(TraceFilter.ALL, false);
+        Map<String, Double> shares = incremental.eventDurationSharesMatching(TraceFilter.ALL, false);
+        assertTrue("Shares should have same events", expectedShares.keySet().equals(shares.keySet()));
+        for (String name: shares.keySet()) {
+            assertTrue("Mean share should match for " + name, Math.abs(expectedShares.get(name) - shares.get(name)) < 1e-12);
+        }
+        assertTrue("Median shares should match",
+                expected.eventDurationSharesMatching(TraceFilter.ALL, true).equals(incremental.eventDurationSharesMatching(TraceFilter.ALL, true)));
+
+        List<Workload> expectedWorkloads = expected.calculateResourceWorkloadMatching(TraceFilter.ALL, XEStools.Granularity.HOUR);
+        List<Workload> workloads = incremental.calculateResourceWorkloadMatching(TraceFilter.ALL, XEStools.Granularity.HOUR);
+        assertTrue("Workloads should have same size, got " + workloads.size(), expectedWorkloads.size() == workloads.size());
+        for (int i = 0; i < workloads.size(); i++) {
+            assertTrue("Workloads should match", expectedWorkloads.get(i).getResource().equals(workloads.get(i).getResource())
+                    && expectedWorkloads.get(i).getTimestamp().equals(workloads.get(i).getTimestamp())
+                    && expectedWorkloads.get(i).getWorkload().equals(workloads.get(i).getWorkload()));
+        }
     }
 }
@@ -1,5 +1,6 @@
 package org.processmining.xestools;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import junit.framework.TestCase;
 import org.deckfour.xes.classification.XEventNameClassifier;
@@ -32,6 +33,7 @@ import java.util.Map;
 import static junit.framework.TestCase.assertNotNull;
 import static junit.framework.TestCase.assertNull;
 import static junit.framework.TestCase.assertTrue;
+import static org.processmining.log.utils.XUtils.getConceptName;
 
 /**
  * Unit test for simple App.
@@ -177,6 +179,24 @@ public class XEStoolsTest
         start = XEStools.traceStartTime(xTrace);
         assertTrue("Should match first event (trace). Expected 10:00, got "+ start.toString(), start.equals(ZonedDateTime.of(2015,1,1,10,0,0,0, ZoneId.of("UTC"))));
 
+        assertTrue("Millis should match timestamp", XEStools.getTimestampMillis(xEvent2) == Instant.parse("2015-01-01T10:00:00.00Z").toEpochMilli());
+        assertTrue("Start millis should match start time", XEStools.traceStartMillis(xTrace, null) == start.toInstant().toEpochMilli());
+        assertTrue("Missing timestamp should be NO_TIMESTAMP", XEStools.getTimestampMillis(xFactory.createEvent()) == XEStools.NO_TIMESTAMP);
+
+        XOrganizationalExtension.instance().assignResource(xEvent1, "RES001");
+        assertTrue("Literal should be read", "RES001".equals(XEStools.getAttribute(xEvent1, XOrganizationalExtension.KEY_RESOURCE)));
+        assertTrue("Timestamp should be read", start.equals(XEStools.getAttribute(xEvent2, XTimeExtension.KEY_TIMESTAMP)));
+        assertTrue("Default should be returned", "NA".equals(XEStools.getAttribute(xEvent2, XOrganizationalExtension.KEY_RESOURCE, "NA")));
+        assertTrue("Typed timestamp should be read", EventAttributes.getTimestamp(xEvent2, XTimeExtension.KEY_TIMESTAMP) == start.toInstant().toEpochMilli());
+        assertTrue("Literal is not discrete", EventAttributes.getDiscrete(xEvent1, XOrganizationalExtension.KEY_RESOURCE, -1L) == -1L);
+        EventAttributes attributes = EventAttributes.of(xEvent1);
+        assertTrue("Standard attributes should be resolved", attributes.getName().equals("event1")
+                && attributes.getResource().equals("RES001") && attributes.getRole().equals("NA"));
+        attributes = EventAttributes.of(xEvent1.getAttributes());
+        assertTrue("Standard attributes should be resolved from attribute map", attributes.getName().equals("event1")
+                && attributes.getResource().equals("RES001") && attributes.getRole().equals("NA"));
+        assertTrue("Literal should be read from attribute map", "RES001".equals(EventAttributes.getLiteral(xEvent1.getAttributes(), XOrganizationalExtension.KEY_RESOURCE, null)));
+
         start = XEStools.traceStartTime(xTrace, "event1");
         assertTrue("Should match first event (trace) of type event1. Expected 10:30, got "+ start.toString(), start.equals(ZonedDateTime.of(2015,1,1,10,30,0,0, ZoneId.of("UTC"))));
 
@@ -248,6 +268,17 @@ public class XEStoolsTest
 
         duration = XEStools.getTraceDuration(xTrace, "event", "event1");
         assertTrue("Test duration calculation. Expected 0 got "+duration, duration == 0);
+
+        TraceSummary summary = xeStools.getTraceSummary(xTrace);
+        assertTrue("Summary duration should be 2400, got " + summary.getDuration(), summary.getDuration() == 2400);
+        assertTrue("Summary should be cached", summary == xeStools.getTraceSummary(xTrace));
+
+        XEvent xEvent4 = xFactory.createEvent();
+        XConceptExtension.instance().assignName(xEvent4, "event3");
+        XTimeExtension.instance().assignTimestamp(xEvent4, Instant.parse("2015-01-01T11:00:00.00Z").toEpochMilli());
+        xTrace.add(xEvent4);
+        duration = xeStools.getTraceDuration("test");
+        assertTrue("Summary should be refreshed after trace change. Expected 3600 got "+duration, duration == 3600);
     }
 
     @Test
@@ -419,6 +450,26 @@ public class XEStoolsTest
         segment = XEStools.trimTrace(trace, "event7", "event8");
         assertNull("Segment should be null", segment);
 
+        // trace is not time ordered, view keeps positions of matching events
+        SubTraceView view = XEStools.subTrace(trace, "event2", "event3");
+        assertTrue("View should have 5 events, got "+view.size(), view.size() == 5);
+        assertTrue("View should share events with trace", view.get(0) == trace.get(0) && view.get(4) == trace.get(5));
+        assertTrue("View should keep trace name", getConceptName(view).equals("test"));
+        XTrace copy = view.materialize();
+        assertTrue("Copy should have own events", copy.size() == 5 && copy.get(0) != view.get(0));
+        assertTrue("Copy should be built like source trace", copy.getClass() == trace.getClass()
+                && copy.get(0).getClass() == trace.get(0).getClass());
+        assertTrue("Copy should keep view events in order", getConceptName(copy.get(0)).equals(getConceptName(view.get(0)))
+                && getConceptName(copy.get(4)).equals(getConceptName(view.get(4))) && getConceptName(copy).equals("test"));
+        assertTrue("Source trace should be unchanged", trace.size() == 8 && view.get(0) == trace.get(0));
+
+        // time ordered trace, view is index range found by binary search
+        XTrace ordered = (XTrace) trace.clone();
+        ordered.add(0, ordered.remove(1));
+        view = XEStools.subTrace(ordered, "event2", "event3");
+        assertTrue("Ordered view should have 5 events, got "+view.size(), view.size() == 5);
+        assertTrue("Ordered view should be range 1..5", view.get(0) == ordered.get(1) && view.get(4) == ordered.get(5));
+
         List<FlatXTrace> traces = xeStools.getFullSubTraceList(null, "event2", "event3");
         assertTrue("Should be one trace in list, got "+traces.size(), traces.size() == 1);
         assertTrue("Trace should have 5 events, got "+traces.get(0).getEventCount(), traces.get(0).getEventCount() == 5);
@@ -430,6 +481,23 @@ public class XEStoolsTest
         traces = xeStools.getFullSubTraceList(null, "event9", "event9");
         assertTrue("List should be empty", traces.size() == 0);
 
+        // several segments in one pass, event2 -> event3 is repeated twice in trace
+        SegmentDefinition span = SegmentDefinition.span("event2", "event3");
+        SegmentDefinition repeated = SegmentDefinition.repeated("event2", "event3");
+        SegmentDefinition whole = SegmentDefinition.span("event1", "event6");
+        Map<SegmentDefinition, List<FlatXTrace>> segments = xeStools.getFullSubTraceListMatching(TraceFilter.ALL,
+                Lists.newArrayList(span, repeated, whole, SegmentDefinition.span("event9", "event9")));
+        assertTrue("Should be 4 segment lists, got " + segments.size(), segments.size() == 4);
+        assertTrue("Span segment should match single call", segments.get(span).equals(xeStools.getFullSubTraceList(null, "event2", "event3")));
+        assertTrue("Repeated segment should be found twice, got " + segments.get(repeated).size(), segments.get(repeated).size() == 2);
+        assertTrue("First repetition has 2 events, got " + segments.get(repeated).get(0).getEventCount(),
+                segments.get(repeated).get(0).getEventCount() == 2);
+        assertTrue("Second repetition has 3 events and starts 10:50, got " + segments.get(repeated).get(1).getStartTime(),
+                segments.get(repeated).get(1).getEventCount() == 3
+                        && segments.get(repeated).get(1).getStartTime().equals(ZonedDateTime.of(2015,1,1,10,50,0,0, ZoneId.of("UTC"))));
+        assertTrue("Whole trace segment has 8 events", segments.get(whole).get(0).getEventCount() == 8);
+        assertTrue("Missing segment should be empty", segments.get(SegmentDefinition.span("event9", "event9")).isEmpty());
+
 
     }
 
@@ -503,6 +571,7 @@ public class XEStoolsTest
 
         Map<String, Double> durations = XEStools.eventDurationInTrace(xTrace);
         assertTrue("There are two classes of events in trace, got "+ durations.size(), durations.size() == 2);
+        assertTrue("Trace should not be reordered", xTrace.get(0) == xEvent1 && xTrace.get(1) == xEvent2);
         assertTrue("The event2 duration is 1800 seconds, got "+durations.get("event2"), durations.get("event2") == 1800D);
         assertTrue("The event1 duration is 1200 seconds, got "+durations.get("event1"), durations.get("event1") == 1200D);
         Map<String, Double> shares = XEStools.eventSharesInTrace(xTrace);